@@ -1,3 +1,8 @@
+-- Creates the base schema. Later changes such as indexes are versioned
+-- scripts in src/main/resources/db/migration. The application applies
+-- them in version order when it starts (see MigrationService.java) and
+-- records them in the schema_migrations table.
+
 -- Create the database
 CREATE DATABASE IF NOT EXISTS csx370_mb_platform;
 USE csx370_mb_platform;
@@ -22,6 +27,10 @@ CREATE TABLE IF NOT EXISTS posts (
     userId INT NOT NULL,
     content TEXT NOT NULL,
     created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    -- Denormalized counts of likes and comments rows for this post.
+    -- Kept up to date by PostCounterService.
+    hearts_count INT NOT NULL DEFAULT 0,
+    comments_count INT NOT NULL DEFAULT 0,
     PRIMARY KEY (postId),
     FOREIGN KEY (userId) REFERENCES user(userId) ON DELETE CASCADE
 ) ENGINE=InnoDB;
@@ -64,6 +73,12 @@ CREATE TABLE IF NOT EXISTS comments (
     content TEXT NOT NULL,
     created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
     PRIMARY KEY (commentId),
+    -- Comment pages of a post are read in (created_at, commentId) order
+    -- after a cursor. This index serves the seek and the order without a
+    -- sort and holds user_id for the join with user, so only the content
+    -- of the comments on the page is read from the table rows.
+    -- It also serves the post_id foreign key.
+    INDEX idx_comments_post_created (post_id, created_at, commentId, user_id),
     FOREIGN KEY (post_id) REFERENCES posts(postId) ON DELETE CASCADE,
     FOREIGN KEY (user_id) REFERENCES user(userId) ON DELETE CASCADE
 ) ENGINE=InnoDB;
@@ -0,0 +1,66 @@
+-- Creates the tables of a shard database. See ShardRouter.java.
+-- Only needed when app.shards.urls lists shard databases. Without it the
+-- main database created by database_setup.sql is the only shard.
+-- Run this on each shard database after creating it.
+-- Each shard holds the posts of its users together with their likes,
+-- bookmarks, comments and hashtag links. The user, follows and hashtags
+-- tables stay on the main database, so the ids that point to them are not
+-- foreign keys here.
+-- Migrations in src/main/resources/db/migration run on the main database
+-- only. The indexes of V1__index_pack.sql are created here directly.
+
+-- Posts
+CREATE TABLE IF NOT EXISTS posts (
+    postId INT AUTO_INCREMENT,
+    userId INT NOT NULL,
+    content TEXT NOT NULL,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    -- Denormalized counts of likes and comments rows for this post.
+    -- Kept up to date by PostCounterService.
+    hearts_count INT NOT NULL DEFAULT 0,
+    comments_count INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (postId),
+    INDEX idx_posts_user_created (userId, created_at, postId),
+    INDEX idx_posts_created (created_at, postId, userId)
+) ENGINE=InnoDB;
+
+-- Likes of the posts on this shard
+CREATE TABLE IF NOT EXISTS likes (
+    user_id INT NOT NULL,
+    post_id INT NOT NULL,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, post_id),
+    INDEX idx_likes_post (post_id, user_id),
+    FOREIGN KEY (post_id) REFERENCES posts(postId) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Bookmarks of the posts on this shard
+CREATE TABLE IF NOT EXISTS bookmarks (
+    user_id INT NOT NULL,
+    post_id INT NOT NULL,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, post_id),
+    INDEX idx_bookmarks_post (post_id, user_id),
+    FOREIGN KEY (post_id) REFERENCES posts(postId) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Comments on the posts on this shard
+CREATE TABLE IF NOT EXISTS comments (
+    commentId INT AUTO_INCREMENT,
+    post_id INT NOT NULL,
+    user_id INT NOT NULL,
+    content TEXT NOT NULL,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (commentId),
+    INDEX idx_comments_post_created (post_id, created_at, commentId, user_id),
+    FOREIGN KEY (post_id) REFERENCES posts(postId) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Hashtags of the posts on this shard
+CREATE TABLE IF NOT EXISTS post_hashtags (
+    post_id INT NOT NULL,
+    hashtag_id INT NOT NULL,
+    PRIMARY KEY (post_id, hashtag_id),
+    INDEX idx_post_hashtags_tag (hashtag_id, post_id),
+    FOREIGN KEY (post_id) REFERENCES posts(postId) ON DELETE CASCADE
+) ENGINE=InnoDB;
\ No newline at end of file
@@ -0,0 +1,183 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the pages of the application under many concurrent users.
+ * It is a single file program and is not part of the application build.
+ *
+ * Usage:
+ *   java loadtest/LoadTest.java <base url> <users> <seconds> <username> <password> <path>...
+ * For example:
+ *   java loadtest/LoadTest.java http://localhost:8081 1000 60 alice secret / /post/1 /people
+ *
+ * Every simulated user is a thread that requests the paths in turn for the
+ * given number of seconds, logged in as the given user. At the end the
+ * number of requests, failures and latency percentiles of each path are
+ * printed.
+ *
+ * To compare the thread modes (see ThreadMode.java) run it once against
+ * the application started with app.threads.mode=platform and once with
+ * app.threads.mode=virtual on Java 21 or newer, with the same data and
+ * database. The difference shows when MySQL is slow, so also run both with
+ * added database latency, for example with tc qdisc add dev <interface>
+ * root netem delay 50ms on the database host.
+ *
+ * A click storm on the heart, bookmark and follow toggles measures the
+ * grouped writes of ToggleWriteService, for example:
+ *   java loadtest/LoadTest.java http://localhost:8081 200 60 alice secret \
+ *       /post/1/heart/true /post/1/heart/false /people/2/follow/true /people/2/follow/false
+ * The toggles answer with redirects, which count as successes. The
+ * database commits and redo log flushes per second during the run are
+ * read from /metrics/database and printed at the end. Compare them with
+ * a run against the version before ToggleWriteService, which wrote every
+ * click in its own transaction.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 6) {
+            System.out.println("Usage: java LoadTest.java <base url> <users> <seconds> "
+                    + "<username> <password> <path>...");
+            return;
+        }
+        String baseUrl = args[0];
+        int users = Integer.parseInt(args[1]);
+        long endNanos = System.nanoTime() + Long.parseLong(args[2]) * 1_000_000_000L;
+        List<String> paths = Arrays.asList(args).subList(5, args.length);
+
+        HttpClient client = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        login(client, baseUrl, args[3], args[4]);
+        long[] databaseBefore = readDatabaseCounters(client, baseUrl);
+
+        // Latencies in microseconds and failures by path index, per user.
+        List<List<List<Long>>> latencies = new ArrayList<>();
+        int[][] failures = new int[users][paths.size()];
+        CountDownLatch done = new CountDownLatch(users);
+        for (int u = 0; u < users; u++) {
+            List<List<Long>> userLatencies = new ArrayList<>();
+            for (int p = 0; p < paths.size(); p++) {
+                userLatencies.add(new ArrayList<>());
+            }
+            latencies.add(userLatencies);
+            int user = u;
+            Thread thread = new Thread(() -> {
+                // Start at different paths so every page is loaded at once.
+                int p = user % paths.size();
+                while (System.nanoTime() < endNanos) {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + paths.get(p)))
+                            .timeout(Duration.ofSeconds(30))
+                            .build();
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request,
+                                HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() >= 400) {
+                            failures[user][p]++;
+                        }
+                    } catch (Exception e) {
+                        failures[user][p]++;
+                    }
+                    userLatencies.get(p).add((System.nanoTime() - start) / 1000);
+                    p = (p + 1) % paths.size();
+                }
+                done.countDown();
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long[] databaseAfter = readDatabaseCounters(client, baseUrl);
+
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s%n",
+                "path", "requests", "failed", "req/s", "p50 ms", "p95 ms", "p99 ms");
+        double seconds = Double.parseDouble(args[2]);
+        for (int p = 0; p < paths.size(); p++) {
+            List<Long> all = new ArrayList<>();
+            int failed = 0;
+            for (int u = 0; u < users; u++) {
+                all.addAll(latencies.get(u).get(p));
+                failed += failures[u][p];
+            }
+            all.sort(null);
+            System.out.printf("%-20s %10d %10d %10.1f %10.1f %10.1f %10.1f%n",
+                    paths.get(p), all.size(), failed, all.size() / seconds,
+                    percentile(all, 0.50), percentile(all, 0.95), percentile(all, 0.99));
+        }
+        if (databaseBefore != null && databaseAfter != null) {
+            System.out.printf("database commits/s %.1f, redo log flushes/s %.1f%n",
+                    (databaseAfter[0] - databaseBefore[0]) / seconds,
+                    (databaseAfter[1] - databaseBefore[1]) / seconds);
+        }
+    }
+
+    /**
+     * Returns the commits and redo log flushes of the database so far as
+     * reported by /metrics/database, or null if they cannot be read.
+     */
+    private static long[] readDatabaseCounters(HttpClient client, String baseUrl) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/metrics/database"))
+                    .build();
+            String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            Matcher commits = Pattern.compile("\"commits\":(\\d+)").matcher(body);
+            Matcher logFlushes = Pattern.compile("\"logFlushes\":(\\d+)").matcher(body);
+            if (!commits.find() || !logFlushes.find()) {
+                return null;
+            }
+            return new long[] { Long.parseLong(commits.group(1)),
+                    Long.parseLong(logFlushes.group(1)) };
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Logs in with the login form. The session cookie is kept by the
+     * client and sent by all users.
+     */
+    private static void login(HttpClient client, String baseUrl, String username,
+            String password) throws Exception {
+        String form = "username=" + URLEncoder.encode(username, StandardCharsets.UTF_8)
+                + "&password=" + URLEncoder.encode(password, StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/login"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        String location = response.headers().firstValue("Location").orElse("");
+        if (location.contains("error")) {
+            throw new IllegalStateException("Login failed: " + location);
+        }
+    }
+
+    // Latency at fraction q of the sorted latencies in milliseconds.
+    private static double percentile(List<Long> sorted, double q) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.size() - 1, Math.round(q * (sorted.size() - 1)));
+        return sorted.get(index) / 1000.0;
+    }
+
+}
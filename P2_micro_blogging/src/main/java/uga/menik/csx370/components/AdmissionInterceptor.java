@@ -0,0 +1,73 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Limits how many requests run at once in virtual thread mode so they
+ * cannot all wait on the connection pool together. See ThreadMode.
+ * Requests over the limit wait in arrival order. A request that waits
+ * longer than the admission timeout gets 503 Service Unavailable.
+ * In platform mode Tomcat's thread pool is the limit and this does
+ * nothing.
+ */
+@Component
+public class AdmissionInterceptor implements HandlerInterceptor {
+
+    // Marks requests that hold a permit.
+    private static final String ADMITTED_ATTRIBUTE = AdmissionInterceptor.class.getName();
+
+    // Permits of running requests. Null in platform mode.
+    private final Semaphore permits;
+    private final long timeoutMillis;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public AdmissionInterceptor(ThreadMode threadMode,
+            @Value("${app.threads.virtual.admission-timeout-ms:3000}") long timeoutMillis) {
+        this.permits = threadMode.isVirtual()
+                ? new Semaphore(threadMode.getMaxConcurrentRequests(), true)
+                : null;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request,
+            HttpServletResponse response, Object handler) throws Exception {
+        if (permits == null) {
+            return true;
+        }
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return false;
+        }
+        request.setAttribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+            Object handler, Exception ex) throws Exception {
+        if (request.getAttribute(ADMITTED_ATTRIBUTE) != null) {
+            request.removeAttribute(ADMITTED_ATTRIBUTE);
+            permits.release();
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import uga.menik.csx370.models.User;
+
+/**
+ * This class issues and verifies the signed login cookie used when
+ * app.auth.mode is token.
+ * The cookie carries the logged in user and an expiry time and is signed
+ * with HMAC-SHA256. Verifying it needs only the secret, so any application
+ * node can check a login without a servlet session or a database lookup.
+ * Cookies are renewed when less than half of their lifetime is left, the
+ * same way a session timeout is extended by activity.
+ */
+@Component
+public class AuthTokenCodec {
+
+    // Name of the login cookie.
+    private static final String COOKIE_NAME = "mb_auth";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    // Key used to sign and verify tokens.
+    private final SecretKeySpec key;
+    // How long a token stays valid.
+    private final long ttlSeconds;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     * If no secret is configured a random one is generated. Tokens then
+     * only work on this node and until it restarts.
+     */
+    @Autowired
+    public AuthTokenCodec(@Value("${app.auth.token-secret:}") String secret,
+            @Value("${app.auth.token-ttl-seconds:1800}") long ttlSeconds) {
+        byte[] secretBytes;
+        if (secret.isEmpty()) {
+            secretBytes = new byte[32];
+            new SecureRandom().nextBytes(secretBytes);
+        } else {
+            secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(secretBytes, HMAC_ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * Adds a login cookie for the user to the response.
+     */
+    public void writeCookie(HttpServletResponse response, User user) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = String.join("\n", user.getUserId(), user.getFirstName(),
+                user.getLastName(), String.valueOf(expiresAt));
+        String encodedPayload = ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        String token = encodedPayload + "." + ENCODER.encodeToString(sign(encodedPayload));
+        response.addHeader(HttpHeaders.SET_COOKIE, buildCookie(token, ttlSeconds).toString());
+    }
+
+    /**
+     * Adds a header to the response that removes the login cookie.
+     */
+    public void clearCookie(HttpServletResponse response) {
+        response.addHeader(HttpHeaders.SET_COOKIE, buildCookie("", 0).toString());
+    }
+
+    /**
+     * Returns the user of a valid login cookie on the request or null.
+     * If the cookie is about to expire a renewed one is added to the
+     * response.
+     */
+    public User readUser(HttpServletRequest request, HttpServletResponse response) {
+        String token = findToken(request);
+        if (token == null) {
+            return null;
+        }
+
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String encodedPayload = token.substring(0, dot);
+        try {
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            // Compare in constant time so the signature cannot be guessed
+            // byte by byte from response times.
+            if (!MessageDigest.isEqual(signature, sign(encodedPayload))) {
+                return null;
+            }
+
+            String[] fields = new String(DECODER.decode(encodedPayload), StandardCharsets.UTF_8)
+                    .split("\n");
+            if (fields.length != 4) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(fields[3]);
+            long now = System.currentTimeMillis() / 1000;
+            if (expiresAt <= now) {
+                return null;
+            }
+
+            User user = new User(fields[0], fields[1], fields[2]);
+            if (response != null && expiresAt - now < ttlSeconds / 2) {
+                writeCookie(response, user);
+            }
+            return user;
+        } catch (IllegalArgumentException e) {
+            // Malformed base64 or expiry.
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value of the login cookie on the request or null.
+     */
+    private static String findToken(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName()) && !cookie.getValue().isEmpty()) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the login cookie. It is not readable from javascript.
+     */
+    private static ResponseCookie buildCookie(String value, long maxAgeSeconds) {
+        return ResponseCookie.from(COOKIE_NAME, value)
+                .path("/")
+                .httpOnly(true)
+                .sameSite("Lax")
+                .maxAge(Duration.ofSeconds(maxAgeSeconds))
+                .build();
+    }
+
+    /**
+     * Computes the HMAC of the encoded payload.
+     */
+    private byte[] sign(String encodedPayload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // HmacSHA256 is always available in the JDK.
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * A writer that encodes text into an output stream and can also take
+ * bytes that are already encoded in its charset.
+ * Pages write most of their text through it like through any writer.
+ * FragmentCache keeps rendered post bodies encoded and hands them to
+ * writeEncoded, so a cached body is copied into the response as it is
+ * instead of being encoded again for every page it is shown on.
+ *
+ * Nothing is sent until the buffer fills up or flush is called, so
+ * flush marks the points where the client gets what was rendered so far.
+ * While a page renders its writer is a request attribute, so code that
+ * runs during rendering can flush it. See flush(HttpServletRequest).
+ */
+public class EncodedResponseWriter extends Writer {
+
+    // Request attribute holding the writer of the page being rendered.
+    public static final String REQUEST_ATTRIBUTE = EncodedResponseWriter.class.getName();
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final Charset charset;
+    private final CharsetEncoder encoder;
+    // Text written but not encoded yet.
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    // Encoded bytes not yet written to out.
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+
+    public EncodedResponseWriter(OutputStream out, Charset charset) {
+        this.out = out;
+        this.charset = charset;
+        // The same replacement behavior as an OutputStreamWriter.
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Sends what the page of the request rendered so far to the client.
+     * Does nothing if the page is not being rendered.
+     */
+    public static void flush(HttpServletRequest request) throws IOException {
+        Object out = request.getAttribute(REQUEST_ATTRIBUTE);
+        if (out instanceof EncodedResponseWriter writer) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Returns the charset text is encoded in.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+            if (!chars.hasRemaining()) {
+                encode();
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, chars.remaining());
+            chars.put(str, off, off + n);
+            off += n;
+            len -= n;
+            if (!chars.hasRemaining()) {
+                encode();
+            }
+        }
+    }
+
+    /**
+     * Writes bytes that are already encoded in the charset of this writer.
+     */
+    public void writeEncoded(byte[] encoded) throws IOException {
+        encode();
+        if (encoded.length > bytes.remaining()) {
+            drain();
+            out.write(encoded);
+        } else {
+            bytes.put(encoded);
+        }
+    }
+
+    /**
+     * Sends everything written so far to the client.
+     */
+    @Override
+    public void flush() throws IOException {
+        encode();
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    /**
+     * Encodes the buffered text into the byte buffer. A lone high
+     * surrogate at the end stays buffered until its pair is written.
+     */
+    private void encode() throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, false);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+        chars.compact();
+    }
+
+    /**
+     * Writes the encoded bytes to out.
+     */
+    private void drain() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ModelAttribute;
+
+import com.samskivert.mustache.Mustache;
+
+import uga.menik.csx370.models.BasicPost;
+
+/**
+ * Caches rendered post bodies.
+ * The body of a post (avatar, author, date and content) looks the same
+ * for every viewer, so it only has to be rendered once. Templates wrap
+ * it in {{#cachedPostBody}} ... {{/cachedPostBody}}. The first time a post
+ * is rendered the section is rendered as usual and the output is stored
+ * under the render key of the post (see BasicPost.getRenderKey). After
+ * that the stored output is written to the response as it is.
+ *
+ * The output is stored encoded in the response charset. Pages are
+ * rendered into an EncodedResponseWriter, which copies the stored bytes
+ * into the response without encoding them again. Where a section is
+ * rendered into another writer the bytes are decoded first.
+ *
+ * As a ControllerAdvice this adds the cachedPostBody lambda to the model
+ * of every page. Setting the cache size to 0 renders every time.
+ */
+@ControllerAdvice
+public class FragmentCache {
+
+    // Rendered post bodies by render key in least recently used order.
+    private final Map<String, byte[]> fragments;
+    // The charset the bodies are encoded in, the one pages are sent in.
+    private final Charset charset;
+    // Whether rendered output is stored at all.
+    private final boolean enabled;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public FragmentCache(@Value("${app.templates.fragment-cache-size:20000}") int maxFragments,
+            @Value("${spring.mustache.charset:UTF-8}") Charset charset) {
+        this.enabled = maxFragments > 0;
+        this.charset = charset;
+        this.fragments = Collections.synchronizedMap(
+                new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                        return size() > maxFragments;
+                    }
+                });
+    }
+
+    /**
+     * The lambda behind {{#cachedPostBody}}. The section must be rendered
+     * with a post as the current context.
+     */
+    @ModelAttribute("cachedPostBody")
+    public Mustache.Lambda cachedPostBody() {
+        return (frag, out) -> {
+            if (!enabled || !(frag.context() instanceof BasicPost)) {
+                frag.execute(out);
+                return;
+            }
+            String key = ((BasicPost) frag.context()).getRenderKey();
+            byte[] rendered = fragments.get(key);
+            if (rendered == null) {
+                rendered = frag.execute().getBytes(charset);
+                fragments.put(key, rendered);
+            }
+            if (out instanceof EncodedResponseWriter writer
+                    && writer.getCharset().equals(charset)) {
+                writer.writeEncoded(rendered);
+            } else {
+                out.write(new String(rendered, charset));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,209 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs the independent queries of a page at the same time so the page
+ * takes as long as its slowest query instead of the sum of all of them.
+ *
+ * A controller opens a Scope for the request, forks each query and joins
+ * the scope before reading the results:
+ *
+ *   try (PageAssembler.Scope scope = pageAssembler.open()) {
+ *       PageAssembler.Part<A> a = scope.fork(() -> ...);
+ *       PageAssembler.Part<B> b = scope.fork(() -> ...);
+ *       scope.join();
+ *       ... a.get() ... b.get() ...
+ *   }
+ *
+ * The queries of a scope share one deadline, app.pages.deadline-ms after
+ * the scope was opened. join throws as soon as one query fails or the
+ * deadline passes and cancels the queries still running, so a page never
+ * waits on work whose result it will throw away. Closing the scope
+ * cancels anything left as well. Cancelling interrupts the query's
+ * thread: a query waiting for a pooled connection stops right away and
+ * one waiting on MySQL stops after its current statement.
+ *
+ * Forked queries run on other threads, so they must not use request
+ * scoped beans such as UserService.getLoggedInUser. Read the user id
+ * before forking. The read your writes mark of the request thread (see
+ * ReadYourWrites) is carried over to the query threads.
+ */
+@Component
+public class PageAssembler {
+
+    // Runs the forked queries. Virtual threads in virtual mode.
+    private final ExecutorService executor;
+    private final ReadYourWrites readYourWrites;
+    private final long deadlineMillis;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public PageAssembler(ThreadMode threadMode, ReadYourWrites readYourWrites,
+            @Value("${app.pages.deadline-ms:2000}") long deadlineMillis) {
+        this.executor = threadMode.newExecutor("page-query");
+        this.readYourWrites = readYourWrites;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Opens a scope for the queries of one page. The deadline starts now.
+     */
+    public Scope open() {
+        return new Scope(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+    }
+
+    /**
+     * Stops the query threads when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A query of a page run as part of a scope.
+     */
+    @FunctionalInterface
+    public interface Query<T> {
+        T call() throws SQLException;
+    }
+
+    /**
+     * The result of a forked query. Read it after the scope was joined.
+     */
+    public static class Part<T> {
+
+        private final Future<T> future;
+
+        private Part(Future<T> future) {
+            this.future = future;
+        }
+
+        /**
+         * Returns the result of the query. The scope must have been
+         * joined without an exception.
+         */
+        public T get() {
+            if (!future.isDone() || future.isCancelled()) {
+                throw new IllegalStateException("The scope was not joined.");
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("The scope was not joined.", e);
+            }
+        }
+    }
+
+    /**
+     * The queries of one page. Not thread safe. Use it from the request
+     * thread only.
+     */
+    public class Scope implements AutoCloseable {
+
+        private final long deadlineNanos;
+        // Whether the request thread reads from the primary.
+        private final boolean pinned;
+        private final CompletionService<Object> completion =
+                new ExecutorCompletionService<>(executor);
+        private final List<Future<Object>> futures = new ArrayList<>();
+        // Number of forked queries join has seen finish.
+        private int joined;
+
+        private Scope(long deadlineNanos) {
+            this.deadlineNanos = deadlineNanos;
+            this.pinned = readYourWrites.isCurrentThreadPinned();
+        }
+
+        /**
+         * Starts the query on another thread and returns its future result.
+         */
+        @SuppressWarnings("unchecked")
+        public <T> Part<T> fork(Query<T> query) {
+            Future<Object> future = completion.submit(() -> {
+                readYourWrites.setCurrentThreadPinned(pinned);
+                try {
+                    return query.call();
+                } finally {
+                    readYourWrites.setCurrentThreadPinned(false);
+                }
+            });
+            futures.add(future);
+            return new Part<>((Future<T>) future);
+        }
+
+        /**
+         * Waits until all forked queries finished. Throws the first
+         * failure, or SQLTimeoutException when the deadline passes, after
+         * cancelling the queries still running. Queries that need the
+         * results of others can be forked after a join and joined again
+         * under the same deadline.
+         */
+        public void join() throws SQLException {
+            try {
+                while (joined < futures.size()) {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    Future<Object> future = completion.poll(Math.max(remaining, 0),
+                            TimeUnit.NANOSECONDS);
+                    if (future == null) {
+                        throw new SQLTimeoutException("The page queries did not finish in "
+                                + deadlineMillis + " ms.");
+                    }
+                    future.get();
+                    joined++;
+                }
+            } catch (ExecutionException e) {
+                cancelAll();
+                throw e.getCause() instanceof SQLException
+                        ? (SQLException) e.getCause()
+                        : new SQLException("A page query failed.", e.getCause());
+            } catch (InterruptedException e) {
+                cancelAll();
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the page queries.", e);
+            } catch (SQLException e) {
+                cancelAll();
+                throw e;
+            }
+        }
+
+        /**
+         * Cancels the queries that are still running.
+         */
+        @Override
+        public void close() {
+            cancelAll();
+        }
+
+        private void cancelAll() {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+}
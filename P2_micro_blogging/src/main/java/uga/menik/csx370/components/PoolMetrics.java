@@ -0,0 +1,95 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Collects metrics of the Hikari connection pools.
+ * Hikari reports every connection checkout to the tracker of its pool.
+ * This records how long threads waited for a connection, how many
+ * checkouts timed out and keeps the pool statistics of Hikari so the
+ * number of active, idle and waiting connections can be read.
+ * See DataSourceConfig and DatabaseMetricsService.
+ */
+@Component
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    // Trackers by pool name.
+    private final Map<String, Tracker> trackers = new ConcurrentHashMap<>();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        Tracker tracker = new Tracker(poolStats);
+        trackers.put(poolName, tracker);
+        return tracker;
+    }
+
+    /**
+     * Returns the metrics of every pool by pool name.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, Tracker> entry : trackers.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Metrics of one pool.
+     */
+    private static class Tracker implements IMetricsTracker {
+
+        private final PoolStats poolStats;
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder acquireNanos = new LongAdder();
+        private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder timeouts = new LongAdder();
+
+        Tracker(PoolStats poolStats) {
+            this.poolStats = poolStats;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquisitions.increment();
+            acquireNanos.add(elapsedAcquiredNanos);
+            maxAcquireNanos.accumulate(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+
+        Map<String, Object> getStats() {
+            long count = acquisitions.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("activeConnections", poolStats.getActiveConnections());
+            stats.put("idleConnections", poolStats.getIdleConnections());
+            stats.put("totalConnections", poolStats.getTotalConnections());
+            stats.put("maxConnections", poolStats.getMaxConnections());
+            stats.put("threadsWaiting", poolStats.getPendingThreads());
+            stats.put("acquisitions", count);
+            stats.put("averageWaitMillis", count == 0 ? 0.0 : acquireNanos.sum() / 1e6 / count);
+            stats.put("maxWaitMillis", maxAcquireNanos.get() / 1e6);
+            stats.put("timeouts", timeouts.sum());
+            return stats;
+        }
+    }
+
+}
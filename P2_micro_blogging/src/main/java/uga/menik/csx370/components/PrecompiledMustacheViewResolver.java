@@ -0,0 +1,84 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.boot.web.servlet.view.MustacheView;
+import org.springframework.boot.web.servlet.view.MustacheViewResolver;
+import org.springframework.web.servlet.view.AbstractUrlBasedView;
+
+import com.samskivert.mustache.Template;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A Mustache view resolver whose views render templates from
+ * PrecompiledTemplates instead of compiling them on every request.
+ * It is configured exactly like the resolver Spring Boot would create.
+ * Pages are written through an EncodedResponseWriter. See FragmentCache.
+ * See MustacheConfig.
+ */
+public class PrecompiledMustacheViewResolver extends MustacheViewResolver {
+
+    // The compiled templates served by the views.
+    private final PrecompiledTemplates templates;
+
+    public PrecompiledMustacheViewResolver(PrecompiledTemplates templates) {
+        this.templates = templates;
+        setViewClass(requiredViewClass());
+    }
+
+    @Override
+    protected Class<?> requiredViewClass() {
+        return PrecompiledMustacheView.class;
+    }
+
+    @Override
+    protected AbstractUrlBasedView instantiateView() {
+        return new PrecompiledMustacheView();
+    }
+
+    @Override
+    protected AbstractUrlBasedView buildView(String viewName) throws Exception {
+        PrecompiledMustacheView view = (PrecompiledMustacheView) super.buildView(viewName);
+        view.template = templates.get(viewName);
+        return view;
+    }
+
+    /**
+     * A Mustache view that renders an already compiled template.
+     */
+    public static class PrecompiledMustacheView extends MustacheView {
+
+        private Template template;
+
+        @Override
+        public boolean checkResource(Locale locale) throws Exception {
+            return template != null;
+        }
+
+        @Override
+        protected void renderMergedTemplateModel(Map<String, Object> model,
+                HttpServletRequest request, HttpServletResponse response) throws Exception {
+            // Encoded here instead of by the response writer so that
+            // FragmentCache can copy its encoded bodies in as they are.
+            EncodedResponseWriter out = new EncodedResponseWriter(response.getOutputStream(),
+                    Charset.forName(response.getCharacterEncoding()));
+            request.setAttribute(EncodedResponseWriter.REQUEST_ATTRIBUTE, out);
+            try {
+                template.execute(model, out);
+            } finally {
+                request.removeAttribute(EncodedResponseWriter.REQUEST_ATTRIBUTE);
+            }
+            out.flush();
+        }
+    }
+
+}
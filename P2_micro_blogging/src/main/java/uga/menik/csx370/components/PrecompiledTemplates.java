@@ -0,0 +1,75 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+/**
+ * Holds every Mustache template of the application compiled once.
+ * The default Mustache view reads and compiles the page template and
+ * all of its partials on every request. This class reads all templates
+ * when the application starts and compiles them with a loader that
+ * serves partials from memory, so templates are never read from the
+ * classpath or parsed again afterwards.
+ *
+ * Templates are named by their path under the templates folder without
+ * the suffix, for example fragments/post.
+ */
+public class PrecompiledTemplates {
+
+    // Compiled templates by name.
+    private final Map<String, Template> templates = new HashMap<>();
+
+    /**
+     * Reads and compiles all templates under the location.
+     * compiler is the compiler configured by Spring Boot. Its loader is
+     * replaced by one that reads the sources loaded here.
+     */
+    public PrecompiledTemplates(Mustache.Compiler compiler, String location, String suffix,
+            Charset charset) throws IOException {
+        Map<String, String> sources = new HashMap<>();
+        String folder = location.substring(location.indexOf(':') + 1);
+        Resource[] resources = new PathMatchingResourcePatternResolver()
+                .getResources("classpath*:" + folder + "**/*" + suffix);
+        for (Resource resource : resources) {
+            String url = resource.getURL().toString();
+            String name = url.substring(url.lastIndexOf(folder) + folder.length(),
+                    url.length() - suffix.length());
+            sources.put(name, resource.getContentAsString(charset));
+        }
+
+        Mustache.Compiler precompiler = compiler.withLoader(name -> {
+            String source = sources.get(name);
+            if (source == null) {
+                throw new FileNotFoundException("No template named " + name);
+            }
+            return new StringReader(source);
+        });
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            templates.put(entry.getKey(), precompiler.compile(entry.getValue()));
+        }
+        System.out.println("Precompiled " + templates.size() + " templates.");
+    }
+
+    /**
+     * Returns the compiled template with the name or null if there is none.
+     */
+    public Template get(String name) {
+        return templates.get(name);
+    }
+
+}
@@ -0,0 +1,209 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks the query plans of the queries the services run.
+ * When enabled, the first time each distinct select runs it is also run
+ * with EXPLAIN and the same parameters. A plan is a violation if a table
+ * is read with a full scan (type ALL) or the rows are sorted (Using
+ * filesort) while more than rowThreshold rows are examined.
+ * Violations are printed and listed at /metrics/query-plans. With
+ * failOnViolation the query fails instead, so running the app against
+ * realistic data shows every query that needs an index.
+ *
+ * This is meant for development and test runs. It is off by default
+ * because EXPLAIN costs one extra round trip per distinct statement.
+ */
+@Component
+public class QueryPlanChecker {
+
+    // Upper bound of distinct statements remembered.
+    private static final int MAX_CHECKED_STATEMENTS = 1000;
+
+    private final boolean enabled;
+    private final long rowThreshold;
+    private final boolean failOnViolation;
+    // Problems found for each checked statement. Empty if the plan is fine.
+    private final Map<String, String> results = new ConcurrentHashMap<>();
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public QueryPlanChecker(@Value("${app.query-plans.check:false}") boolean enabled,
+            @Value("${app.query-plans.row-threshold:1000}") long rowThreshold,
+            @Value("${app.query-plans.fail-on-violation:false}") boolean failOnViolation) {
+        this.enabled = enabled;
+        this.rowThreshold = rowThreshold;
+        this.failOnViolation = failOnViolation;
+    }
+
+    /**
+     * Returns a DataSource whose selects are checked, or the DataSource
+     * itself if checking is off.
+     */
+    public DataSource wrap(DataSource dataSource) {
+        if (!enabled) {
+            return dataSource;
+        }
+        return new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                return wrapConnection(super.getConnection());
+            }
+
+            @Override
+            public Connection getConnection(String username, String password)
+                    throws SQLException {
+                return wrapConnection(super.getConnection(username, password));
+            }
+        };
+    }
+
+    /**
+     * Returns the violations and the number of checked statements.
+     */
+    public Map<String, Object> getResults() {
+        Map<String, String> violations = new TreeMap<>();
+        int checked = 0;
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            checked++;
+            if (!entry.getValue().isEmpty()) {
+                violations.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("rowThreshold", rowThreshold);
+        stats.put("checkedStatements", checked);
+        stats.put("violations", violations);
+        return stats;
+    }
+
+    private Connection wrapConnection(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    Object result = invoke(conn, method, args);
+                    if (method.getName().equals("prepareStatement")
+                            && result instanceof PreparedStatement) {
+                        return wrapStatement(conn, (PreparedStatement) result, (String) args[0]);
+                    }
+                    return result;
+                });
+    }
+
+    private PreparedStatement wrapStatement(Connection conn, PreparedStatement pstmt,
+            String sql) {
+        if (!sql.trim().toLowerCase().startsWith("select")) {
+            return pstmt;
+        }
+        // Parameters by index as the service sets them.
+        Map<Integer, Object> parameters = new TreeMap<>();
+        InvocationHandler handler = (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("executeQuery") && args == null) {
+                check(conn, sql, parameters);
+            }
+            return invoke(pstmt, method, args);
+        };
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, handler);
+    }
+
+    /**
+     * Runs EXPLAIN for the statement the first time it is seen. The
+     * verdict is kept, so with failOnViolation a statement with a bad
+     * plan fails every time it runs, not only the first time.
+     */
+    private void check(Connection conn, String sql, Map<Integer, Object> parameters)
+            throws SQLException {
+        String verdict = results.get(sql);
+        if (verdict == null) {
+            if (results.size() >= MAX_CHECKED_STATEMENTS) {
+                return;
+            }
+            verdict = explain(conn, sql, parameters);
+            if (results.putIfAbsent(sql, verdict) == null && !verdict.isEmpty()) {
+                System.out.println("Query plan violation: " + verdict + " in: " + sql);
+            }
+        }
+        if (!verdict.isEmpty() && failOnViolation) {
+            throw new SQLException("Query plan violation: " + verdict + " in: " + sql);
+        }
+    }
+
+    /**
+     * Runs EXPLAIN for the statement with its parameters and returns the
+     * problems of the plan, or an empty string if there are none.
+     */
+    private String explain(Connection conn, String sql, Map<Integer, Object> parameters)
+            throws SQLException {
+        List<String> problems = new ArrayList<>();
+        try (PreparedStatement explain = conn.prepareStatement("explain " + sql)) {
+            for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+                explain.setObject(parameter.getKey(), parameter.getValue());
+            }
+            try (ResultSet rs = explain.executeQuery()) {
+                while (rs.next()) {
+                    long rows = rs.getLong("rows");
+                    String extra = rs.getString("Extra");
+                    if (rows <= rowThreshold) {
+                        continue;
+                    }
+                    if ("ALL".equals(rs.getString("type"))) {
+                        problems.add("full scan of " + rs.getString("table") + " (" + rows
+                                + " rows)");
+                    }
+                    if (extra != null && extra.contains("Using filesort")) {
+                        problems.add("filesort on " + rs.getString("table") + " (" + rows
+                                + " rows)");
+                    }
+                }
+            }
+        }
+        return String.join(", ", problems);
+    }
+
+    /**
+     * Calls the method on the target and unwraps the exception it throws.
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
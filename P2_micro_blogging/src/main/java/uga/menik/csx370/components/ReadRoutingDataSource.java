@@ -0,0 +1,67 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * The DataSource of services that only read.
+ * Connections come from the replicas in turn, except for threads that
+ * ReadYourWrites pinned to the primary. Those get primary connections so
+ * a user sees their own recent writes.
+ * Without replicas every connection comes from the primary.
+ */
+public class ReadRoutingDataSource extends AbstractDataSource {
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final ReadYourWrites readYourWrites;
+    // Round robin position over the replicas.
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReadRoutingDataSource(DataSource primary, List<DataSource> replicas,
+            ReadYourWrites readYourWrites) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.readYourWrites = readYourWrites;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return route().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return route().getConnection(username, password);
+    }
+
+    /**
+     * Returns the pools reads are spread over. Without replicas this is
+     * the read pool of the primary.
+     */
+    public List<DataSource> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Returns the DataSource the current thread reads from.
+     */
+    private DataSource route() {
+        if (replicas.isEmpty() || readYourWrites.isCurrentThreadPinned()) {
+            return primary;
+        }
+        return replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+    }
+
+}
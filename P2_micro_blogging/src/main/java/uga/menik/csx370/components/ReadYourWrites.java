@@ -0,0 +1,92 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps track of which users must read from the primary database.
+ * Replicas apply writes with a delay. A user who just posted, commented,
+ * hearted or followed expects to see that change on the next page, so
+ * for a short window after a write all reads made for that user go to
+ * the primary instead of a replica.
+ *
+ * Services call recordWrite after a write. ReadYourWritesInterceptor
+ * marks the request thread of a pinned user and ReadRoutingDataSource
+ * sends the reads of a marked thread to the primary.
+ */
+@Component
+public class ReadYourWrites {
+
+    // Threads whose reads must go to the primary.
+    private static final ThreadLocal<Boolean> pinnedThread = new ThreadLocal<>();
+
+    // How long a user stays pinned after a write.
+    private final long windowMillis;
+    // Time until which each recently writing user is pinned.
+    private final Map<String, Long> pinnedUntil = new ConcurrentHashMap<>();
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public ReadYourWrites(@Value("${app.datasource.read-your-writes-ms:5000}") long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Pins the user to the primary for the window, starting with the rest
+     * of the current request.
+     */
+    public void recordWrite(String userId) {
+        pinnedUntil.put(userId, System.currentTimeMillis() + windowMillis);
+        pinnedThread.set(Boolean.TRUE);
+    }
+
+    /**
+     * Returns true if the user wrote within the window.
+     */
+    public boolean isPinned(String userId) {
+        Long until = pinnedUntil.get(userId);
+        return until != null && until > System.currentTimeMillis();
+    }
+
+    /**
+     * Marks or unmarks the current thread as pinned to the primary.
+     */
+    public void setCurrentThreadPinned(boolean pinned) {
+        if (pinned) {
+            pinnedThread.set(Boolean.TRUE);
+        } else {
+            pinnedThread.remove();
+        }
+    }
+
+    /**
+     * Returns true if the reads of the current thread must go to the
+     * primary.
+     */
+    public boolean isCurrentThreadPinned() {
+        return pinnedThread.get() != null;
+    }
+
+    /**
+     * Forgets users whose window has passed.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        pinnedUntil.values().removeIf(until -> until <= now);
+    }
+
+}
@@ -0,0 +1,56 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import uga.menik.csx370.services.UserService;
+
+/**
+ * Marks the request thread of a user who wrote recently so that the
+ * reads of the request go to the primary database. See ReadYourWrites.
+ * The mark is removed when the request completes because threads are
+ * reused for other users' requests.
+ */
+@Component
+public class ReadYourWritesInterceptor implements HandlerInterceptor {
+
+    // This service knows the logged in user.
+    private final UserService userService;
+    // This knows which users wrote recently.
+    private final ReadYourWrites readYourWrites;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works 
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public ReadYourWritesInterceptor(UserService userService, ReadYourWrites readYourWrites) {
+        this.userService = userService;
+        this.readYourWrites = readYourWrites;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request,
+            HttpServletResponse response, Object handler) throws Exception {
+        if (userService.isAuthenticated()) {
+            String userId = userService.getLoggedInUser().getUserId();
+            readYourWrites.setCurrentThreadPinned(readYourWrites.isPinned(userId));
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+            Object handler, Exception ex) throws Exception {
+        readYourWrites.setCurrentThreadPinned(false);
+    }
+
+}
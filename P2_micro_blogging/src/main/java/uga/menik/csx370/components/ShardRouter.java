@@ -0,0 +1,305 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+/**
+ * Decides which database holds the posts of a user.
+ * Posts and the rows that belong to a post (likes, bookmarks, comments
+ * and post_hashtags) are stored on the shard of the post's author, so
+ * everything about one post is on one database and the post counters can
+ * be kept with local statements. The user, follows and hashtags tables
+ * stay on the main database.
+ *
+ * A userId hashes to one of logicalShardCount logical shards and logical
+ * shard i lives on database i modulo the number of databases. More
+ * logical shards than databases lets a logical shard be moved to a new
+ * database later without rehashing users.
+ *
+ * Post ids tell their shard: the posts table of a shard hands out ids
+ * with MySQL's auto_increment_increment and auto_increment_offset set so
+ * that (postId - 1) modulo logicalShardCount is the logical shard of the
+ * author. Packed with its creation time by PostKey.toLong the id is a
+ * global post id that holds both the time and the shard.
+ *
+ * Reads that are not about one user, such as hashtag search, run on all
+ * shards in parallel with scatter and merge the results.
+ *
+ * Since the ids already written depend on the logical shard count and
+ * on which database is which, each shard records both in its
+ * shard_layout table the first time it is used. See checkLayout.
+ */
+public class ShardRouter {
+
+    private final int logicalShardCount;
+    private final List<Shard> shards;
+    // Runs the queries of a scatter that do not run on the caller's thread.
+    private final ExecutorService executor;
+
+    /**
+     * Creates a router over the given shards. With a single shard every
+     * user maps to it and scatter runs on the caller's thread only.
+     * executor runs the other queries of a scatter.
+     */
+    public ShardRouter(int logicalShardCount, List<Shard> shards, ExecutorService executor) {
+        if (logicalShardCount < 1 || logicalShardCount > 65535) {
+            throw new IllegalArgumentException("The logical shard count must be 1 to 65535.");
+        }
+        this.logicalShardCount = logicalShardCount;
+        this.shards = List.copyOf(shards);
+        this.executor = executor;
+    }
+
+    /**
+     * Checks that every shard was set up with this logical shard count and
+     * position in the shard list. A shard that has no record yet gets one.
+     * A different logical shard count would route existing posts by their
+     * id to the wrong logical shard, and a reordered shard list would look
+     * for users on the wrong database, so both stop the start instead.
+     */
+    public void checkLayout() throws SQLException {
+        final String createSql = "create table if not exists shard_layout ("
+                + "id tinyint not null, "
+                + "logical_count int not null, "
+                + "shard_index int not null, "
+                + "created_at datetime not null default current_timestamp, "
+                + "primary key (id))";
+        final String insertSql = "insert ignore into shard_layout "
+                + "(id, logical_count, shard_index) values (1, ?, ?)";
+        final String selectSql = "select logical_count, shard_index from shard_layout "
+                + "where id = 1";
+        for (Shard shard : shards) {
+            try (Connection conn = shard.getWriteDataSource().getConnection()) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(createSql);
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(insertSql)) {
+                    pstmt.setInt(1, logicalShardCount);
+                    pstmt.setInt(2, shard.getIndex());
+                    pstmt.executeUpdate();
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSql);
+                        ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    int recordedCount = rs.getInt("logical_count");
+                    int recordedIndex = rs.getInt("shard_index");
+                    if (recordedCount != logicalShardCount) {
+                        throw new IllegalStateException("Shard " + shard.getIndex()
+                                + " holds posts of " + recordedCount + " logical shards but "
+                                + "app.shards.logical-count is " + logicalShardCount + ".");
+                    }
+                    if (recordedIndex != shard.getIndex()) {
+                        throw new IllegalStateException("Shard " + shard.getIndex()
+                                + " of app.shards.urls was set up as shard " + recordedIndex
+                                + ". Keep the shard URLs in their original order.");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns all shards.
+     */
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the shard that stores the posts of the user.
+     */
+    public Shard forUser(String userId) {
+        return shards.get(logicalShardOfUser(userId) % shards.size());
+    }
+
+    /**
+     * Returns the shard that stores the post or null if postId is not a
+     * post id at all, like the abc of /post/abc. No post has such an id.
+     */
+    public Shard forPost(String postId) {
+        int id;
+        try {
+            id = Integer.parseInt(postId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        int logicalShard = Math.floorMod(id - 1, logicalShardCount);
+        return shards.get(logicalShard % shards.size());
+    }
+
+    /**
+     * Groups post ids by the shard that stores them. The ids of each shard
+     * keep their order. Ids that are not post ids are left out.
+     */
+    public Map<Shard, List<String>> groupPosts(Collection<String> postIds) {
+        Map<Shard, List<String>> groups = new LinkedHashMap<>();
+        for (String postId : postIds) {
+            Shard shard = forPost(postId);
+            if (shard != null) {
+                groups.computeIfAbsent(shard, key -> new ArrayList<>()).add(postId);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Groups user ids by the shard that stores their posts.
+     */
+    public Map<Shard, List<String>> groupUsers(Collection<String> userIds) {
+        Map<Shard, List<String>> groups = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            groups.computeIfAbsent(forUser(userId), shard -> new ArrayList<>()).add(userId);
+        }
+        return groups;
+    }
+
+    /**
+     * Makes the next post inserted on conn get an id of the logical shard
+     * of the user. Call resetPostIds on the connection afterwards since
+     * the setting stays with the pooled connection.
+     */
+    public void usePostIdsOf(Connection conn, String userId) throws SQLException {
+        if (logicalShardCount == 1) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("set session auto_increment_increment = " + logicalShardCount
+                    + ", auto_increment_offset = " + (logicalShardOfUser(userId) + 1));
+        }
+    }
+
+    /**
+     * Restores the default id sequence on conn.
+     */
+    public void resetPostIds(Connection conn) throws SQLException {
+        if (logicalShardCount == 1) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("set session auto_increment_increment = 1, auto_increment_offset = 1");
+        }
+    }
+
+    /**
+     * Runs the call on every shard. See scatter(Collection, ShardCall).
+     */
+    public <T> List<T> scatter(ShardCall<T> call) throws SQLException {
+        return scatter(shards, call);
+    }
+
+    /**
+     * Runs the call on each of the targets in parallel and returns the
+     * results in the order of targets. The first target runs on the
+     * caller's thread. The first failure is thrown after all calls ended.
+     */
+    public <T> List<T> scatter(Collection<Shard> targets, ShardCall<T> call)
+            throws SQLException {
+        List<Shard> list = new ArrayList<>(targets);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 1; i < list.size(); i++) {
+            Shard shard = list.get(i);
+            futures.add(executor.submit(() -> call.call(shard)));
+        }
+
+        List<T> results = new ArrayList<>();
+        SQLException failure = null;
+        if (!list.isEmpty()) {
+            try {
+                results.add(call.call(list.get(0)));
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof SQLException
+                            ? (SQLException) e.getCause()
+                            : new SQLException("Shard query failed.", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for shards.", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Stops the scatter threads when the application shuts down.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Spreads user ids over the logical shards. Consecutive ids are mixed
+     * first so that users registered together do not share a shard.
+     */
+    private int logicalShardOfUser(String userId) {
+        long mixed = Long.parseLong(userId) * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (mixed >>> 32), logicalShardCount);
+    }
+
+    /**
+     * A query run on one shard as part of a scatter.
+     */
+    @FunctionalInterface
+    public interface ShardCall<T> {
+        T call(Shard shard) throws SQLException;
+    }
+
+    /**
+     * One database holding posts.
+     * Writes use the write DataSource. Reads use the read DataSource,
+     * which may route to replicas of the shard.
+     */
+    public static class Shard {
+
+        private final int index;
+        private final DataSource writeDataSource;
+        private final DataSource readDataSource;
+
+        public Shard(int index, DataSource writeDataSource, DataSource readDataSource) {
+            this.index = index;
+            this.writeDataSource = writeDataSource;
+            this.readDataSource = readDataSource;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public DataSource getWriteDataSource() {
+            return writeDataSource;
+        }
+
+        public DataSource getReadDataSource() {
+            return readDataSource;
+        }
+    }
+
+}
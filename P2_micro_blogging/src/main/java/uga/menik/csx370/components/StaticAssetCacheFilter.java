@@ -0,0 +1,55 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Sets the Cache-Control header of static files. See StaticAssets.
+ * A fingerprinted URL always has the same content, so browsers may keep
+ * it for a year without asking again. Other static URLs may change with
+ * the next release, so browsers must check them with the Last-Modified
+ * date first. Errors, such as a URL with an outdated hash, are not cached.
+ * WebConfig registers this for the static paths only.
+ */
+public class StaticAssetCacheFilter extends OncePerRequestFilter {
+
+    // A file name with the md5 content hash before the extension.
+    private static final Pattern FINGERPRINTED = Pattern.compile(".*-[0-9a-f]{32}\\.[^/]+$");
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+            FilterChain chain) throws ServletException, IOException {
+        boolean fingerprinted = FINGERPRINTED.matcher(request.getRequestURI()).matches();
+        response.setHeader("Cache-Control", fingerprinted ? IMMUTABLE : REVALIDATE);
+        chain.doFilter(request, new HttpServletResponseWrapper(response) {
+            @Override
+            public void sendError(int status) throws IOException {
+                setHeader("Cache-Control", "no-store");
+                super.sendError(status);
+            }
+
+            @Override
+            public void sendError(int status, String message) throws IOException {
+                setHeader("Cache-Control", "no-store");
+                super.sendError(status, message);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+
+import com.samskivert.mustache.Mustache;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Prepares the files under static for serving and gives templates their
+ * fingerprinted URLs.
+ *
+ * When the application starts every static file is copied to a work
+ * folder together with a gzip variant, and a brotli variant when the
+ * brotli command is installed (the JDK has no brotli encoder). Brotli
+ * runs for several files at once at app.assets.brotli-quality, since
+ * the highest quality takes about a second per file. Variants that are
+ * not at least a tenth smaller, such as those of the PNG avatars, are
+ * dropped. The copies keep the modification time of the classpath files
+ * so Last-Modified does not change with every start. WebConfig serves the static paths from the work
+ * folder, picks the variant the browser accepts and answers URLs that
+ * carry a hash of the file content, like /css/styles-<md5>.css.
+ *
+ * Templates wrap static URLs in {{#asset}} ... {{/asset}}. The section is
+ * rendered and replaced with the fingerprinted URL of the file. A changed
+ * file gets a new URL, so fingerprinted URLs are cached forever (see
+ * StaticAssetCacheFilter).
+ *
+ * As a ControllerAdvice this adds the asset lambda to the model of every
+ * page, like FragmentCache does.
+ */
+@ControllerAdvice
+public class StaticAssets {
+
+    /**
+     * URL patterns of the static files. Interceptors skip these.
+     */
+    public static final List<String> PATH_PATTERNS = List.of("/css/**", "/js/**", "/avatars/**");
+
+    // Where the static files are on the classpath.
+    private static final String CLASSPATH_FOLDER = "static/";
+    // A variant is kept only if it is smaller than this share of the file.
+    private static final double MAX_VARIANT_RATIO = 0.9;
+    // How long brotli may take for one file.
+    private static final long BROTLI_TIMEOUT_SECONDS = 30;
+
+    // Copies of the static files and their variants.
+    private final Path folder;
+    // Resolves fingerprinted URLs. See WebConfig.addResourceHandlers.
+    private final ObjectProvider<ResourceUrlProvider> resourceUrlProvider;
+    // Quality passed to brotli, from 0 to 11.
+    private final int brotliQuality;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     * The URL provider is created after the web configuration, which needs
+     * this, so it is looked up when the first URL is resolved.
+     */
+    @Autowired
+    public StaticAssets(ObjectProvider<ResourceUrlProvider> resourceUrlProvider,
+            @Value("${app.assets.brotli-quality:9}") int brotliQuality) throws IOException {
+        this.resourceUrlProvider = resourceUrlProvider;
+        this.brotliQuality = brotliQuality;
+        this.folder = Files.createTempDirectory("static-assets");
+        prepare();
+    }
+
+    /**
+     * Returns the resource location of the prepared files.
+     */
+    public String getLocation() {
+        return folder.toUri().toString();
+    }
+
+    /**
+     * The lambda behind {{#asset}}. The rendered section is the path of a
+     * static file such as /css/styles.css.
+     */
+    @ModelAttribute("asset")
+    public Mustache.Lambda asset() {
+        return (frag, out) -> {
+            StringWriter path = new StringWriter();
+            frag.execute(path);
+            out.write(getUrl(path.toString().trim()));
+        };
+    }
+
+    /**
+     * Returns the fingerprinted URL of the static file at path or path
+     * itself if there is no such file.
+     */
+    public String getUrl(String path) {
+        String url = resourceUrlProvider.getObject().getForLookupPath(path);
+        return url != null ? url : path;
+    }
+
+    /**
+     * Removes the work folder when the application shuts down.
+     */
+    @PreDestroy
+    public void cleanUp() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Copies the static files to the work folder and writes their variants.
+     */
+    private void prepare() throws IOException {
+        int files = 0;
+        int variants = 0;
+        List<Path> copies = new ArrayList<>();
+        Resource[] resources = new PathMatchingResourcePatternResolver()
+                .getResources("classpath*:" + CLASSPATH_FOLDER + "**/*.*");
+        for (Resource resource : resources) {
+            String url = resource.getURL().toString();
+            String name = url.substring(url.lastIndexOf(CLASSPATH_FOLDER)
+                    + CLASSPATH_FOLDER.length());
+            byte[] content = resource.getContentAsByteArray();
+            Path target = folder.resolve(name);
+            Files.createDirectories(target.getParent());
+            Files.write(target, content);
+            long lastModified = resource.lastModified();
+            if (lastModified > 0) {
+                Files.setLastModifiedTime(target, FileTime.fromMillis(lastModified));
+            }
+            copies.add(target);
+            files++;
+
+            if (keepVariant(target, target.resolveSibling(target.getFileName() + ".gz"),
+                    gzip(content))) {
+                variants++;
+            }
+        }
+        variants += writeBrotliVariants(copies);
+        System.out.println("Prepared " + files + " static files with " + variants
+                + " compressed variants.");
+    }
+
+    /**
+     * Writes the brotli variants of the files, one brotli process per file
+     * and one per processor at a time. Returns the number kept. After a
+     * run that takes too long the remaining files are skipped, so a hung
+     * brotli does not hold up the start for every file.
+     */
+    private int writeBrotliVariants(List<Path> files) throws IOException {
+        try {
+            Process probe = new ProcessBuilder("brotli", "--version")
+                    .redirectOutput(Redirect.DISCARD).redirectError(Redirect.DISCARD).start();
+            probe.waitFor();
+        } catch (IOException e) {
+            System.out.println("The brotli command was not found. "
+                    + "Static files get gzip variants only.");
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Path file : files) {
+                results.add(executor.submit((Callable<Boolean>) () -> !timedOut.get()
+                        && writeBrotliVariant(file, timedOut)));
+            }
+            int kept = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get()) {
+                    kept++;
+                }
+            }
+            return kept;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Could not write a brotli variant.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs brotli on the file and keeps the variant if it is small enough.
+     * A run that fails or takes too long is killed and its output removed,
+     * so a partial file is never served. A run that takes too long sets
+     * timedOut.
+     */
+    private boolean writeBrotliVariant(Path file, AtomicBoolean timedOut)
+            throws IOException, InterruptedException {
+        Path br = file.resolveSibling(file.getFileName() + ".br");
+        Process process = new ProcessBuilder("brotli", "-q", String.valueOf(brotliQuality),
+                "-f", "-o", br.toString(), file.toString())
+                .redirectOutput(Redirect.DISCARD).redirectError(Redirect.DISCARD).start();
+        try {
+            if (!process.waitFor(BROTLI_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                if (!timedOut.getAndSet(true)) {
+                    System.out.println("brotli took too long for " + file.getFileName()
+                            + ". The remaining static files get gzip variants only.");
+                }
+                process.destroyForcibly().waitFor();
+                Files.deleteIfExists(br);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Files.deleteIfExists(br);
+            throw e;
+        }
+        if (process.exitValue() != 0) {
+            Files.deleteIfExists(br);
+            return false;
+        }
+        return keepVariant(file, br, Files.readAllBytes(br));
+    }
+
+    /**
+     * Writes the variant of file if it is small enough and returns true.
+     * The variant gets the modification time of file. Otherwise removes it.
+     */
+    private static boolean keepVariant(Path file, Path variant, byte[] compressed)
+            throws IOException {
+        if (compressed.length < Files.size(file) * MAX_VARIANT_RATIO) {
+            Files.write(variant, compressed);
+            Files.setLastModifiedTime(variant, Files.getLastModifiedTime(file));
+            return true;
+        }
+        Files.deleteIfExists(variant);
+        return false;
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,181 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides whether requests and the database calls they make run on
+ * platform threads or on virtual threads, chosen with app.threads.mode.
+ *
+ * In platform mode Tomcat runs requests on its pool of platform threads.
+ * When MySQL slows down every thread ends up waiting on JDBC and new
+ * requests queue even if they would not touch the database.
+ *
+ * In virtual mode every request runs on its own virtual thread (see
+ * ThreadModeConfig) and so do the shard queries of ShardRouter. A virtual
+ * thread waiting on the network gives its carrier thread back, so waiting
+ * requests cost almost nothing. Virtual threads need Java 21 or newer.
+ * The application is built for Java 17, so they are created through
+ * reflection. Asking for virtual mode on an older runtime stops the start
+ * rather than quietly running in platform mode.
+ *
+ * Pinning audit of the JDBC path. A virtual thread that blocks inside a
+ * synchronized block keeps its carrier thread (it is pinned):
+ * - Connector/J 8.0 runs every statement inside a block synchronized on
+ *   the connection, so a query pins its carrier for the round trip. Only
+ *   threads holding a connection run queries, so at most
+ *   getMaxConnections threads are pinned at once. The scheduler gets that
+ *   many carriers on top of one per processor so pinned queries never
+ *   stall the other virtual threads.
+ * - HikariCP waits for a free connection with park/unpark, which does
+ *   not pin.
+ * - SocialGraphService, PostCacheService, TimelineService and
+ *   TrendingService hold monitors only around in-memory work and run
+ *   their queries outside of them.
+ * - PostCounterService held a monitor around its batched updates. It
+ *   uses a ReentrantLock instead, which does not pin. So does
+ *   ToggleWriteService around its flushes.
+ * Running with -Djdk.tracePinnedThreads=short prints any pinning left.
+ *
+ * Without a limit thousands of virtual threads would all wait on the
+ * connection pool and fail together after the connection timeout.
+ * AdmissionInterceptor lets at most requestsPerConnection requests per
+ * connection run at once and the rest wait their turn.
+ *
+ * The default of 4 requests per connection is a starting point, not a
+ * measured value. Virtual mode has not been load tested against platform
+ * mode yet. Tune it with loadtest/LoadTest.java on Java 21 as described
+ * there.
+ */
+@Component
+public class ThreadMode {
+
+    private final boolean virtual;
+    // Largest number of connections all pools together can open.
+    private final int maxConnections;
+    private final int requestsPerConnection;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public ThreadMode(@Value("${app.threads.mode:platform}") String mode,
+            @Value("${app.threads.virtual.requests-per-connection:4}") int requestsPerConnection,
+            @Value("${app.datasource.write.max-pool-size:10}") int writePoolSize,
+            @Value("${app.datasource.read.max-pool-size:20}") int readPoolSize,
+            @Value("${app.datasource.replica-urls:}") List<String> replicaUrls,
+            @Value("${app.shards.urls:}") List<String> shardUrls) {
+        this.maxConnections = writePoolSize
+                + readPoolSize * Math.max(1, countNonBlank(replicaUrls))
+                + writePoolSize * countNonBlank(shardUrls);
+        this.requestsPerConnection = requestsPerConnection;
+
+        this.virtual = "virtual".equalsIgnoreCase(mode);
+        if (virtual && !isSupported()) {
+            throw new IllegalStateException("app.threads.mode=virtual needs Java 21 or newer "
+                    + "but this is Java " + Runtime.version().feature()
+                    + ". Use app.threads.mode=platform or a newer Java.");
+        }
+        if (virtual) {
+            sizeScheduler();
+        }
+    }
+
+    /**
+     * Returns true if requests run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Returns the largest number of connections all pools can open.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns how many requests may run at once in virtual mode.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConnections * requestsPerConnection;
+    }
+
+    /**
+     * Returns an executor that runs each task on a new thread named name.
+     * The threads are virtual in virtual mode and reused daemon platform
+     * threads otherwise.
+     */
+    public ExecutorService newExecutor(String name) {
+        if (virtual) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(builder, name + "-", 0L);
+                ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory")
+                        .invoke(builder);
+                return (ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create virtual threads.", e);
+            }
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gives the virtual thread scheduler a carrier per processor plus one
+     * per connection. See the pinning audit above. This must run before
+     * the first virtual thread is created, which is why this bean creates
+     * all of them. Values given on the command line are kept.
+     */
+    private void sizeScheduler() {
+        int carriers = Runtime.getRuntime().availableProcessors() + maxConnections;
+        if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null) {
+            System.setProperty("jdk.virtualThreadScheduler.parallelism", String.valueOf(carriers));
+        }
+        if (System.getProperty("jdk.virtualThreadScheduler.maxPoolSize") == null) {
+            System.setProperty("jdk.virtualThreadScheduler.maxPoolSize",
+                    String.valueOf(Math.max(256, carriers)));
+        }
+    }
+
+    private static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static int countNonBlank(List<String> values) {
+        int count = 0;
+        for (String value : values) {
+            if (!value.isBlank()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
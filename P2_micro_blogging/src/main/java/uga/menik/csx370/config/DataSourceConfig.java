@@ -0,0 +1,170 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.config;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import uga.menik.csx370.components.PoolMetrics;
+import uga.menik.csx370.components.QueryPlanChecker;
+import uga.menik.csx370.components.ReadRoutingDataSource;
+import uga.menik.csx370.components.ReadYourWrites;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.components.ThreadMode;
+
+/**
+ * This is a configuration class that creates the connection pools.
+ * There are two pools so that a burst of page views cannot take all the
+ * connections that writes need and the other way around:
+ * - dataSource is used for writes and for reads that must see them.
+ *   Services get it when they ask for a DataSource.
+ * - readDataSource is used by services that only read, such as feeds,
+ *   post hydration and recommendations. They ask for it with
+ *   @Qualifier("readDataSource"). It spreads connections over the
+ *   replicas in app.datasource.replica-urls, each with its own pool,
+ *   and sends users who just wrote to the primary. See
+ *   ReadRoutingDataSource. Without replicas it has one pool on the
+ *   primary.
+ * - shardRouter knows the databases that hold posts. Each database in
+ *   app.shards.urls gets its own pool used for both reads and writes.
+ *   Without shard URLs the main database is the only shard and uses the
+ *   two pools above. See ShardRouter.
+ *
+ * Both pools tell Connector/J to keep server side prepared statements
+ * per connection and to rewrite JDBC batches into multi row statements.
+ * Nothing here measures how often a pool's statement cache is hit. See
+ * DatabaseMetricsService for the server wide counters.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Value("${spring.datasource.url}")
+    private String url;
+
+    @Value("${spring.datasource.username}")
+    private String username;
+
+    @Value("${spring.datasource.password}")
+    private String password;
+
+    @Value("${spring.datasource.driver-class-name}")
+    private String driverClassName;
+
+    @Bean
+    @Primary
+    public DataSource dataSource(PoolMetrics poolMetrics, QueryPlanChecker queryPlanChecker,
+            @Value("${app.datasource.write.max-pool-size:10}") int maxPoolSize,
+            @Value("${app.datasource.write.min-idle:2}") int minIdle,
+            @Value("${app.datasource.connection-timeout-ms:3000}") long connectionTimeout) {
+        return queryPlanChecker.wrap(createPool("write", url, false, poolMetrics, maxPoolSize,
+                minIdle, connectionTimeout));
+    }
+
+    @Bean
+    public DataSource readDataSource(@Qualifier("dataSource") DataSource dataSource,
+            PoolMetrics poolMetrics, ReadYourWrites readYourWrites,
+            QueryPlanChecker queryPlanChecker,
+            @Value("${app.datasource.replica-urls:}") List<String> replicaUrls,
+            @Value("${app.datasource.read.max-pool-size:20}") int maxPoolSize,
+            @Value("${app.datasource.read.min-idle:4}") int minIdle,
+            @Value("${app.datasource.connection-timeout-ms:3000}") long connectionTimeout) {
+        // Without replicas the read pool connects to the primary.
+        List<String> urls = new ArrayList<>();
+        for (String replicaUrl : replicaUrls) {
+            if (!replicaUrl.isBlank()) {
+                urls.add(replicaUrl.trim());
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(url);
+        }
+
+        List<DataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String name = urls.size() == 1 ? "read" : "read-" + (i + 1);
+            replicas.add(createPool(name, urls.get(i), true, poolMetrics, maxPoolSize, minIdle,
+                    connectionTimeout));
+        }
+        return queryPlanChecker.wrap(
+                new ReadRoutingDataSource(dataSource, replicas, readYourWrites));
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ShardRouter shardRouter(@Qualifier("dataSource") DataSource dataSource,
+            @Qualifier("readDataSource") DataSource readDataSource,
+            PoolMetrics poolMetrics, QueryPlanChecker queryPlanChecker, ThreadMode threadMode,
+            @Value("${app.shards.urls:}") List<String> shardUrls,
+            @Value("${app.shards.logical-count:1}") int logicalShardCount,
+            @Value("${app.datasource.write.max-pool-size:10}") int maxPoolSize,
+            @Value("${app.datasource.write.min-idle:2}") int minIdle,
+            @Value("${app.datasource.connection-timeout-ms:3000}") long connectionTimeout)
+            throws SQLException {
+        List<Shard> shards = new ArrayList<>();
+        for (String shardUrl : shardUrls) {
+            if (!shardUrl.isBlank()) {
+                int index = shards.size();
+                DataSource pool = queryPlanChecker.wrap(createPool("shard-" + index,
+                        shardUrl.trim(), false, poolMetrics, maxPoolSize, minIdle,
+                        connectionTimeout));
+                shards.add(new Shard(index, pool, pool));
+            }
+        }
+        if (shards.isEmpty()) {
+            shards.add(new Shard(0, dataSource, readDataSource));
+        }
+        ShardRouter shardRouter = new ShardRouter(logicalShardCount, shards,
+                threadMode.newExecutor("shard-scatter"));
+        // Refuse to start on shards set up with a different layout.
+        shardRouter.checkLayout();
+        return shardRouter;
+    }
+
+    /**
+     * Creates a Hikari pool for the database at jdbcUrl with the statement
+     * caching settings described above. The pool connects on first use.
+     */
+    private HikariDataSource createPool(String name, String jdbcUrl, boolean readOnly,
+            PoolMetrics poolMetrics, int maxPoolSize, int minIdle, long connectionTimeout) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setJdbcUrl(jdbcUrl);
+        pool.setUsername(username);
+        pool.setPassword(password);
+        pool.setDriverClassName(driverClassName);
+        pool.setMaximumPoolSize(maxPoolSize);
+        pool.setMinimumIdle(minIdle);
+        pool.setConnectionTimeout(connectionTimeout);
+        pool.setReadOnly(readOnly);
+        pool.setMetricsTrackerFactory(poolMetrics);
+
+        // Prepare statements on the server and keep them per connection.
+        pool.addDataSourceProperty("useServerPrepStmts", "true");
+        pool.addDataSourceProperty("cachePrepStmts", "true");
+        pool.addDataSourceProperty("prepStmtCacheSize", "250");
+        pool.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        // Send addBatch/executeBatch as multi row statements.
+        pool.addDataSourceProperty("rewriteBatchedStatements", "true");
+        // Skip round trips for session state the driver already knows.
+        pool.addDataSourceProperty("cacheServerConfiguration", "true");
+        pool.addDataSourceProperty("useLocalSessionState", "true");
+        pool.addDataSourceProperty("elideSetAutoCommits", "true");
+        pool.addDataSourceProperty("maintainTimeStats", "false");
+        return pool;
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.config;
+
+import java.io.IOException;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mustache.MustacheProperties;
+import org.springframework.boot.web.servlet.view.MustacheViewResolver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import com.samskivert.mustache.Mustache;
+
+import uga.menik.csx370.components.PrecompiledMustacheViewResolver;
+import uga.menik.csx370.components.PrecompiledTemplates;
+
+/**
+ * Replaces the Mustache view resolver of Spring Boot with one that
+ * renders templates compiled once at startup. See PrecompiledTemplates.
+ * Set app.templates.precompiled to false to go back to the default
+ * resolver, for example to edit templates without restarting.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.templates.precompiled", havingValue = "true",
+        matchIfMissing = true)
+public class MustacheConfig {
+
+    /**
+     * Spring Boot only creates its own resolver if there is no bean of
+     * type MustacheViewResolver, so this one takes its place.
+     */
+    @Bean
+    public MustacheViewResolver mustacheViewResolver(Mustache.Compiler mustacheCompiler,
+            MustacheProperties mustacheProperties) throws IOException {
+        PrecompiledTemplates templates = new PrecompiledTemplates(mustacheCompiler,
+                mustacheProperties.getPrefix(), mustacheProperties.getSuffix(),
+                mustacheProperties.getCharset());
+        PrecompiledMustacheViewResolver resolver = new PrecompiledMustacheViewResolver(templates);
+        // The same settings Spring Boot applies to its own resolver.
+        MustacheProperties.Servlet servlet = mustacheProperties.getServlet();
+        resolver.setPrefix(mustacheProperties.getPrefix());
+        resolver.setSuffix(mustacheProperties.getSuffix());
+        resolver.setCache(servlet.isCache());
+        if (servlet.getContentType() != null) {
+            resolver.setContentType(servlet.getContentType().toString());
+        }
+        resolver.setViewNames(mustacheProperties.getViewNames());
+        resolver.setExposeRequestAttributes(servlet.isExposeRequestAttributes());
+        resolver.setAllowRequestOverride(servlet.isAllowRequestOverride());
+        resolver.setAllowSessionOverride(servlet.isAllowSessionOverride());
+        resolver.setExposeSessionAttributes(servlet.isExposeSessionAttributes());
+        resolver.setExposeSpringMacroHelpers(servlet.isExposeSpringMacroHelpers());
+        resolver.setRequestContextAttribute(mustacheProperties.getRequestContextAttribute());
+        resolver.setCharset(mustacheProperties.getCharsetName());
+        resolver.setOrder(Ordered.LOWEST_PRECEDENCE - 10);
+        return resolver;
+    }
+
+}
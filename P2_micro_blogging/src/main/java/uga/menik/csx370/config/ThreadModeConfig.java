@@ -0,0 +1,31 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.config;
+
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import uga.menik.csx370.components.ThreadMode;
+
+/**
+ * This is a configuration class that makes Tomcat run each request on
+ * its own virtual thread when app.threads.mode is virtual.
+ * See ThreadMode for how virtual thread mode works.
+ */
+@Configuration
+public class ThreadModeConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> requestExecutorCustomizer(ThreadMode threadMode) {
+        return protocolHandler -> {
+            if (threadMode.isVirtual()) {
+                protocolHandler.setExecutor(threadMode.newExecutor("request"));
+            }
+        };
+    }
+
+}
@@ -6,11 +6,20 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 package uga.menik.csx370.config;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
 
+import uga.menik.csx370.components.AdmissionInterceptor;
 import uga.menik.csx370.components.AuthInterceptor;
+import uga.menik.csx370.components.ReadYourWritesInterceptor;
+import uga.menik.csx370.components.StaticAssetCacheFilter;
+import uga.menik.csx370.components.StaticAssets;
 
 /**
  * This is a configuration class. See comments in AuthInterceptor.java
@@ -19,16 +28,26 @@ import uga.menik.csx370.components.AuthInterceptor;
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    // This limits how many requests run at once in virtual thread mode.
+    private final AdmissionInterceptor admissionInterceptor;
     // This is an object that allows redirection if user is logged in.
     private final AuthInterceptor authInterceptor;
+    // This sends reads of users who just wrote to the primary database.
+    private final ReadYourWritesInterceptor readYourWritesInterceptor;
+    // This prepares the static files and their compressed variants.
+    private final StaticAssets staticAssets;
 
     /**
      * An AuthInterceptor will be initialized and provided
      * when a WebConfig is initalized by Spring Boot.
      */
     @Autowired
-    public WebConfig(AuthInterceptor authInterceptor) {
+    public WebConfig(AdmissionInterceptor admissionInterceptor, AuthInterceptor authInterceptor,
+            ReadYourWritesInterceptor readYourWritesInterceptor, StaticAssets staticAssets) {
+        this.admissionInterceptor = admissionInterceptor;
         this.authInterceptor = authInterceptor;
+        this.readYourWritesInterceptor = readYourWritesInterceptor;
+        this.staticAssets = staticAssets;
     }
 
     /**
@@ -37,14 +56,56 @@ public class WebConfig implements WebMvcConfigurer {
      */
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        // Static files skip all interceptors. They need no login and must
+        // not touch the session scoped UserService.
+        // Runs first so waiting requests have not done any work yet.
+        registry.addInterceptor(admissionInterceptor)
+                .addPathPatterns("/**")
+                .excludePathPatterns(StaticAssets.PATH_PATTERNS);
         registry.addInterceptor(authInterceptor)
                 // Apply to all paths.
                 .addPathPatterns("/**")
                 // Exclude login and register paths.
                 .excludePathPatterns("/login")
                 .excludePathPatterns("/register")
-                .excludePathPatterns("/css/**")
-                .excludePathPatterns("/js/**");
+                .excludePathPatterns(StaticAssets.PATH_PATTERNS);
+        registry.addInterceptor(readYourWritesInterceptor)
+                .addPathPatterns("/**")
+                .excludePathPatterns(StaticAssets.PATH_PATTERNS);
+    }
+
+    /**
+     * Serves the static files prepared by StaticAssets.
+     * EncodedResourceResolver sends the gzip or brotli variant if the
+     * browser accepts it. VersionResourceResolver answers URLs with the
+     * md5 hash of the file content in the name and creates them for
+     * StaticAssets.getUrl. It comes second so the hash is always of the
+     * uncompressed file. The chain caches what it resolved.
+     */
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        for (String pattern : StaticAssets.PATH_PATTERNS) {
+            String folder = pattern.substring(1, pattern.length() - 2);
+            registry.addResourceHandler(pattern)
+                    .addResourceLocations(staticAssets.getLocation() + folder)
+                    .resourceChain(true)
+                    .addResolver(new EncodedResourceResolver())
+                    .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
+        }
+    }
+
+    /**
+     * Sets the Cache-Control header of the static files.
+     */
+    @Bean
+    public FilterRegistrationBean<StaticAssetCacheFilter> staticAssetCacheFilter() {
+        FilterRegistrationBean<StaticAssetCacheFilter> registration =
+                new FilterRegistrationBean<>(new StaticAssetCacheFilter());
+        for (String pattern : StaticAssets.PATH_PATTERNS) {
+            // Servlet URL patterns end with /* instead of /**.
+            registration.addUrlPatterns(pattern.substring(0, pattern.length() - 1));
+        }
+        return registration;
     }
 
 }
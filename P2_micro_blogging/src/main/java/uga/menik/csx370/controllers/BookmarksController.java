@@ -5,15 +5,23 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 */
 package uga.menik.csx370.controllers;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
 import uga.menik.csx370.models.Post;
-import uga.menik.csx370.utility.Utility;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
+import uga.menik.csx370.services.UserService;
 
 /**
  * Handles /bookmarks and its sub URLs.
@@ -26,29 +34,57 @@ import uga.menik.csx370.utility.Utility;
 @RequestMapping("/bookmarks")
 public class BookmarksController {
 
+    // UserService has user login and registration related functions.
+    private final UserService userService;
+    // PostService has post loading functions.
+    private final PostService postService;
+    // PostHydrationService turns post ids into posts.
+    private final PostHydrationService postHydrationService;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works 
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public BookmarksController(UserService userService, PostService postService,
+            PostHydrationService postHydrationService) {
+        this.userService = userService;
+        this.postService = postService;
+        this.postHydrationService = postHydrationService;
+    }
+
     /**
      * /bookmarks URL itself is handled by this.
+     * The optional cursor parameter selects the next page of posts.
      */
     @GetMapping
-    public ModelAndView webpage() {
+    public ModelAndView webpage(@RequestParam(name = "cursor", required = false) String cursor) {
         // posts_page is a mustache template from src/main/resources/templates.
         // ModelAndView class enables initializing one and populating placeholders
         // in the template using Java objects assigned to named properties.
         ModelAndView mv = new ModelAndView("posts_page");
 
-        // Following line populates sample data.
-        // You should replace it with actual data from the database.
-        List<Post> posts = Utility.createSamplePostsListWithoutComments();
+        List<Post> posts = new ArrayList<>();
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            PostPage page = postService.getBookmarkedPostsPage(userId, PostKey.decode(cursor),
+                    PostService.PAGE_SIZE);
+            posts = postHydrationService.hydrate(userId, page.getPostIds());
+            // The load more link of posts_container points to the next page.
+            if (page.hasNext()) {
+                mv.addObject("nextPageUrl", "/bookmarks?cursor=" + page.getNextCursor().encode());
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            // If an error occured, you can set the following property with the
+            // error message to show the error message to the user.
+            mv.addObject("errorMessage", "Failed to load the posts. Please try again.");
+        }
         mv.addObject("posts", posts);
 
-        // If an error occured, you can set the following property with the
-        // error message to show the error message to the user.
-        // String errorMessage = "Some error occured!";
-        // mv.addObject("errorMessage", errorMessage);
-
-        // Enable the following line if you want to show no content message.
-        // Do that if your content list is empty.
-        // mv.addObject("isNoContent", true);
+        // Show the no content message if the content list is empty.
+        if (posts.isEmpty()) {
+            mv.addObject("isNoContent", true);
+        }
 
         return mv;
     }
@@ -0,0 +1,237 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.controllers;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import uga.menik.csx370.models.Post;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.services.FeedVersionService;
+import uga.menik.csx370.services.HashtagIndexService;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
+import uga.menik.csx370.services.SocialGraphService;
+import uga.menik.csx370.services.TimelineService;
+import uga.menik.csx370.services.UserService;
+
+/**
+ * Handles /api/feed URL and its sub URLs.
+ * These return the posts of the home, profile and hashtag search pages as
+ * JSON for mobile and polling clients. The posts are the same Post
+ * objects the pages show.
+ *
+ * Every response carries an ETag made from the change counters of the
+ * feed (see FeedVersionService). A client that sends the ETag back in an
+ * If-None-Match header gets 304 Not Modified without a body when the feed
+ * did not change. The ETag is worked out before the posts are loaded, so
+ * that answer costs no database queries.
+ *
+ * The change counters live in the memory of each node. They only see the
+ * changes made through that node, so ETags are only right while all
+ * requests of a user go to one node. Session logins need that anyway,
+ * since the session lives on the node that logged the user in. Token
+ * logins (app.auth.mode=token) let any node serve a user, so in token
+ * mode no ETags are sent and every request loads the feed.
+ */
+@Controller
+@RequestMapping("/api/feed")
+public class FeedApiController {
+
+    // UserService has user login and registration related functions.
+    private final UserService userService;
+    // PostService has post loading functions.
+    private final PostService postService;
+    // PostHydrationService turns post ids into posts.
+    private final PostHydrationService postHydrationService;
+    // TimelineService keeps the materialized home timelines.
+    private final TimelineService timelineService;
+    // HashtagIndexService keeps the in-memory hashtag index.
+    private final HashtagIndexService hashtagIndexService;
+    // SocialGraphService knows who the user follows.
+    private final SocialGraphService socialGraphService;
+    // FeedVersionService counts the changes of the feeds.
+    private final FeedVersionService feedVersionService;
+    // Whether responses carry ETags. Off in token mode, see above.
+    private final boolean eTagsEnabled;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public FeedApiController(UserService userService, PostService postService,
+            PostHydrationService postHydrationService, TimelineService timelineService,
+            HashtagIndexService hashtagIndexService, SocialGraphService socialGraphService,
+            FeedVersionService feedVersionService,
+            @Value("${app.auth.mode:session}") String authMode) {
+        this.userService = userService;
+        this.postService = postService;
+        this.postHydrationService = postHydrationService;
+        this.timelineService = timelineService;
+        this.hashtagIndexService = hashtagIndexService;
+        this.socialGraphService = socialGraphService;
+        this.feedVersionService = feedVersionService;
+        this.eTagsEnabled = !"token".equalsIgnoreCase(authMode);
+    }
+
+    /**
+     * Returns the home feed of the logged in user. See HomeController.
+     * An example URL handled by this function looks like below:
+     * http://localhost:8081/api/feed/home?cursor=1700000000_42
+     */
+    @GetMapping(value = "/home", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> home(
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch) {
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            String eTag = eTagsEnabled ? feedVersionService.getHomeETag(userId,
+                    socialGraphService.getFollowees(userId)) : null;
+            if (matches(ifNoneMatch, eTag)) {
+                return notModified(eTag);
+            }
+            PostPage page = timelineService.getTimelinePage(userId, PostKey.decode(cursor),
+                    PostService.PAGE_SIZE);
+            return ok(eTag, postHydrationService.hydrate(userId, page.getPostIds()), page);
+        } catch (SQLException e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to load the posts.");
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, "The cursor is not valid.");
+        }
+    }
+
+    /**
+     * Returns the posts of the user with the given id. See
+     * ProfileController.
+     * An example URL handled by this function looks like below:
+     * http://localhost:8081/api/feed/profile/1
+     */
+    @GetMapping(value = "/profile/{userId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> profile(@PathVariable("userId") String userId,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch) {
+        try {
+            String loggedInUserId = userService.getLoggedInUser().getUserId();
+            String eTag = eTagsEnabled
+                    ? feedVersionService.getProfileETag(loggedInUserId, userId) : null;
+            if (matches(ifNoneMatch, eTag)) {
+                return notModified(eTag);
+            }
+            PostPage page = postService.getUserPostsPage(userId, PostKey.decode(cursor),
+                    PostService.PAGE_SIZE);
+            return ok(eTag, postHydrationService.hydrate(loggedInUserId, page.getPostIds()),
+                    page);
+        } catch (SQLException e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to load the posts.");
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, "The cursor is not valid.");
+        }
+    }
+
+    /**
+     * Returns the posts that have all of the hashtags. See
+     * HashtagSearchController.
+     * An example URL handled by this function looks like below:
+     * http://localhost:8081/api/feed/hashtagsearch?hashtags=%23amazing+%23fireworks
+     */
+    @GetMapping(value = "/hashtagsearch", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> hashtagSearch(
+            @RequestParam(name = "hashtags") String hashtags,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestHeader(name = "If-None-Match", required = false) String ifNoneMatch) {
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            List<String> tags = HashtagSearchController.parseHashtags(hashtags);
+            String eTag = eTagsEnabled ? feedVersionService.getHashtagETag(userId, tags) : null;
+            if (matches(ifNoneMatch, eTag)) {
+                return notModified(eTag);
+            }
+            PostKey postKey = PostKey.decode(cursor);
+            // Use the in-memory index once it is built. Until then ask the database.
+            PostPage page = hashtagIndexService.isReady()
+                    ? hashtagIndexService.search(tags, postKey, PostService.PAGE_SIZE)
+                    : postService.getHashtagPostsPage(tags, postKey, PostService.PAGE_SIZE);
+            return ok(eTag, postHydrationService.hydrate(userId, page.getPostIds()), page);
+        } catch (SQLException e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to search the posts.");
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, "The cursor is not valid.");
+        }
+    }
+
+    /**
+     * Returns true if the If-None-Match header lists the ETag or is *.
+     * Always false without an ETag.
+     */
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+        for (String value : ifNoneMatch.split(",")) {
+            String trimmed = value.trim();
+            if (trimmed.equals(eTag) || trimmed.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The feeds belong to the logged in user, so shared caches must not
+     * keep them and clients must check the ETag before reusing them.
+     */
+    private static CacheControl cacheControl() {
+        return CacheControl.noCache().cachePrivate();
+    }
+
+    private static ResponseEntity<Map<String, Object>> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(eTag)
+                .cacheControl(cacheControl())
+                .build();
+    }
+
+    private static ResponseEntity<Map<String, Object>> ok(String eTag, List<Post> posts,
+            PostPage page) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("posts", posts);
+        // The cursor parameter of the next page. Null on the last page.
+        body.put("nextCursor", page.hasNext() ? page.getNextCursor().encode() : null);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(cacheControl());
+        if (eTag != null) {
+            response.eTag(eTag);
+        }
+        return response.body(body);
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String message) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", message);
+        return ResponseEntity.status(status).body(body);
+    }
+
+}
@@ -5,8 +5,13 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 */
 package uga.menik.csx370.controllers;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -14,7 +19,12 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
 import uga.menik.csx370.models.Post;
-import uga.menik.csx370.utility.Utility;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.services.HashtagIndexService;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
+import uga.menik.csx370.services.UserService;
 
 /**
  * Handles /hashtagsearch URL and possibly others.
@@ -24,35 +34,89 @@ import uga.menik.csx370.utility.Utility;
 @RequestMapping("/hashtagsearch")
 public class HashtagSearchController {
 
+    // UserService has user login and registration related functions.
+    private final UserService userService;
+    // PostService has post loading functions.
+    private final PostService postService;
+    // PostHydrationService turns post ids into posts.
+    private final PostHydrationService postHydrationService;
+    // HashtagIndexService answers searches from memory.
+    private final HashtagIndexService hashtagIndexService;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works 
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public HashtagSearchController(UserService userService, PostService postService,
+            PostHydrationService postHydrationService,
+            HashtagIndexService hashtagIndexService) {
+        this.userService = userService;
+        this.postService = postService;
+        this.postHydrationService = postHydrationService;
+        this.hashtagIndexService = hashtagIndexService;
+    }
+
     /**
      * This function handles the /hashtagsearch URL itself.
      * This URL can process a request parameter with name hashtags.
      * In the browser the URL will look something like below:
      * http://localhost:8081/hashtagsearch?hashtags=%23amazing+%23fireworks
      * Note: the value of the hashtags is URL encoded.
+     * The optional cursor parameter selects the next page of posts.
      */
     @GetMapping
-    public ModelAndView webpage(@RequestParam(name = "hashtags") String hashtags) {
+    public ModelAndView webpage(@RequestParam(name = "hashtags") String hashtags,
+            @RequestParam(name = "cursor", required = false) String cursor) {
         System.out.println("User is searching: " + hashtags);
 
         // See notes on ModelAndView in BookmarksController.java.
         ModelAndView mv = new ModelAndView("posts_page");
 
-        // Following line populates sample data.
-        // You should replace it with actual data from the database.
-        List<Post> posts = Utility.createSamplePostsListWithoutComments();
+        List<Post> posts = new ArrayList<>();
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            List<String> tags = parseHashtags(hashtags);
+            PostKey postKey = PostKey.decode(cursor);
+            // Use the in-memory index once it is built. Until then ask the database.
+            PostPage page = hashtagIndexService.isReady()
+                    ? hashtagIndexService.search(tags, postKey, PostService.PAGE_SIZE)
+                    : postService.getHashtagPostsPage(tags, postKey, PostService.PAGE_SIZE);
+            posts = postHydrationService.hydrate(userId, page.getPostIds());
+            if (page.hasNext()) {
+                mv.addObject("nextPageUrl", "/hashtagsearch?hashtags="
+                        + URLEncoder.encode(hashtags, StandardCharsets.UTF_8)
+                        + "&cursor=" + page.getNextCursor().encode());
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            // Show the error message to the user.
+            mv.addObject("errorMessage", "Failed to search the posts. Please try again.");
+        }
         mv.addObject("posts", posts);
 
-        // If an error occured, you can set the following property with the
-        // error message to show the error message to the user.
-        // String errorMessage = "Some error occured!";
-        // mv.addObject("errorMessage", errorMessage);
-
-        // Enable the following line if you want to show no content message.
-        // Do that if your content list is empty.
-        // mv.addObject("isNoContent", true);
+        // Show the no content message if nothing matched.
+        if (posts.isEmpty()) {
+            mv.addObject("isNoContent", true);
+        }
         
         return mv;
     }
+
+    /**
+     * Splits the search text into distinct tags.
+     * Tags are separated by spaces and the leading # is optional.
+     * FeedApiController parses its hashtags parameter with this too.
+     */
+    static List<String> parseHashtags(String hashtags) {
+        List<String> tags = new ArrayList<>();
+        for (String token : hashtags.trim().split("\\s+")) {
+            String tag = token.startsWith("#") ? token.substring(1) : token;
+            tag = tag.toLowerCase();
+            if (!tag.isEmpty() && !tags.contains(tag)) {
+                tags.add(tag);
+            }
+        }
+        return tags;
+    }
     
 }
@@ -7,8 +7,12 @@ package uga.menik.csx370.controllers;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -16,8 +20,19 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
+import uga.menik.csx370.components.PageAssembler;
 import uga.menik.csx370.models.Post;
-import uga.menik.csx370.utility.Utility;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.models.TrendingHashtag;
+import uga.menik.csx370.services.FeedVersionService;
+import uga.menik.csx370.services.HashtagIndexService;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
+import uga.menik.csx370.services.TimelineService;
+import uga.menik.csx370.services.TrendingService;
+import uga.menik.csx370.services.UserService;
+import uga.menik.csx370.utility.HashtagTokenizer;
 
 /**
  * This controller handles the home page and some of it's sub URLs.
@@ -26,32 +41,101 @@ import uga.menik.csx370.utility.Utility;
 @RequestMapping
 public class HomeController {
 
+    // UserService has user login and registration related functions.
+    private final UserService userService;
+    // PostService has post creation and loading functions.
+    private final PostService postService;
+    // PostHydrationService turns post ids into posts.
+    private final PostHydrationService postHydrationService;
+    // TimelineService keeps the materialized home timelines.
+    private final TimelineService timelineService;
+    // HashtagIndexService keeps the in-memory hashtag index.
+    private final HashtagIndexService hashtagIndexService;
+    // TrendingService counts recent hashtag uses.
+    private final TrendingService trendingService;
+    // PageAssembler runs the independent queries of a page at once.
+    private final PageAssembler pageAssembler;
+    // FeedVersionService counts the changes of the feeds.
+    private final FeedVersionService feedVersionService;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works 
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public HomeController(UserService userService, PostService postService,
+            PostHydrationService postHydrationService,
+            TimelineService timelineService, HashtagIndexService hashtagIndexService,
+            TrendingService trendingService, PageAssembler pageAssembler,
+            FeedVersionService feedVersionService) {
+        this.userService = userService;
+        this.postService = postService;
+        this.postHydrationService = postHydrationService;
+        this.timelineService = timelineService;
+        this.hashtagIndexService = hashtagIndexService;
+        this.trendingService = trendingService;
+        this.pageAssembler = pageAssembler;
+        this.feedVersionService = feedVersionService;
+    }
+
     /**
      * This is the specific function that handles the root URL itself.
      * 
      * Note that this accepts a URL parameter called error.
      * The value to this parameter can be shown to the user as an error message.
      * See notes in HashtagSearchController.java regarding URL parameters.
+     * 
+     * The optional cursor parameter comes from the load more link of the
+     * previous page. Only posts older than the cursor are shown.
      */
     @GetMapping
-    public ModelAndView webpage(@RequestParam(name = "error", required = false) String error) {
+    public ModelAndView webpage(@RequestParam(name = "error", required = false) String error,
+            @RequestParam(name = "cursor", required = false) String cursor) {
         // See notes on ModelAndView in BookmarksController.java.
         ModelAndView mv = new ModelAndView("home_page");
 
-        // Following line populates sample data.
-        // You should replace it with actual data from the database.
-        List<Post> posts = Utility.createSamplePostsListWithoutComments();
-        mv.addObject("posts", posts);
-
         // If an error occured, you can set the following property with the
         // error message to show the error message to the user.
         // An error message can be optionally specified with a url query parameter too.
         String errorMessage = error;
+
+        // The feed is read from the user's materialized timeline. The
+        // trending panel is built from memory while the timeline loads. The
+        // posts need the timeline page, so they are hydrated on this thread
+        // once it is joined.
+        List<Post> posts = new ArrayList<>();
+        List<Map<String, Object>> trendingWindows = new ArrayList<>();
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            PostKey after = PostKey.decode(cursor);
+            try (PageAssembler.Scope scope = pageAssembler.open()) {
+                PageAssembler.Part<PostPage> page = scope.fork(() -> timelineService
+                        .getTimelinePage(userId, after, PostService.PAGE_SIZE));
+                addTrendingWindows(trendingWindows);
+                scope.join();
+                posts = postHydrationService.hydrate(userId, page.get().getPostIds());
+                if (page.get().hasNext()) {
+                    mv.addObject("nextPageUrl", "/?cursor=" + page.get().getNextCursor().encode());
+                }
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            errorMessage = "Failed to load the posts. Please try again.";
+            // The panel is still shown if the feed failed before it was built.
+            if (trendingWindows.isEmpty()) {
+                addTrendingWindows(trendingWindows);
+            }
+        }
+        mv.addObject("posts", posts);
         mv.addObject("errorMessage", errorMessage);
 
-        // Enable the following line if you want to show no content message.
-        // Do that if your content list is empty.
-        // mv.addObject("isNoContent", true);
+        // Trending hashtags panel. These come from memory, not the database.
+        mv.addObject("trendingWindows", trendingWindows);
+        mv.addObject("isTrendingShown", !trendingWindows.isEmpty());
+
+        // Show the no content message if the feed is empty.
+        if (posts.isEmpty()) {
+            mv.addObject("isNoContent", true);
+        }
 
         return mv;
     }
@@ -68,13 +152,54 @@ public class HomeController {
     public String createPost(@RequestParam(name = "posttext") String postText) {
         System.out.println("User is creating post: " + postText);
 
-        // Redirect the user if the post creation is a success.
-        // return "redirect:/";
+        if (postText == null || postText.trim().isEmpty()) {
+            String message = URLEncoder.encode("Post content cannot be empty.",
+                    StandardCharsets.UTF_8);
+            return "redirect:/?error=" + message;
+        }
+
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            String content = postText.trim();
+            List<String> tags = HashtagTokenizer.extract(content);
+            PostKey post = postService.createPost(userId, content, tags);
+            // Push the new post into the followers' timelines.
+            timelineService.fanOutPost(userId, post);
+            // Make the post findable by its hashtags.
+            hashtagIndexService.indexPost(post, tags);
+            // The feeds show the post now, so their versions change.
+            feedVersionService.postCreated(userId, tags);
+            // Count the tags for the trending panel.
+            trendingService.recordTags(tags);
+
+            // Redirect the user if the post creation is a success.
+            return "redirect:/";
+        } catch (SQLException e) {
+            // Redirect the user with an error message if there was an error.
+            String message = URLEncoder.encode("Failed to create the post. Please try again.",
+                    StandardCharsets.UTF_8);
+            return "redirect:/?error=" + message;
+        }
+    }
+
+    /**
+     * Adds the trending tags of each window that has any to the list.
+     */
+    private void addTrendingWindows(List<Map<String, Object>> trendingWindows) {
+        addTrendingWindow(trendingWindows, "Last hour", TrendingService.Window.HOUR);
+        addTrendingWindow(trendingWindows, "Today", TrendingService.Window.DAY);
+        addTrendingWindow(trendingWindows, "This week", TrendingService.Window.WEEK);
+    }
 
-        // Redirect the user with an error message if there was an error.
-        String message = URLEncoder.encode("Failed to create the post. Please try again.",
-                StandardCharsets.UTF_8);
-        return "redirect:/?error=" + message;
+    /**
+     * Adds the trending tags of a window to the list if there are any.
+     */
+    private void addTrendingWindow(List<Map<String, Object>> trendingWindows, String label,
+            TrendingService.Window window) {
+        List<TrendingHashtag> tags = trendingService.getTrending(window);
+        if (!tags.isEmpty()) {
+            trendingWindows.add(Map.of("label", label, "tags", tags));
+        }
     }
 
 }
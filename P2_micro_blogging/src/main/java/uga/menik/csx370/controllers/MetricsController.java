@@ -0,0 +1,94 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.controllers;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import uga.menik.csx370.components.QueryPlanChecker;
+import uga.menik.csx370.services.DatabaseMetricsService;
+import uga.menik.csx370.services.PostCacheService;
+import uga.menik.csx370.services.ToggleWriteService;
+
+/**
+ * Handles /metrics URL and its sub URL paths.
+ * These return JSON instead of web pages so they can be read by
+ * monitoring tools.
+ */
+@Controller
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    // PostCacheService caches post data and viewer flags.
+    private final PostCacheService postCacheService;
+    // DatabaseMetricsService reports connection pool and statement metrics.
+    private final DatabaseMetricsService databaseMetricsService;
+    // QueryPlanChecker explains the queries the services run.
+    private final QueryPlanChecker queryPlanChecker;
+    // ToggleWriteService writes hearts, bookmarks and follows in groups.
+    private final ToggleWriteService toggleWriteService;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works 
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public MetricsController(PostCacheService postCacheService,
+            DatabaseMetricsService databaseMetricsService, QueryPlanChecker queryPlanChecker,
+            ToggleWriteService toggleWriteService) {
+        this.postCacheService = postCacheService;
+        this.databaseMetricsService = databaseMetricsService;
+        this.queryPlanChecker = queryPlanChecker;
+        this.toggleWriteService = toggleWriteService;
+    }
+
+    /**
+     * Returns hit rates and sizes of both levels of the post cache.
+     * @ResponseBody makes Spring write the returned map as JSON instead of
+     * looking for a template.
+     */
+    @GetMapping(value = "/post-cache", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Map<String, Object> postCache() {
+        return postCacheService.getStats();
+    }
+
+    /**
+     * Returns connection pool usage and server wide statement counters.
+     */
+    @GetMapping(value = "/database", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Map<String, Object> database() {
+        return databaseMetricsService.getStats();
+    }
+
+    /**
+     * Returns how many heart, bookmark and follow clicks were recorded and
+     * how many rows and transactions it took to write them.
+     */
+    @GetMapping(value = "/toggles", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Map<String, Object> toggles() {
+        return toggleWriteService.getStats();
+    }
+
+    /**
+     * Returns the queries whose plans scan or sort too many rows.
+     * Only filled when app.query-plans.check is on.
+     */
+    @GetMapping(value = "/query-plans", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Map<String, Object> queryPlans() {
+        return queryPlanChecker.getResults();
+    }
+
+}
\ No newline at end of file
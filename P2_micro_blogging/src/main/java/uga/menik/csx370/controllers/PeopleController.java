@@ -7,6 +7,8 @@ package uga.menik.csx370.controllers;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,10 +19,15 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
+import uga.menik.csx370.components.PageAssembler;
 import uga.menik.csx370.models.FollowableUser;
+import uga.menik.csx370.services.FeedVersionService;
 import uga.menik.csx370.services.PeopleService;
+import uga.menik.csx370.services.RecommendationService;
+import uga.menik.csx370.services.RecommendationService.Recommendation;
+import uga.menik.csx370.services.SocialGraphService;
+import uga.menik.csx370.services.TimelineService;
 import uga.menik.csx370.services.UserService;
-import uga.menik.csx370.utility.Utility;
 
 /**
  * Handles /people URL and its sub URL paths.
@@ -29,9 +36,38 @@ import uga.menik.csx370.utility.Utility;
 @RequestMapping("/people")
 public class PeopleController {
 
-    // Inject UserService and PeopleService instances.
-    // See LoginController.java to see how to do this.
-    // Hint: Add a constructor with @Autowired annotation.
+    // UserService has user login and registration related functions.
+    private final UserService userService;
+    // PeopleService has people related functions.
+    private final PeopleService peopleService;
+    // SocialGraphService writes follows and keeps them cached.
+    private final SocialGraphService socialGraphService;
+    // TimelineService keeps the materialized home timelines.
+    private final TimelineService timelineService;
+    // RecommendationService keeps the who to follow lists.
+    private final RecommendationService recommendationService;
+    // PageAssembler runs the independent queries of a page at once.
+    private final PageAssembler pageAssembler;
+    // FeedVersionService counts the changes of the feeds.
+    private final FeedVersionService feedVersionService;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works 
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public PeopleController(UserService userService, PeopleService peopleService,
+            SocialGraphService socialGraphService, TimelineService timelineService,
+            RecommendationService recommendationService, PageAssembler pageAssembler,
+            FeedVersionService feedVersionService) {
+        this.userService = userService;
+        this.peopleService = peopleService;
+        this.socialGraphService = socialGraphService;
+        this.timelineService = timelineService;
+        this.recommendationService = recommendationService;
+        this.pageAssembler = pageAssembler;
+        this.feedVersionService = feedVersionService;
+    }
 
     /**
      * Serves the /people web page.
@@ -45,22 +81,34 @@ public class PeopleController {
         // See notes on ModelAndView in BookmarksController.java.
         ModelAndView mv = new ModelAndView("people_page");
 
-        // Following line populates sample data.
-        // You should replace it with actual data from the database.
-        // Use the PeopleService instance to find followable users.
-        // Use UserService to access logged in userId to exclude.
-        List<FollowableUser> followableUsers = Utility.createSampleFollowableUserList();
-        mv.addObject("users", followableUsers);
-
         // If an error occured, you can set the following property with the
         // error message to show the error message to the user.
         // An error message can be optionally specified with a url query parameter too.
         String errorMessage = error;
+
+        List<FollowableUser> followableUsers = new ArrayList<>();
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            // The recommendations and the followed users are read at the same time.
+            try (PageAssembler.Scope scope = pageAssembler.open()) {
+                PageAssembler.Part<List<Recommendation>> recommendations = scope.fork(
+                        () -> recommendationService.getRecommendations(userId));
+                PageAssembler.Part<int[]> followeeIds = scope.fork(
+                        () -> socialGraphService.getFollowees(userId));
+                scope.join();
+                followableUsers = peopleService.getPeople(recommendations.get(),
+                        followeeIds.get());
+            }
+        } catch (SQLException e) {
+            errorMessage = "Failed to load the users. Please try again.";
+        }
+        mv.addObject("users", followableUsers);
         mv.addObject("errorMessage", errorMessage);
 
-        // Enable the following line if you want to show no content message.
-        // Do that if your content list is empty.
-        // mv.addObject("isNoContent", true);
+        // Show the no content message if there is nobody to follow.
+        if (followableUsers.isEmpty()) {
+            mv.addObject("isNoContent", true);
+        }
         
         return mv;
     }
@@ -82,13 +130,31 @@ public class PeopleController {
         System.out.println("\tuserId: " + userId);
         System.out.println("\tisFollow: " + isFollow);
 
-        // Redirect the user if the comment adding is a success.
-        // return "redirect:/people";
+        try {
+            String loggedInUserId = userService.getLoggedInUser().getUserId();
+            if (isFollow) {
+                socialGraphService.follow(loggedInUserId, userId);
+            } else {
+                socialGraphService.unfollow(loggedInUserId, userId);
+            }
+            // The home feed now has a different set of authors.
+            timelineService.invalidate(loggedInUserId);
+            feedVersionService.viewerChanged(loggedInUserId);
+            // Friends of friends changed too.
+            if (isFollow) {
+                recommendationService.onFollow(loggedInUserId, userId);
+            } else {
+                recommendationService.onUnfollow(loggedInUserId, userId);
+            }
 
-        // Redirect the user with an error message if there was an error.
-        String message = URLEncoder.encode("Failed to (un)follow the user. Please try again.",
-                StandardCharsets.UTF_8);
-        return "redirect:/people?error=" + message;
+            // Redirect the user if the follow change is a success.
+            return "redirect:/people";
+        } catch (SQLException | NumberFormatException e) {
+            // Redirect the user with an error message if there was an error.
+            String message = URLEncoder.encode("Failed to (un)follow the user. Please try again.",
+                    StandardCharsets.UTF_8);
+            return "redirect:/people?error=" + message;
+        }
     }
 
 }
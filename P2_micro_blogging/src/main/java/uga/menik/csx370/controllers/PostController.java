@@ -5,10 +5,15 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 */
 package uga.menik.csx370.controllers;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -17,8 +22,16 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
+import jakarta.servlet.http.HttpServletRequest;
+import uga.menik.csx370.components.EncodedResponseWriter;
+import uga.menik.csx370.components.PageAssembler;
+import uga.menik.csx370.models.CommentKey;
+import uga.menik.csx370.models.CommentPage;
 import uga.menik.csx370.models.ExpandedPost;
-import uga.menik.csx370.utility.Utility;
+import uga.menik.csx370.models.Post;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
+import uga.menik.csx370.services.UserService;
 
 /**
  * Handles /post URL and its sub urls.
@@ -27,6 +40,28 @@ import uga.menik.csx370.utility.Utility;
 @RequestMapping("/post")
 public class PostController {
 
+    // UserService has user login and registration related functions.
+    private final UserService userService;
+    // PostService has post, heart and comment functions.
+    private final PostService postService;
+    // PostHydrationService turns post ids into posts.
+    private final PostHydrationService postHydrationService;
+    // PageAssembler runs the independent queries of a page at once.
+    private final PageAssembler pageAssembler;
+
+    /**
+     * See notes in AuthInterceptor.java regarding how this works 
+     * through dependency injection and inversion of control.
+     */
+    @Autowired
+    public PostController(UserService userService, PostService postService,
+            PostHydrationService postHydrationService, PageAssembler pageAssembler) {
+        this.userService = userService;
+        this.postService = postService;
+        this.postHydrationService = postHydrationService;
+        this.pageAssembler = pageAssembler;
+    }
+
     /**
      * This function handles the /post/{postId} URL.
      * This handlers serves the web page for a specific post.
@@ -39,26 +74,76 @@ public class PostController {
      */
     @GetMapping("/{postId}")
     public ModelAndView webpage(@PathVariable("postId") String postId,
-            @RequestParam(name = "error", required = false) String error) {
+            @RequestParam(name = "error", required = false) String error,
+            HttpServletRequest request) {
         System.out.println("The user is attempting to view post with id: " + postId);
         // See notes on ModelAndView in BookmarksController.java.
         ModelAndView mv = new ModelAndView("posts_page");
 
-        // Following line populates sample data.
-        // You should replace it with actual data from the database.
-        List<ExpandedPost> posts = Utility.createSampleExpandedPostWithComments();
-        mv.addObject("posts", posts);
-
         // If an error occured, you can set the following property with the
         // error message to show the error message to the user.
         // An error message can be optionally specified with a url query parameter too.
         String errorMessage = error;
+
+        List<ExpandedPost> posts = new ArrayList<>();
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            // The post and the first chunk of its comments are read at the
+            // same time.
+            try (PageAssembler.Scope scope = pageAssembler.open()) {
+                PageAssembler.Part<List<Post>> hydrated = scope.fork(
+                        () -> postHydrationService.hydrate(userId, List.of(postId)));
+                PageAssembler.Part<CommentPage> firstChunk = scope.fork(
+                        () -> postHydrationService.getFirstCommentChunk(postId));
+                scope.join();
+                if (!hydrated.get().isEmpty()) {
+                    // Only the first page of comments. The chunks after the
+                    // first are read while the page is rendered. Whatever is
+                    // rendered before each of them is sent right away, so the
+                    // browser gets the post before they are read. See
+                    // commentsFragment for the rest.
+                    posts.add(postHydrationService.expandStreamed(hydrated.get().get(0),
+                            firstChunk.get(), () -> flush(request)));
+                }
+            }
+        } catch (SQLException e) {
+            errorMessage = "Failed to load the post. Please try again.";
+        }
+        mv.addObject("posts", posts);
         mv.addObject("errorMessage", errorMessage);
 
-        // Enable the following line if you want to show no content message.
-        // Do that if your content list is empty.
-        // mv.addObject("isNoContent", true);
+        // Show the no content message if the post does not exist.
+        if (posts.isEmpty()) {
+            mv.addObject("isNoContent", true);
+        }
+
+        return mv;
+    }
 
+    /**
+     * This function handles the /post/{postId}/comments URL.
+     * It serves the next page of comments of a post as an HTML fragment,
+     * not a full web page. The post page appends it below the comments
+     * already shown when the load more comments link is clicked.
+     * The cursor parameter is the cursor of the last comment shown.
+     * An example URL handled by this function looks like below:
+     * http://localhost:8081/post/1/comments?cursor=1700000000_42
+     */
+    @GetMapping("/{postId}/comments")
+    public ModelAndView commentsFragment(@PathVariable("postId") String postId,
+            @RequestParam(name = "cursor") String cursor) {
+        ModelAndView mv = new ModelAndView("fragments/comments_page");
+        try {
+            CommentPage page = postHydrationService.getCommentsPage(postId,
+                    CommentKey.decode(cursor));
+            mv.addObject("postId", postId);
+            mv.addObject("comments", page.getComments());
+            if (page.hasNext()) {
+                mv.addObject("nextCommentsCursor", page.getNextCursor().encode());
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            mv.addObject("errorMessage", "Failed to load the comments. Please try again.");
+        }
         return mv;
     }
 
@@ -75,13 +160,24 @@ public class PostController {
         System.out.println("\tpostId: " + postId);
         System.out.println("\tcomment: " + comment);
 
-        // Redirect the user if the comment adding is a success.
-        // return "redirect:/post/" + postId;
-
-        // Redirect the user with an error message if there was an error.
-        String message = URLEncoder.encode("Failed to post the comment. Please try again.",
-                StandardCharsets.UTF_8);
-        return "redirect:/post/" + postId + "?error=" + message;
+        if (comment == null || comment.trim().isEmpty()) {
+            String message = URLEncoder.encode("Comment cannot be empty.",
+                    StandardCharsets.UTF_8);
+            return "redirect:/post/" + postId + "?error=" + message;
+        }
+
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            postService.addComment(userId, postId, comment.trim());
+
+            // Redirect the user if the comment adding is a success.
+            return "redirect:/post/" + postId;
+        } catch (SQLException e) {
+            // Redirect the user with an error message if there was an error.
+            String message = URLEncoder.encode("Failed to post the comment. Please try again.",
+                    StandardCharsets.UTF_8);
+            return "redirect:/post/" + postId + "?error=" + message;
+        }
     }
 
     /**
@@ -97,13 +193,18 @@ public class PostController {
         System.out.println("\tpostId: " + postId);
         System.out.println("\tisAdd: " + isAdd);
 
-        // Redirect the user if the comment adding is a success.
-        // return "redirect:/post/" + postId;
-
-        // Redirect the user with an error message if there was an error.
-        String message = URLEncoder.encode("Failed to (un)like the post. Please try again.",
-                StandardCharsets.UTF_8);
-        return "redirect:/post/" + postId + "?error=" + message;
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            postService.setHeart(userId, postId, isAdd);
+
+            // Redirect the user if the heart change is a success.
+            return "redirect:/post/" + postId;
+        } catch (SQLException e) {
+            // Redirect the user with an error message if there was an error.
+            String message = URLEncoder.encode("Failed to (un)like the post. Please try again.",
+                    StandardCharsets.UTF_8);
+            return "redirect:/post/" + postId + "?error=" + message;
+        }
     }
 
     /**
@@ -119,13 +220,30 @@ public class PostController {
         System.out.println("\tpostId: " + postId);
         System.out.println("\tisAdd: " + isAdd);
 
-        // Redirect the user if the comment adding is a success.
-        // return "redirect:/post/" + postId;
+        try {
+            String userId = userService.getLoggedInUser().getUserId();
+            postService.setBookmark(userId, postId, isAdd);
+
+            // Redirect the user if the bookmark change is a success.
+            return "redirect:/post/" + postId;
+        } catch (SQLException e) {
+            // Redirect the user with an error message if there was an error.
+            String message = URLEncoder.encode("Failed to (un)bookmark the post. Please try again.",
+                    StandardCharsets.UTF_8);
+            return "redirect:/post/" + postId + "?error=" + message;
+        }
+    }
 
-        // Redirect the user with an error message if there was an error.
-        String message = URLEncoder.encode("Failed to (un)bookmark the post. Please try again.",
-                StandardCharsets.UTF_8);
-        return "redirect:/post/" + postId + "?error=" + message;
+    /**
+     * Sends the part of the page rendered so far to the browser.
+     */
+    private static void flush(HttpServletRequest request) {
+        try {
+            EncodedResponseWriter.flush(request);
+        } catch (IOException e) {
+            // The browser went away. Stop rendering the rest of the page.
+            throw new UncheckedIOException(e);
+        }
     }
 
-}
+}
\ No newline at end of file
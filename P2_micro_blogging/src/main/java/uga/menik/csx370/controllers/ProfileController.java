@@ -5,6 +5,8 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 */
 package uga.menik.csx370.controllers;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,11 +14,15 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
 import uga.menik.csx370.models.Post;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
 import uga.menik.csx370.services.UserService;
-import uga.menik.csx370.utility.Utility;
 
 /**
  * Handles /profile URL and its sub URLs.
@@ -27,14 +33,21 @@ public class ProfileController {
 
     // UserService has user login and registration related functions.
     private final UserService userService;
+    // PostService has post loading functions.
+    private final PostService postService;
+    // PostHydrationService turns post ids into posts.
+    private final PostHydrationService postHydrationService;
 
     /**
      * See notes in AuthInterceptor.java regarding how this works 
      * through dependency injection and inversion of control.
      */
     @Autowired
-    public ProfileController(UserService userService) {
+    public ProfileController(UserService userService, PostService postService,
+            PostHydrationService postHydrationService) {
         this.userService = userService;
+        this.postService = postService;
+        this.postHydrationService = postHydrationService;
     }
 
     /**
@@ -44,7 +57,7 @@ public class ProfileController {
     @GetMapping
     public ModelAndView profileOfLoggedInUser() {
         System.out.println("User is attempting to view profile of the logged in user.");
-        return profileOfSpecificUser(userService.getLoggedInUser().getUserId());
+        return profileOfSpecificUser(userService.getLoggedInUser().getUserId(), null);
     }
 
     /**
@@ -52,27 +65,36 @@ public class ProfileController {
      * This serves the webpage that shows posts of a speific user given by userId.
      * See comments in PeopleController.java in followUnfollowUser function regarding 
      * how path variables work.
+     * The optional cursor parameter selects the next page of posts.
      */
     @GetMapping("/{userId}")
-    public ModelAndView profileOfSpecificUser(@PathVariable("userId") String userId) {
+    public ModelAndView profileOfSpecificUser(@PathVariable("userId") String userId,
+            @RequestParam(name = "cursor", required = false) String cursor) {
         System.out.println("User is attempting to view profile: " + userId);
         
         // See notes on ModelAndView in BookmarksController.java.
         ModelAndView mv = new ModelAndView("posts_page");
 
-        // Following line populates sample data.
-        // You should replace it with actual data from the database.
-        List<Post> posts = Utility.createSamplePostsListWithoutComments();
+        List<Post> posts = new ArrayList<>();
+        try {
+            String loggedInUserId = userService.getLoggedInUser().getUserId();
+            PostPage page = postService.getUserPostsPage(userId, PostKey.decode(cursor),
+                    PostService.PAGE_SIZE);
+            posts = postHydrationService.hydrate(loggedInUserId, page.getPostIds());
+            if (page.hasNext()) {
+                mv.addObject("nextPageUrl", "/profile/" + userId + "?cursor="
+                        + page.getNextCursor().encode());
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            // Show the error message to the user.
+            mv.addObject("errorMessage", "Failed to load the posts. Please try again.");
+        }
         mv.addObject("posts", posts);
 
-        // If an error occured, you can set the following property with the
-        // error message to show the error message to the user.
-        // String errorMessage = "Some error occured!";
-        // mv.addObject("errorMessage", errorMessage);
-
-        // Enable the following line if you want to show no content message.
-        // Do that if your content list is empty.
-        // mv.addObject("isNoContent", true);
+        // Show the no content message if there are no posts.
+        if (posts.isEmpty()) {
+            mv.addObject("isNoContent", true);
+        }
         
         return mv;
     }
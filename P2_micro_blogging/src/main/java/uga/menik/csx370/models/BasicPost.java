@@ -5,6 +5,8 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 */
 package uga.menik.csx370.models;
 
+import java.util.Objects;
+
 /**
  * Represents the basic structure of a post in the micro blogging platform.
  * This class serves as a base for both posts and comments.
@@ -81,4 +83,16 @@ public class BasicPost {
     public User getUser() {
         return user;
     }
+
+    /**
+     * Returns a version key of the post body.
+     * The key changes whenever anything shown in the body changes, so a
+     * rendered body can be cached under it.
+     *
+     * @return the post ID followed by a hash of the shown fields
+     */
+    public String getRenderKey() {
+        return postId + ":" + Objects.hash(content, postDate, user.getUserId(),
+                user.getFirstName(), user.getLastName(), user.getProfileImagePath());
+    }
 }
@@ -0,0 +1,108 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.models;
+
+import java.sql.Timestamp;
+
+/**
+ * Identifies the position of a comment in the oldest first listing of
+ * the comments of a post.
+ * Comments are ordered by their creation time and ties are broken by the
+ * comment id. A CommentKey is the keyset pagination cursor of comment
+ * pages: the next page contains the comments that come after the key of
+ * the last comment of the current page.
+ */
+public class CommentKey {
+
+    /**
+     * Creation time of the comment in seconds since the epoch.
+     */
+    private final long createdAt;
+
+    /**
+     * Unique identifier of the comment.
+     */
+    private final int commentId;
+
+    /**
+     * Constructs a CommentKey with specified details.
+     *
+     * @param createdAt the creation time of the comment in epoch seconds
+     * @param commentId the unique identifier of the comment
+     */
+    public CommentKey(long createdAt, int commentId) {
+        this.createdAt = createdAt;
+        this.commentId = commentId;
+    }
+
+    /**
+     * Constructs a CommentKey from a database timestamp and a comment id.
+     *
+     * @param createdAt the creation time of the comment
+     * @param commentId the unique identifier of the comment
+     */
+    public CommentKey(Timestamp createdAt, int commentId) {
+        this(createdAt.getTime() / 1000, commentId);
+    }
+
+    /**
+     * Returns the creation time of the comment as a database timestamp.
+     *
+     * @return the creation time as a timestamp
+     */
+    public Timestamp getCreatedAtTimestamp() {
+        return new Timestamp(createdAt * 1000);
+    }
+
+    /**
+     * Returns the comment ID.
+     *
+     * @return the comment ID
+     */
+    public int getCommentId() {
+        return commentId;
+    }
+
+    /**
+     * Returns the key as a URL safe cursor string.
+     *
+     * @return the cursor string
+     */
+    public String encode() {
+        return createdAt + "_" + commentId;
+    }
+
+    /**
+     * Parses a cursor string created with encode.
+     * Returns null if the cursor is null or empty which means the first page.
+     *
+     * @param cursor the cursor string
+     * @return the key or null
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static CommentKey decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        int separator = cursor.indexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        return new CommentKey(Long.parseLong(cursor.substring(0, separator)),
+                Integer.parseInt(cursor.substring(separator + 1)));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CommentKey key && key.createdAt == createdAt
+                && key.commentId == commentId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(createdAt) * 31 + commentId;
+    }
+}
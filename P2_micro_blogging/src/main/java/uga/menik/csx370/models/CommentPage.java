@@ -0,0 +1,65 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.models;
+
+import java.util.List;
+
+/**
+ * Represents one page of the comments of a post.
+ * Comments are ordered oldest first by their creation time with ties
+ * broken by the comment id. The cursor is the CommentKey of the last
+ * comment on the page.
+ */
+public class CommentPage {
+
+    /**
+     * Comments on this page, oldest first.
+     */
+    private final List<Comment> comments;
+
+    /**
+     * Key of the last comment on this page or null if this is the last page.
+     */
+    private final CommentKey nextCursor;
+
+    /**
+     * Constructs a CommentPage with specified details.
+     *
+     * @param comments   the comments on this page
+     * @param nextCursor the cursor of the next page or null
+     */
+    public CommentPage(List<Comment> comments, CommentKey nextCursor) {
+        this.comments = comments;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the comments on this page.
+     *
+     * @return the comments
+     */
+    public List<Comment> getComments() {
+        return comments;
+    }
+
+    /**
+     * Returns the cursor of the next page.
+     *
+     * @return the next cursor or null if this is the last page
+     */
+    public CommentKey getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Returns whether there is a next page.
+     *
+     * @return true if there is a next page, false otherwise
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
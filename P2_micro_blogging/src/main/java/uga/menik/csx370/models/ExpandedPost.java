@@ -5,18 +5,32 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 */
 package uga.menik.csx370.models;
 
-import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Represents a post in its expanded form within the micro blogging platform.
  * An ExpandedPost includes comments.
+ * Only the first page of comments is held. Later pages are loaded
+ * separately using the next comments cursor.
  */
 public class ExpandedPost extends Post {
 
     /**
-     * A list of comments associated with the post.
+     * The comments associated with the post.
      */
-    private final List<Comment> comments;
+    private final Iterable<Comment> comments;
+
+    /**
+     * Supplies the cursor of the next page of comments or null if all are
+     * shown. Streamed comments only know it after they were iterated.
+     */
+    private final Supplier<String> nextCommentsCursor;
+
+    /**
+     * Supplies the message shown when not all comments of the first page
+     * could be read, or null.
+     */
+    private final Supplier<String> commentsErrorMessage;
 
     /**
      * Constructs an ExpandedPost with specified details including a list of comments.
@@ -29,20 +43,80 @@ public class ExpandedPost extends Post {
      * @param commentsCount the number of comments made on the post
      * @param isHearted     indicates whether the post is hearted by the current user
      * @param isBookmarked  indicates whether the post is bookmarked by the current user
-     * @param comments      the list of comments made on the post
+     * @param comments      the comments made on the post
+     */
+    public ExpandedPost(String postId, String content, String postDate, User user, int heartsCount, int commentsCount, boolean isHearted, boolean isBookmarked, Iterable<Comment> comments) {
+        this(postId, content, postDate, user, heartsCount, commentsCount, isHearted, isBookmarked, comments, (String) null);
+    }
+
+    /**
+     * Constructs an ExpandedPost that shows only the first page of its comments.
+     *
+     * @param postId             the unique identifier of the post
+     * @param content            the text content of the post
+     * @param postDate           the creation date of the post
+     * @param user               the user who created the post
+     * @param heartsCount        the number of hearts (likes) the post has received
+     * @param commentsCount      the number of comments made on the post
+     * @param isHearted          indicates whether the post is hearted by the current user
+     * @param isBookmarked       indicates whether the post is bookmarked by the current user
+     * @param comments           the first page of comments made on the post
+     * @param nextCommentsCursor the cursor of the next page of comments or null
+     */
+    public ExpandedPost(String postId, String content, String postDate, User user, int heartsCount, int commentsCount, boolean isHearted, boolean isBookmarked, Iterable<Comment> comments, String nextCommentsCursor) {
+        this(postId, content, postDate, user, heartsCount, commentsCount, isHearted, isBookmarked, comments, () -> nextCommentsCursor, () -> null);
+    }
+
+    /**
+     * Constructs an ExpandedPost whose first page of comments is read while
+     * it is rendered.
+     *
+     * @param postId             the unique identifier of the post
+     * @param content            the text content of the post
+     * @param postDate           the creation date of the post
+     * @param user               the user who created the post
+     * @param heartsCount        the number of hearts (likes) the post has received
+     * @param commentsCount      the number of comments made on the post
+     * @param isHearted          indicates whether the post is hearted by the current user
+     * @param isBookmarked       indicates whether the post is bookmarked by the current user
+     * @param comments           the first page of comments made on the post
+     * @param nextCommentsCursor supplies the cursor of the next page of comments or null
+     *                           once the comments were iterated
+     * @param commentsErrorMessage supplies the message shown when reading the comments
+     *                           failed or null once the comments were iterated
      */
-    public ExpandedPost(String postId, String content, String postDate, User user, int heartsCount, int commentsCount, boolean isHearted, boolean isBookmarked, List<Comment> comments) {
+    public ExpandedPost(String postId, String content, String postDate, User user, int heartsCount, int commentsCount, boolean isHearted, boolean isBookmarked, Iterable<Comment> comments, Supplier<String> nextCommentsCursor, Supplier<String> commentsErrorMessage) {
         super(postId, content, postDate, user, heartsCount, commentsCount, isHearted, isBookmarked);
         this.comments = comments;
+        this.nextCommentsCursor = nextCommentsCursor;
+        this.commentsErrorMessage = commentsErrorMessage;
         this.isShowComents = true;
     }
 
     /**
-     * Returns an unmodifiable view of the comments list, to prevent external modifications.
+     * Returns the comments. They are not copied on every call.
+     *
+     * @return the comments made on the post
+     */
+    public Iterable<Comment> getComments() {
+        return comments;
+    }
+
+    /**
+     * Returns the cursor of the next page of comments.
+     *
+     * @return the cursor or null if all comments are shown
+     */
+    public String getNextCommentsCursor() {
+        return nextCommentsCursor.get();
+    }
+
+    /**
+     * Returns the message shown when not all comments could be read.
      *
-     * @return an unmodifiable list of comments
+     * @return the message or null if all comments were read
      */
-    public List<Comment> getComments() {
-        return List.copyOf(comments);
+    public String getCommentsErrorMessage() {
+        return commentsErrorMessage.get();
     }
 }
@@ -0,0 +1,140 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.models;
+
+import java.sql.Timestamp;
+
+/**
+ * Identifies the position of a post in a newest first listing.
+ * Posts are ordered by their creation time and ties are broken by the
+ * post id. A PostKey is used as the keyset pagination cursor of all post
+ * listing pages: the next page contains the posts that come after the
+ * key of the last post of the current page.
+ */
+public class PostKey implements Comparable<PostKey> {
+
+    /**
+     * Creation time of the post in seconds since the epoch.
+     */
+    private final long createdAt;
+
+    /**
+     * Unique identifier of the post.
+     */
+    private final int postId;
+
+    /**
+     * Constructs a PostKey with specified details.
+     *
+     * @param createdAt the creation time of the post in epoch seconds
+     * @param postId    the unique identifier of the post
+     */
+    public PostKey(long createdAt, int postId) {
+        this.createdAt = createdAt;
+        this.postId = postId;
+    }
+
+    /**
+     * Constructs a PostKey from a database timestamp and a post id.
+     *
+     * @param createdAt the creation time of the post
+     * @param postId    the unique identifier of the post
+     */
+    public PostKey(Timestamp createdAt, int postId) {
+        this(createdAt.getTime() / 1000, postId);
+    }
+
+    /**
+     * Returns the creation time of the post in epoch seconds.
+     *
+     * @return the creation time in epoch seconds
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns the creation time of the post as a database timestamp.
+     *
+     * @return the creation time as a timestamp
+     */
+    public Timestamp getCreatedAtTimestamp() {
+        return new Timestamp(createdAt * 1000);
+    }
+
+    /**
+     * Returns the post ID.
+     *
+     * @return the post ID
+     */
+    public String getPostId() {
+        return String.valueOf(postId);
+    }
+
+    /**
+     * Packs the key into a single long that sorts the same way as the key.
+     * The creation time takes the high bits and the post id the low 31 bits.
+     *
+     * @return the packed key
+     */
+    public long toLong() {
+        return (createdAt << 31) | postId;
+    }
+
+    /**
+     * Unpacks a key created with toLong.
+     *
+     * @param packed the packed key
+     * @return the key
+     */
+    public static PostKey fromLong(long packed) {
+        return new PostKey(packed >>> 31, (int) (packed & Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns the key as a URL safe cursor string.
+     *
+     * @return the cursor string
+     */
+    public String encode() {
+        return createdAt + "_" + postId;
+    }
+
+    /**
+     * Parses a cursor string created with encode.
+     * Returns null if the cursor is null or empty which means the first page.
+     *
+     * @param cursor the cursor string
+     * @return the key or null
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static PostKey decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        int separator = cursor.indexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        return new PostKey(Long.parseLong(cursor.substring(0, separator)),
+                Integer.parseInt(cursor.substring(separator + 1)));
+    }
+
+    @Override
+    public int compareTo(PostKey other) {
+        return Long.compare(toLong(), other.toLong());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PostKey && ((PostKey) other).toLong() == toLong();
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(toLong());
+    }
+}
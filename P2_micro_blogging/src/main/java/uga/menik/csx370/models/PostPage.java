@@ -0,0 +1,99 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.models;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Represents one page of a post listing.
+ * Holds the ids of the posts on the page, newest first, and the cursor of
+ * the next page if there is one.
+ */
+public class PostPage {
+
+    /**
+     * Ids of the posts on this page.
+     */
+    private final List<String> postIds;
+
+    /**
+     * Key of the last post on this page or null if this is the last page.
+     */
+    private final PostKey nextCursor;
+
+    /**
+     * Constructs a PostPage with specified details.
+     *
+     * @param postIds    the ids of the posts on this page
+     * @param nextCursor the cursor of the next page or null
+     */
+    public PostPage(List<String> postIds, PostKey nextCursor) {
+        this.postIds = postIds;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Builds a page from the keys of up to limit + 1 posts.
+     * The extra key only tells that there is a next page.
+     *
+     * @param keys  the keys of the posts, newest first
+     * @param limit the page size
+     * @return the page
+     */
+    public static PostPage fromKeys(List<PostKey> keys, int limit) {
+        List<PostKey> onPage = keys.size() > limit ? keys.subList(0, limit) : keys;
+        List<String> postIds = onPage.stream().map(PostKey::getPostId).toList();
+        PostKey nextCursor = keys.size() > limit ? onPage.get(onPage.size() - 1) : null;
+        return new PostPage(postIds, nextCursor);
+    }
+
+    /**
+     * Builds a page from the keys several shards returned for the same
+     * listing. Each shard returns up to limit + 1 keys newest first, so
+     * the newest limit + 1 keys of all shards are among them.
+     *
+     * @param shardKeys the keys returned by each shard
+     * @param limit     the page size
+     * @return the page
+     */
+    public static PostPage merge(List<List<PostKey>> shardKeys, int limit) {
+        List<PostKey> keys = new ArrayList<>();
+        for (List<PostKey> list : shardKeys) {
+            keys.addAll(list);
+        }
+        keys.sort(Comparator.reverseOrder());
+        return fromKeys(keys, limit);
+    }
+
+    /**
+     * Returns the ids of the posts on this page.
+     *
+     * @return the post ids
+     */
+    public List<String> getPostIds() {
+        return postIds;
+    }
+
+    /**
+     * Returns the cursor of the next page.
+     *
+     * @return the next cursor or null if this is the last page
+     */
+    public PostKey getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Returns whether there is a next page.
+     *
+     * @return true if there is a next page, false otherwise
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
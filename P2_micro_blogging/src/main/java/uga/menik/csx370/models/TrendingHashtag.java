@@ -0,0 +1,52 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.models;
+
+/**
+ * Represents a hashtag in the trending panel with its approximate number
+ * of uses in a time window.
+ */
+public class TrendingHashtag {
+
+    /**
+     * The hashtag without the leading #.
+     */
+    private final String tag;
+
+    /**
+     * Approximate number of posts using the tag in the window.
+     */
+    private final int count;
+
+    /**
+     * Constructs a TrendingHashtag with specified details.
+     *
+     * @param tag   the hashtag without the leading #
+     * @param count the approximate number of uses in the window
+     */
+    public TrendingHashtag(String tag, int count) {
+        this.tag = tag;
+        this.count = count;
+    }
+
+    /**
+     * Returns the hashtag without the leading #.
+     *
+     * @return the hashtag
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Returns the approximate number of uses in the window.
+     *
+     * @return the number of uses
+     */
+    public int getCount() {
+        return count;
+    }
+}
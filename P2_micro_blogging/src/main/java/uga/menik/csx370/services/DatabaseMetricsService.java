@@ -0,0 +1,102 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.components.PoolMetrics;
+
+/**
+ * This service reports how the database connections are used.
+ * Pool metrics come from PoolMetrics. Statement metrics come from the
+ * global MySQL status counters of the primary: Com_stmt_prepare and
+ * Com_stmt_execute count server side prepares and executes, so
+ * serverStatementReuseRate is the share of executes on the whole server
+ * that reused an earlier prepare. Handler_commit counts committed
+ * transactions, including autocommit statements and reads, and
+ * Innodb_os_log_fsyncs counts the redo log flushes the writing
+ * transactions waited for.
+ * The counters are global, so they include every pool of this
+ * application on the primary, other clients of the same server and
+ * statements that are not prepared on the server at all. They are not
+ * the hit rate of the statement cache of a pool and only show a trend.
+ */
+@Service
+public class DatabaseMetricsService {
+
+    // dataSource enables talking to the database.
+    private final DataSource dataSource;
+    // poolMetrics tracks the connection pools.
+    private final PoolMetrics poolMetrics;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public DatabaseMetricsService(DataSource dataSource, PoolMetrics poolMetrics) {
+        this.dataSource = dataSource;
+        this.poolMetrics = poolMetrics;
+    }
+
+    /**
+     * Returns the pool metrics and the server wide statement metrics.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pools", poolMetrics.getStats());
+        try {
+            stats.put("statements", queryStatementStats());
+        } catch (SQLException e) {
+            stats.put("statements", "Failed to read: " + e.getMessage());
+        }
+        return stats;
+    }
+
+    private Map<String, Object> queryStatementStats() throws SQLException {
+        final String sql = "show global status where Variable_name in "
+                + "('Com_stmt_prepare', 'Com_stmt_execute', 'Handler_commit', "
+                + "'Innodb_os_log_fsyncs')";
+        long prepares = 0;
+        long executes = 0;
+        long commits = 0;
+        long logFlushes = 0;
+        try (Connection conn = dataSource.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql);
+                ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (rs.getString(1).equalsIgnoreCase("Com_stmt_prepare")) {
+                    prepares = rs.getLong(2);
+                } else if (rs.getString(1).equalsIgnoreCase("Com_stmt_execute")) {
+                    executes = rs.getLong(2);
+                } else if (rs.getString(1).equalsIgnoreCase("Handler_commit")) {
+                    commits = rs.getLong(2);
+                } else {
+                    logFlushes = rs.getLong(2);
+                }
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("prepares", prepares);
+        stats.put("executes", executes);
+        stats.put("serverStatementReuseRate", executes == 0 ? 0.0
+                : Math.max(0.0, 1.0 - (double) prepares / executes));
+        stats.put("commits", commits);
+        stats.put("logFlushes", logFlushes);
+        return stats;
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.services.PostCacheService.CachedPost;
+
+/**
+ * This service keeps change counters of the post feeds in memory so the
+ * JSON feed API (see FeedApiController) can tell a client that a feed did
+ * not change without loading it.
+ *
+ * Counters are kept for
+ * - every author: counts up when they post and when a post of theirs
+ *   gets a heart or comment, since both change what a feed shows,
+ * - every hashtag: counts up when a post with the tag is created,
+ * - every viewer: counts up when they heart, bookmark or follow, since
+ *   that changes their flags and the authors in their home feed,
+ * - all post activity: counts up on every heart or comment. Hashtag
+ *   feeds use it because the tags of a post are not kept in memory,
+ * - everything: counts up when activity happens on a post whose author
+ *   is not known without a query and when reconciliation corrects
+ *   counts.
+ *
+ * Callers record a change after everything it changes is visible, so a
+ * client that sees the new version also sees the new feed.
+ *
+ * The version of a feed combines the counters of everything it shows.
+ * Counters only count up, so as long as the viewer counter and so the
+ * set of followed authors stays the same the sum of the author counters
+ * of a home feed never repeats. An ETag holds a random number picked at
+ * startup because the counters start over after a restart.
+ *
+ * The counters are not shared between nodes. A change made through one
+ * node is not counted on the others, so their ETags are only right while
+ * a user's feed requests all go to the same node. FeedApiController
+ * sends no ETags in token login mode, where any node serves any request.
+ */
+@Service
+public class FeedVersionService {
+
+    // Tells this instance's ETags apart from other runs and instances.
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final Map<String, AtomicLong> authorCounters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> tagCounters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> viewerCounters = new ConcurrentHashMap<>();
+    private final AtomicLong activityCounter = new AtomicLong();
+    private final AtomicLong globalCounter = new AtomicLong();
+
+    // postCacheService knows the authors of recently shown posts.
+    private final PostCacheService postCacheService;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public FeedVersionService(PostCacheService postCacheService) {
+        this.postCacheService = postCacheService;
+    }
+
+    /**
+     * Records that the author created a post with the given tags.
+     */
+    public void postCreated(String authorId, List<String> tags) {
+        increment(authorCounters, authorId);
+        for (String tag : tags) {
+            increment(tagCounters, tag);
+        }
+    }
+
+    /**
+     * Records that the hearts or comments count of the post changed.
+     */
+    public void postActivity(String postId) {
+        activityCounter.incrementAndGet();
+        CachedPost post = postCacheService.getPost(postId);
+        if (post != null) {
+            increment(authorCounters, post.getUser().getUserId());
+        } else {
+            globalCounter.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that reconciliation corrected the counts of some posts.
+     */
+    public void countsReconciled() {
+        globalCounter.incrementAndGet();
+    }
+
+    /**
+     * Records that the viewer changed a heart, bookmark or follow.
+     */
+    public void viewerChanged(String userId) {
+        increment(viewerCounters, userId);
+    }
+
+    /**
+     * Returns the ETag of the home feed of the user, who follows the users
+     * with followeeIds.
+     */
+    public String getHomeETag(String userId, int[] followeeIds) {
+        long authors = get(authorCounters, userId);
+        for (int followeeId : followeeIds) {
+            authors += get(authorCounters, String.valueOf(followeeId));
+        }
+        return eTag("home", get(viewerCounters, userId), authors);
+    }
+
+    /**
+     * Returns the ETag of the posts of the author as seen by the viewer.
+     */
+    public String getProfileETag(String viewerId, String authorId) {
+        return eTag("profile", get(viewerCounters, viewerId), get(authorCounters, authorId));
+    }
+
+    /**
+     * Returns the ETag of a hashtag search for the tags as seen by the
+     * viewer.
+     */
+    public String getHashtagETag(String viewerId, List<String> tags) {
+        long tagVersions = activityCounter.get();
+        for (String tag : tags) {
+            tagVersions += get(tagCounters, tag);
+        }
+        return eTag("tags", get(viewerCounters, viewerId), tagVersions);
+    }
+
+    private String eTag(String feed, long viewerVersion, long feedVersion) {
+        return "\"" + feed + "-" + epoch + "-" + Long.toHexString(globalCounter.get()) + "-"
+                + Long.toHexString(viewerVersion) + "-" + Long.toHexString(feedVersion) + "\"";
+    }
+
+    private static void increment(Map<String, AtomicLong> counters, String key) {
+        counters.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static long get(Map<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        return counter == null ? 0 : counter.get();
+    }
+
+}
@@ -0,0 +1,283 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+
+/**
+ * This service keeps an in-memory inverted index from each hashtag to the
+ * posts that contain it.
+ * Each posting list is a sorted array of packed post keys (see
+ * PostKey.toLong), so posts come out ordered by (created_at, postId) and
+ * pages use the same cursor as every other post listing.
+ * A search for several tags walks the smallest posting list from the
+ * newest post backwards and keeps the posts that are found in all other
+ * lists by binary search.
+ *
+ * The index is built from post_hashtags when the application starts and
+ * is updated as posts are created. Until the build finishes isReady
+ * returns false and callers should query the database instead.
+ * Tags come from the main database and their posts from every shard.
+ */
+@Service
+public class HashtagIndexService {
+
+    // dataSource enables talking to the main database.
+    private final DataSource dataSource;
+    // shardRouter knows the databases that hold posts.
+    private final ShardRouter shardRouter;
+    // Posting lists by tag.
+    private final Map<String, PostingList> index = new HashMap<>();
+    // Searches share the index. Updates take it exclusively.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // True once the index has been built.
+    private volatile boolean ready = false;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public HashtagIndexService(DataSource dataSource, ShardRouter shardRouter) {
+        this.dataSource = dataSource;
+        this.shardRouter = shardRouter;
+    }
+
+    /**
+     * Builds the index when the application has started.
+     * If the database cannot be read searches keep using the database.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAtStartup() {
+        try {
+            rebuild();
+        } catch (SQLException e) {
+            System.out.println("Failed to build the hashtag index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the index from the post_hashtags tables of all shards.
+     * Rows of each shard are streamed in key order so most inserts are
+     * appends. The lists of the shards are then merged.
+     */
+    public void rebuild() throws SQLException {
+        Map<Integer, String> tags = new HashMap<>();
+        try (Connection conn = dataSource.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(
+                        "select hashtagId, tag from hashtags");
+                ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                tags.put(rs.getInt("hashtagId"), rs.getString("tag"));
+            }
+        }
+
+        final String sql = "select ph.hashtag_id, p.postId, p.created_at from post_hashtags ph "
+                + "join posts p on p.postId = ph.post_id "
+                + "order by p.created_at, p.postId";
+        Map<String, PostingList> built = new HashMap<>();
+        for (Shard shard : shardRouter.getShards()) {
+            Map<String, PostingList> shardBuilt = new HashMap<>();
+            try (Connection conn = shard.getReadDataSource().getConnection();
+                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                // Stream the rows instead of loading them all at once.
+                pstmt.setFetchSize(Integer.MIN_VALUE);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String tag = tags.get(rs.getInt("hashtag_id"));
+                        if (tag == null) {
+                            continue;
+                        }
+                        long key = new PostKey(rs.getTimestamp("created_at"), rs.getInt("postId"))
+                                .toLong();
+                        shardBuilt.computeIfAbsent(tag, t -> new PostingList()).add(key);
+                    }
+                }
+            }
+            for (Map.Entry<String, PostingList> entry : shardBuilt.entrySet()) {
+                built.merge(entry.getKey(), entry.getValue(), PostingList::merge);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            // Keep posts indexed while the build was running.
+            for (Map.Entry<String, PostingList> entry : index.entrySet()) {
+                PostingList list = built.computeIfAbsent(entry.getKey(), tag -> new PostingList());
+                entry.getValue().forEach(list::add);
+            }
+            index.clear();
+            index.putAll(built);
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true once the index has been built.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Adds a post to the posting lists of its tags.
+     * Tags are given without the leading #.
+     */
+    public void indexPost(PostKey post, Collection<String> tags) {
+        long key = post.toLong();
+        lock.writeLock().lock();
+        try {
+            for (String tag : tags) {
+                index.computeIfAbsent(tag, t -> new PostingList()).add(key);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a page of the posts that contain all of the given tags,
+     * newest first. Tags are given without the leading #.
+     */
+    public PostPage search(List<String> tags, PostKey cursor, int limit) {
+        List<PostKey> keys = new ArrayList<>();
+        if (tags.isEmpty()) {
+            return PostPage.fromKeys(keys, limit);
+        }
+
+        lock.readLock().lock();
+        try {
+            List<PostingList> lists = new ArrayList<>();
+            for (String tag : tags) {
+                PostingList list = index.get(tag);
+                if (list == null) {
+                    // Some tag has no posts at all.
+                    return PostPage.fromKeys(keys, limit);
+                }
+                lists.add(list);
+            }
+            // Start with the smallest list so the fewest candidates are checked.
+            lists.sort(Comparator.comparingInt(PostingList::size));
+            PostingList smallest = lists.get(0);
+
+            long before = cursor == null ? Long.MAX_VALUE : cursor.toLong();
+            // Read one more than the limit to know if there is a next page.
+            for (int i = smallest.indexBelow(before); i >= 0 && keys.size() <= limit; i--) {
+                long candidate = smallest.get(i);
+                boolean inAll = true;
+                for (int j = 1; j < lists.size() && inAll; j++) {
+                    inAll = lists.get(j).contains(candidate);
+                }
+                if (inAll) {
+                    keys.add(PostKey.fromLong(candidate));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return PostPage.fromKeys(keys, limit);
+    }
+
+    /**
+     * A growable sorted array of packed post keys in ascending order.
+     * Access is guarded by the lock of the service.
+     */
+    private static class PostingList {
+
+        private long[] keys = new long[4];
+        private int size;
+
+        void add(long key) {
+            // New posts are the newest so they usually go at the end.
+            int index = size;
+            if (size > 0 && keys[size - 1] >= key) {
+                index = Arrays.binarySearch(keys, 0, size, key);
+                if (index >= 0) {
+                    return;
+                }
+                index = -index - 1;
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            keys[index] = key;
+            size++;
+        }
+
+        boolean contains(long key) {
+            return Arrays.binarySearch(keys, 0, size, key) >= 0;
+        }
+
+        long get(int index) {
+            return keys[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Index of the last key smaller than key or -1.
+        int indexBelow(long key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            return (index >= 0 ? index : -index - 1) - 1;
+        }
+
+        void forEach(LongConsumer action) {
+            for (int i = 0; i < size; i++) {
+                action.accept(keys[i]);
+            }
+        }
+
+        // Merges two lists into a new one. Keys in both are kept once.
+        static PostingList merge(PostingList a, PostingList b) {
+            PostingList merged = new PostingList();
+            merged.keys = new long[Math.max(a.size + b.size, 4)];
+            int i = 0;
+            int j = 0;
+            while (i < a.size || j < b.size) {
+                long next;
+                if (j >= b.size || (i < a.size && a.keys[i] <= b.keys[j])) {
+                    next = a.keys[i++];
+                } else {
+                    next = b.keys[j++];
+                }
+                if (merged.size == 0 || merged.keys[merged.size - 1] != next) {
+                    merged.keys[merged.size++] = next;
+                }
+            }
+            return merged;
+        }
+    }
+
+}
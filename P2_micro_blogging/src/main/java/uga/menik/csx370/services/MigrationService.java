@@ -0,0 +1,377 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import uga.menik.csx370.components.ReadRoutingDataSource;
+
+/**
+ * This service brings the schema up to date when the application starts.
+ * database_setup.sql creates the base schema. Every later change is a
+ * script in src/main/resources/db/migration named V<version>__<name>.sql.
+ * Scripts that have not been applied run in version order and are
+ * recorded in the schema_migrations table with a checksum of their text.
+ * A recorded script whose text has changed stops the start, since the
+ * database no longer matches what the script says.
+ *
+ * Migrations run while the beans are created, so the web server only
+ * starts accepting requests after the schema is current. A MySQL lock
+ * keeps two instances that start together from running the same script.
+ *
+ * Changes to large tables must not lock them:
+ * - DDL should name ALGORITHM=INSTANT or ALGORITHM=INPLACE with LOCK=NONE
+ *   so MySQL refuses the statement instead of copying the table.
+ * - Filling a new column is a backfill. A statement that follows a
+ *   "-- @backfill <table> <key column>" line is run once per range of the
+ *   key with two parameters, the exclusive start and the inclusive end of
+ *   the range. Each range commits on its own and the runner waits between
+ *   ranges to stay under backfillRowsPerSecond and while any replica lags
+ *   more than maxReplicaLagSeconds. Backfills must be safe to run again
+ *   since a script that stops halfway is run again from the start.
+ *
+ * For example, a column counting the bookmarks of a post:
+ *
+ *   ALTER TABLE posts ADD COLUMN bookmarks_count INT NOT NULL DEFAULT 0,
+ *       ALGORITHM=INSTANT;
+ *
+ *   -- @backfill posts postId
+ *   UPDATE posts p SET p.bookmarks_count = (SELECT count(*) FROM bookmarks b
+ *       WHERE b.post_id = p.postId) WHERE p.postId > ? AND p.postId <= ?;
+ */
+@Service
+public class MigrationService {
+
+    // Script file names. The version orders the scripts.
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    // Marks the next statement as a backfill over a table and key column.
+    private static final Pattern BACKFILL = Pattern.compile("--\\s*@backfill\\s+(\\w+)\\s+(\\w+)\\s*");
+    // MySQL errors for an index or column that already exists.
+    private static final int ER_DUP_FIELDNAME = 1060;
+    private static final int ER_DUP_KEYNAME = 1061;
+
+    // dataSource enables talking to the database.
+    private final DataSource dataSource;
+    // readDataSource is asked for the replicas whose lag throttles backfills.
+    private final DataSource readDataSource;
+    private final boolean enabled;
+    // Width of one backfill range in key values.
+    private final int backfillBatchSize;
+    private final int backfillRowsPerSecond;
+    private final int maxReplicaLagSeconds;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public MigrationService(DataSource dataSource,
+            @Qualifier("readDataSource") DataSource readDataSource,
+            @Value("${app.migrations.enabled:true}") boolean enabled,
+            @Value("${app.migrations.backfill-batch-size:1000}") int backfillBatchSize,
+            @Value("${app.migrations.backfill-rows-per-second:5000}") int backfillRowsPerSecond,
+            @Value("${app.migrations.max-replica-lag-seconds:5}") int maxReplicaLagSeconds) {
+        this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+        this.enabled = enabled;
+        this.backfillBatchSize = backfillBatchSize;
+        this.backfillRowsPerSecond = backfillRowsPerSecond;
+        this.maxReplicaLagSeconds = maxReplicaLagSeconds;
+    }
+
+    /**
+     * Applies the scripts that have not been applied yet.
+     * Any failure stops the application from starting.
+     */
+    @PostConstruct
+    public void migrate() throws IOException, SQLException, InterruptedException {
+        if (!enabled) {
+            return;
+        }
+
+        Map<Integer, Script> scripts = loadScripts();
+        try (Connection conn = dataSource.getConnection()) {
+            lock(conn);
+            try {
+                createHistoryTable(conn);
+                Map<Integer, String> applied = readAppliedChecksums(conn);
+                for (Script script : scripts.values()) {
+                    String checksum = applied.get(script.version);
+                    if (checksum == null) {
+                        apply(conn, script);
+                    } else if (!checksum.equals(script.checksum)) {
+                        throw new IllegalStateException("Migration V" + script.version
+                                + " was changed after it was applied. Add a new script instead.");
+                    }
+                }
+            } finally {
+                unlock(conn);
+            }
+        }
+    }
+
+    /**
+     * Reads the migration scripts from the classpath ordered by version.
+     */
+    private static Map<Integer, Script> loadScripts() throws IOException {
+        Map<Integer, Script> scripts = new TreeMap<>();
+        Resource[] resources = new PathMatchingResourcePatternResolver()
+                .getResources("classpath*:db/migration/V*__*.sql");
+        for (Resource resource : resources) {
+            Matcher matcher = SCRIPT_NAME.matcher(resource.getFilename());
+            if (!matcher.matches()) {
+                throw new IllegalStateException("Bad migration name " + resource.getFilename());
+            }
+            Script script = new Script(Integer.parseInt(matcher.group(1)), matcher.group(2),
+                    resource.getContentAsString(StandardCharsets.UTF_8));
+            if (scripts.put(script.version, script) != null) {
+                throw new IllegalStateException("Two migrations have version " + script.version);
+            }
+        }
+        return scripts;
+    }
+
+    /**
+     * Runs the statements of the script and records it.
+     */
+    private void apply(Connection conn, Script script) throws SQLException, InterruptedException {
+        System.out.println("Applying migration V" + script.version + " " + script.name);
+        long start = System.currentTimeMillis();
+        for (String sql : script.statements()) {
+            Matcher backfill = BACKFILL.matcher(sql.lines().findFirst().orElse(""));
+            if (backfill.matches()) {
+                backfill(conn, backfill.group(1), backfill.group(2),
+                        sql.substring(sql.indexOf('\n') + 1));
+            } else {
+                execute(conn, sql);
+            }
+        }
+        long durationMs = System.currentTimeMillis() - start;
+
+        final String sql = "insert into schema_migrations "
+                + "(version, name, checksum, duration_ms) values (?, ?, ?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, script.version);
+            pstmt.setString(2, script.name);
+            pstmt.setString(3, script.checksum);
+            pstmt.setLong(4, durationMs);
+            pstmt.executeUpdate();
+        }
+        System.out.println("Applied migration V" + script.version + " in " + durationMs + " ms");
+    }
+
+    /**
+     * Runs one DDL or data statement.
+     * Indexes and columns that already exist are skipped so scripts that
+     * were applied by hand before they were recorded can be recorded.
+     */
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            if (e.getErrorCode() != ER_DUP_KEYNAME && e.getErrorCode() != ER_DUP_FIELDNAME) {
+                throw e;
+            }
+            System.out.println("Skipping migration statement: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the statement over the key of the table one range at a time.
+     */
+    private void backfill(Connection conn, String table, String keyColumn, String sql)
+            throws SQLException, InterruptedException {
+        long min;
+        long max;
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select coalesce(min(" + keyColumn
+                        + "), 1), coalesce(max(" + keyColumn + "), 0) from " + table)) {
+            rs.next();
+            min = rs.getLong(1);
+            max = rs.getLong(2);
+        }
+
+        long rows = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (long from = min - 1; from < max; from += backfillBatchSize) {
+                waitForReplicas();
+                long start = System.currentTimeMillis();
+                pstmt.setLong(1, from);
+                pstmt.setLong(2, from + backfillBatchSize);
+                int updated = pstmt.executeUpdate();
+                rows += updated;
+
+                // Spread the rows so they are written at the configured rate.
+                long minimumMs = updated * 1000L / backfillRowsPerSecond;
+                long elapsedMs = System.currentTimeMillis() - start;
+                if (elapsedMs < minimumMs) {
+                    Thread.sleep(minimumMs - elapsedMs);
+                }
+            }
+        }
+        System.out.println("Backfilled " + rows + " rows of " + table);
+    }
+
+    /**
+     * Waits while any replica is further behind than maxReplicaLagSeconds.
+     * A replica that is not replicating reports no lag and is not waited on.
+     * A read pool that does not route to replicas has none to wait for.
+     */
+    private void waitForReplicas() throws SQLException, InterruptedException {
+        if (!readDataSource.isWrapperFor(ReadRoutingDataSource.class)) {
+            return;
+        }
+        ReadRoutingDataSource router = readDataSource.unwrap(ReadRoutingDataSource.class);
+        for (DataSource replica : router.getReplicas()) {
+            long lag;
+            while ((lag = readReplicaLag(replica)) > maxReplicaLagSeconds) {
+                System.out.println("Backfill waiting for a replica " + lag + " s behind");
+                Thread.sleep(1000);
+            }
+        }
+    }
+
+    /**
+     * Returns how many seconds the replica is behind the primary, or 0 for
+     * a server that is not a replica.
+     */
+    private static long readReplicaLag(DataSource replica) throws SQLException {
+        try (Connection conn = replica.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("show replica status")) {
+            if (!rs.next()) {
+                return 0;
+            }
+            return rs.getLong("Seconds_Behind_Source");
+        }
+    }
+
+    private static void createHistoryTable(Connection conn) throws SQLException {
+        final String sql = "create table if not exists schema_migrations ("
+                + "version int not null, "
+                + "name varchar(255) not null, "
+                + "checksum char(64) not null, "
+                + "applied_at datetime not null default current_timestamp, "
+                + "duration_ms bigint not null, "
+                + "primary key (version))";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static Map<Integer, String> readAppliedChecksums(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select version, checksum from schema_migrations")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Takes the migration lock for this connection, waiting for another
+     * instance that holds it to finish.
+     */
+    private static void lock(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select get_lock('schema_migrations', 600)")) {
+            if (!rs.next() || rs.getInt(1) != 1) {
+                throw new SQLException("Timed out waiting for the migration lock.");
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("select release_lock('schema_migrations')");
+        }
+    }
+
+    /**
+     * A versioned migration script.
+     */
+    private static class Script {
+
+        final int version;
+        final String name;
+        final String text;
+        final String checksum;
+
+        Script(int version, String name, String text) {
+            this.version = version;
+            this.name = name;
+            this.text = text;
+            this.checksum = sha256(text);
+        }
+
+        /**
+         * Splits the script into statements at semicolons that end a line.
+         * Comment lines are dropped except for backfill markers, which stay
+         * as the first line of the statement they belong to.
+         */
+        List<String> statements() {
+            List<String> statements = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            for (String line : text.split("\\R")) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("--") && !BACKFILL.matcher(trimmed).matches()) {
+                    continue;
+                }
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                current.append(trimmed).append('\n');
+                if (trimmed.endsWith(";")) {
+                    String statement = current.toString().trim();
+                    statements.add(statement.substring(0, statement.length() - 1));
+                    current.setLength(0);
+                }
+            }
+            if (!current.toString().isBlank()) {
+                statements.add(current.toString().trim());
+            }
+            return statements;
+        }
+
+        private static String sha256(String text) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+}
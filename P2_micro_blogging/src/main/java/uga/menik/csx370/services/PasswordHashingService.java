@@ -0,0 +1,188 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * This service runs all BCrypt hashing on a small dedicated thread pool.
+ * BCrypt is slow on purpose. Running it on request threads lets a burst
+ * of logins occupy every web server thread and starve page reads. Here at
+ * most poolSize hashes run at once and at most queueSize wait. Any further
+ * request is rejected right away with a RejectedExecutionException that
+ * callers turn into a "try again" message. A request that waited
+ * waitTimeoutMillis without its result gets the same exception, so a full
+ * queue never holds a web server thread for longer than that.
+ *
+ * The BCrypt cost is picked at startup so that one hash takes about
+ * targetHashMillis on the current hardware. Stored hashes with a lower
+ * cost are rehashed after a successful login. Hashes with a higher cost
+ * are kept: nodes on different hardware pick different costs, and
+ * rehashing both ways would change the hash of a user back and forth on
+ * every login that lands on another node.
+ */
+@Service
+public class PasswordHashingService {
+
+    // Lowest and highest cost BCrypt supports.
+    private static final int MIN_BCRYPT_COST = 4;
+    private static final int MAX_BCRYPT_COST = 31;
+
+    // Runs the hashing work.
+    private final ThreadPoolExecutor executor;
+    // Encoder using the calibrated cost.
+    private final BCryptPasswordEncoder passwordEncoder;
+    // The calibrated cost.
+    private final int cost;
+    // Hash compared against when a username does not exist.
+    private final String dummyHash;
+    // Longest time a caller waits for its hashing work.
+    private final long waitTimeoutMillis;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public PasswordHashingService(@Value("${app.password.pool-size:2}") int poolSize,
+            @Value("${app.password.queue-size:32}") int queueSize,
+            @Value("${app.password.target-hash-ms:250}") int targetHashMillis,
+            @Value("${app.password.min-cost:10}") int minCost,
+            @Value("${app.password.wait-timeout-ms:3000}") long waitTimeoutMillis) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "password-hashing-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.cost = calibrateCost(targetHashMillis, Math.max(minCost, MIN_BCRYPT_COST));
+        this.passwordEncoder = new BCryptPasswordEncoder(cost);
+        this.dummyHash = passwordEncoder.encode("dummy password for unknown users");
+        this.waitTimeoutMillis = waitTimeoutMillis;
+    }
+
+    /**
+     * Hashes the password on the hashing pool and waits for the result.
+     * Throws RejectedExecutionException if the pool is full or the result
+     * does not come within waitTimeoutMillis.
+     */
+    public String encode(String password) {
+        return await(executor.submit(() -> passwordEncoder.encode(password)));
+    }
+
+    /**
+     * Hashes the password on the hashing pool without waiting.
+     * Throws RejectedExecutionException if the pool is full.
+     */
+    public CompletableFuture<String> encodeAsync(String password) {
+        return CompletableFuture.supplyAsync(() -> passwordEncoder.encode(password), executor);
+    }
+
+    /**
+     * Checks the password against a stored hash on the hashing pool.
+     * Throws RejectedExecutionException if the pool is full or the result
+     * does not come within waitTimeoutMillis.
+     */
+    public boolean matches(String password, String storedHash) {
+        return await(executor.submit(() -> passwordEncoder.matches(password, storedHash)));
+    }
+
+    /**
+     * Checks the password against a dummy hash of the current cost and
+     * always returns false. Used when the username does not exist so
+     * that the response takes as long as for a wrong password and does
+     * not reveal which usernames exist.
+     */
+    public boolean matchesDummy(String password) {
+        matches(password, dummyHash);
+        return false;
+    }
+
+    /**
+     * Returns true if the stored hash was made with a lower cost than the
+     * calibrated one. See the class comment for why higher costs are kept.
+     */
+    public boolean needsRehash(String storedHash) {
+        // BCrypt hashes look like $2a$10$... where 10 is the cost.
+        if (storedHash == null || storedHash.length() < 7) {
+            return false;
+        }
+        try {
+            return Integer.parseInt(storedHash.substring(4, 6)) < cost;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops the hashing threads when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Finds the highest cost whose hash time stays within the target.
+     * Each cost step doubles the work so one measurement is enough.
+     */
+    private static int calibrateCost(int targetHashMillis, int minCost) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(minCost);
+        // Warm up once so class loading does not count.
+        encoder.encode("calibration");
+        long start = System.nanoTime();
+        encoder.encode("calibration");
+        double millis = Math.max((System.nanoTime() - start) / 1_000_000.0, 0.01);
+
+        int cost = minCost;
+        while (cost < MAX_BCRYPT_COST && millis * 2 <= targetHashMillis) {
+            millis *= 2;
+            cost++;
+        }
+        return cost;
+    }
+
+    /**
+     * Waits for the hashing work and unwraps its result.
+     */
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Drops the work if it has not started yet.
+            future.cancel(true);
+            throw new RejectedExecutionException("Hashing took longer than "
+                    + waitTimeoutMillis + " ms.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new RejectedExecutionException("Interrupted while hashing.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+}
@@ -5,11 +5,16 @@ This is a project developed by Dr. Menik to give the students an opportunity to
 */
 package uga.menik.csx370.services;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import uga.menik.csx370.models.FollowableUser;
+import uga.menik.csx370.services.RecommendationService.Recommendation;
 import uga.menik.csx370.utility.Utility;
 
 /**
@@ -17,27 +22,49 @@ import uga.menik.csx370.utility.Utility;
  */
 @Service
 public class PeopleService {
+
+    // recommendationService keeps the ranked who to follow lists and
+    // loads the names of users.
+    private final RecommendationService recommendationService;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public PeopleService(RecommendationService recommendationService) {
+        this.recommendationService = recommendationService;
+    }
     
     /**
-     * This function should query and return all users that 
-     * are followable. The list should not contain the user 
-     * with id userIdToExclude.
+     * This function returns the people shown on the people page: the
+     * users the current user follows, most recently active first, so they
+     * can be unfollowed, followed by the recommended users, best first.
+     * followeeIds are the sorted ids of the users the current user
+     * follows. PeopleController loads them and the recommendations at the
+     * same time and combines them with this.
      */
-    public List<FollowableUser> getFollowableUsers(String userIdToExclude) {
-        // Write an SQL query to find the users that are not the current user.
-
-        // Run the query with a datasource.
-        // See UserService.java to see how to inject DataSource instance and
-        // use it to run a query.
-
-        // Use the query result to create a list of followable users.
-        // See UserService.java to see how to access rows and their attributes
-        // from the query result.
-        // Check the following createSampleFollowableUserList function to see 
-        // how to create a list of FollowableUsers.
+    public List<FollowableUser> getPeople(List<Recommendation> recommendations,
+            int[] followeeIds) throws SQLException {
+        List<FollowableUser> people = new ArrayList<>();
+        for (Recommendation followed : recommendationService.getUsers(followeeIds)) {
+            people.add(toFollowableUser(followed, true));
+        }
+        for (Recommendation recommendation : recommendations) {
+            // Recommendations leave out followed users, but a list computed
+            // before a follow may still have them.
+            if (Arrays.binarySearch(followeeIds,
+                    Integer.parseInt(recommendation.getUserId())) < 0) {
+                people.add(toFollowableUser(recommendation, false));
+            }
+        }
+        return people;
+    }
 
-        // Replace the following line and return the list you created.
-        return Utility.createSampleFollowableUserList();
+    private static FollowableUser toFollowableUser(Recommendation user, boolean isFollowed) {
+        return new FollowableUser(user.getUserId(), user.getFirstName(), user.getLastName(),
+                isFollowed, user.getLastActive() == null ? "Never"
+                        : Utility.formatDate(user.getLastActive()));
     }
 
 }
@@ -0,0 +1,171 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.models.User;
+
+/**
+ * This service caches the parts of posts that PostHydrationService needs.
+ * Popular posts show up in many feeds and search results, so loading
+ * them from the database for every viewer repeats the same work.
+ *
+ * The cache has two levels. The first level holds the data of a post
+ * that never changes: content, date and author. Posts cannot be edited
+ * or deleted, so these entries are only evicted, never invalidated. It is
+ * shared by all viewers. The second level holds the viewer specific flags, whether a
+ * user hearted or bookmarked a post. Flags are updated in place when the
+ * user changes them so they never have to be reloaded.
+ * Heart and comment counts change all the time and are not cached. See
+ * PostCounterService.
+ *
+ * Both levels are bounded and evict the least recently used entries.
+ */
+@Service
+public class PostCacheService {
+
+    /**
+     * The viewer specific flags kept in the second level.
+     */
+    public enum ViewerFlag {
+        HEARTED, BOOKMARKED
+    }
+
+    // First level. Post data by post id.
+    private final Map<String, CachedPost> posts;
+    // Second level. Flags by flag, user id and post id.
+    private final Map<String, Boolean> viewerFlags;
+
+    private final LongAdder postHits = new LongAdder();
+    private final LongAdder postMisses = new LongAdder();
+    private final LongAdder flagHits = new LongAdder();
+    private final LongAdder flagMisses = new LongAdder();
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public PostCacheService(@Value("${app.post-cache.max-posts:50000}") int maxPosts,
+            @Value("${app.post-cache.max-viewer-flags:500000}") int maxViewerFlags) {
+        this.posts = Collections.synchronizedMap(
+                new LinkedHashMap<String, CachedPost>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedPost> eldest) {
+                        return size() > maxPosts;
+                    }
+                });
+        this.viewerFlags = Collections.synchronizedMap(
+                new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return size() > maxViewerFlags;
+                    }
+                });
+    }
+
+    /**
+     * Returns the cached data of the post or null if it is not cached.
+     */
+    public CachedPost getPost(String postId) {
+        CachedPost post = posts.get(postId);
+        (post == null ? postMisses : postHits).increment();
+        return post;
+    }
+
+    /**
+     * Caches the data of a post loaded from the database.
+     */
+    public void putPost(String postId, CachedPost post) {
+        posts.put(postId, post);
+    }
+
+    /**
+     * Returns the cached flag of the user on the post or null if it is not
+     * cached.
+     */
+    public Boolean getViewerFlag(ViewerFlag flag, String userId, String postId) {
+        Boolean value = viewerFlags.get(flagKey(flag, userId, postId));
+        (value == null ? flagMisses : flagHits).increment();
+        return value;
+    }
+
+    /**
+     * Caches a flag loaded from the database. A value set by setViewerFlag
+     * in the meantime is newer and is kept.
+     */
+    public void putViewerFlagIfAbsent(ViewerFlag flag, String userId, String postId,
+            boolean value) {
+        viewerFlags.putIfAbsent(flagKey(flag, userId, postId), value);
+    }
+
+    /**
+     * Sets the flag after the user changed it in the database.
+     */
+    public void setViewerFlag(ViewerFlag flag, String userId, String postId, boolean value) {
+        viewerFlags.put(flagKey(flag, userId, postId), value);
+    }
+
+    /**
+     * Returns the hit and miss counts and the size of both levels.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("posts", levelStats(postHits.sum(), postMisses.sum(), posts.size()));
+        stats.put("viewerFlags", levelStats(flagHits.sum(), flagMisses.sum(), viewerFlags.size()));
+        return stats;
+    }
+
+    private static Map<String, Object> levelStats(long hits, long misses, int size) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("size", size);
+        return stats;
+    }
+
+    private static String flagKey(ViewerFlag flag, String userId, String postId) {
+        return flag.ordinal() + ":" + userId + ":" + postId;
+    }
+
+    /**
+     * The viewer independent data of a post that does not change.
+     */
+    public static class CachedPost {
+
+        private final String content;
+        private final String postDate;
+        private final User user;
+
+        public CachedPost(String content, String postDate, User user) {
+            this.content = content;
+            this.postDate = postDate;
+            this.user = user;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public String getPostDate() {
+            return postDate;
+        }
+
+        public User getUser() {
+            return user;
+        }
+    }
+
+}
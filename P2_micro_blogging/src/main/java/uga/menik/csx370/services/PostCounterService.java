@@ -0,0 +1,319 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+
+/**
+ * This service maintains the hearts_count and comments_count columns of
+ * the posts table.
+ * Counting likes and comments rows for every shown post does not scale
+ * for popular posts, so the counts are stored on the post itself.
+ * Updating the post row on every heart would make it a hot spot, so
+ * changes are collected in memory (write-behind) and every flush interval
+ * all changes of a post are written with a single update.
+ *
+ * A change stays pending until the transaction that writes it committed.
+ * If the transaction fails the change is written with the next flush.
+ * Readers add the pending change of a post to its stored count.
+ *
+ * A reconciliation job recomputes the counters from the likes and comments
+ * tables to repair any drift, for example from changes that were pending
+ * when the application stopped abruptly. Code that writes likes or
+ * comments rows and then records the change here does both inside
+ * countedWrite, so reconciliation never counts a row whose change is
+ * still to come as a pending change.
+ * A post, its likes and its comments are on the same shard (see
+ * ShardRouter), so both jobs work one shard at a time.
+ */
+@Service
+public class PostCounterService {
+
+    // shardRouter knows the database that holds each post.
+    private final ShardRouter shardRouter;
+    // feedVersionService counts the changes of the feeds.
+    private final FeedVersionService feedVersionService;
+    // Number of posts recomputed per reconciliation statement.
+    private final int reconcileBatchSize;
+    // Pending count changes by post id. Index 0 is hearts, 1 is comments.
+    // Guarded by synchronizing on pending, together with flushing.
+    private final Map<Integer, int[]> pending = new HashMap<>();
+    // Changes taken by the running flush whose transaction has not
+    // committed yet. Still pending for readers.
+    private final Map<Integer, int[]> flushing = new HashMap<>();
+    // Flushes and reconciliation must not interleave. This is a lock
+    // instead of a monitor because it is held during queries. See ThreadMode.
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Held shared by countedWrite and exclusively by reconciliation.
+    private final ReentrantReadWriteLock rowLock = new ReentrantReadWriteLock();
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public PostCounterService(ShardRouter shardRouter, FeedVersionService feedVersionService,
+            @Value("${app.counters.reconcile-batch-size:1000}") int reconcileBatchSize) {
+        this.shardRouter = shardRouter;
+        this.feedVersionService = feedVersionService;
+        this.reconcileBatchSize = reconcileBatchSize;
+    }
+
+    /**
+     * Records a change of the hearts count of a post.
+     */
+    public void addHearts(String postId, int delta) {
+        addDelta(postId, 0, delta);
+    }
+
+    /**
+     * Records a change of the comments count of a post.
+     */
+    public void addComments(String postId, int delta) {
+        addDelta(postId, 1, delta);
+    }
+
+    /**
+     * Returns the hearts count change of the post that is not written yet.
+     * Readers add this to the stored count so users see their own hearts.
+     */
+    public int getPendingHearts(String postId) {
+        return getPendingDelta(postId, 0);
+    }
+
+    /**
+     * Returns the comments count change of the post that is not written yet.
+     */
+    public int getPendingComments(String postId) {
+        return getPendingDelta(postId, 1);
+    }
+
+    /**
+     * Runs a write of likes or comments rows together with the addHearts
+     * or addComments calls for it. Reconciliation waits until running
+     * writes have recorded their changes and holds new ones back, since
+     * it would otherwise count their rows once in the table and once
+     * more as a pending change.
+     */
+    public <T> T countedWrite(CountedWrite<T> write) throws SQLException {
+        rowLock.readLock().lock();
+        try {
+            return write.run();
+        } finally {
+            rowLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes all pending changes with one batched update per post.
+     * Each shard gets one transaction with the changes of its posts. The
+     * changes of a shard whose transaction fails stay pending and the
+     * first failure is thrown after all shards were tried.
+     */
+    @Scheduled(fixedDelayString = "${app.counters.flush-interval-ms:500}")
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            // Changes to write by shard. Index 0 is hearts, 1 is comments.
+            Map<Shard, Map<Integer, int[]>> changes = new HashMap<>();
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                for (Map.Entry<Integer, int[]> entry : pending.entrySet()) {
+                    int[] delta = entry.getValue();
+                    if (delta[0] == 0 && delta[1] == 0) {
+                        continue;
+                    }
+                    Shard shard = shardRouter.forPost(String.valueOf(entry.getKey()));
+                    changes.computeIfAbsent(shard, s -> new HashMap<>())
+                            .put(entry.getKey(), delta);
+                    flushing.put(entry.getKey(), delta);
+                }
+                // New changes start new entries.
+                pending.clear();
+            }
+
+            SQLException failure = null;
+            for (Map.Entry<Shard, Map<Integer, int[]>> shardChanges : changes.entrySet()) {
+                boolean written = false;
+                try {
+                    write(shardChanges.getKey(), shardChanges.getValue());
+                    written = true;
+                } catch (SQLException e) {
+                    failure = failure == null ? e : failure;
+                } finally {
+                    synchronized (pending) {
+                        for (Map.Entry<Integer, int[]> change
+                                : shardChanges.getValue().entrySet()) {
+                            flushing.remove(change.getKey());
+                            if (!written) {
+                                int[] delta = pending.computeIfAbsent(change.getKey(),
+                                        k -> new int[2]);
+                                delta[0] += change.getValue()[0];
+                                delta[1] += change.getValue()[1];
+                            }
+                        }
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Recomputes every counter from the likes and comments tables.
+     * Posts are processed in ranges of reconcileBatchSize ids so that no
+     * statement locks many rows for long. If any count was wrong the feed
+     * versions change once the corrected counts are written.
+     */
+    @Scheduled(fixedDelayString = "${app.counters.reconcile-interval-ms:3600000}",
+            initialDelayString = "${app.counters.reconcile-interval-ms:3600000}")
+    public void reconcile() throws SQLException {
+        int corrected = 0;
+        for (Shard shard : shardRouter.getShards()) {
+            corrected += reconcile(shard);
+        }
+        if (corrected > 0) {
+            System.out.println("Reconciliation corrected the counts of " + corrected + " posts.");
+            feedVersionService.countsReconciled();
+        }
+    }
+
+    /**
+     * Recomputes the counters of the posts on one shard and returns the
+     * number of posts whose counts were wrong.
+     */
+    private int reconcile(Shard shard) throws SQLException {
+        final String maxSql = "select coalesce(max(postId), 0) from posts";
+        final String heartsSql = "(select count(*) from likes l where l.post_id = p.postId)";
+        final String commentsSql = "(select count(*) from comments c where c.post_id = p.postId)";
+        // Only posts with a wrong count match, so the update count is the
+        // number of corrected posts.
+        final String sql = "update posts p set "
+                + "p.hearts_count = " + heartsSql + ", "
+                + "p.comments_count = " + commentsSql + " "
+                + "where p.postId > ? and p.postId <= ? "
+                + "and (p.hearts_count <> " + heartsSql
+                + " or p.comments_count <> " + commentsSql + ")";
+
+        int maxPostId;
+        try (Connection conn = shard.getWriteDataSource().getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(maxSql);
+                ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            maxPostId = rs.getInt(1);
+        }
+
+        int corrected = 0;
+        for (int from = 0; from < maxPostId; from += reconcileBatchSize) {
+            // No row writes run meanwhile, so after the flush nothing is
+            // pending and the rows match the counts being written.
+            rowLock.writeLock().lock();
+            flushLock.lock();
+            try {
+                // Write pending changes first. Otherwise they would be added
+                // on top of counts that already include them.
+                flush();
+                try (Connection conn = shard.getWriteDataSource().getConnection();
+                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setInt(1, from);
+                    pstmt.setInt(2, from + reconcileBatchSize);
+                    corrected += pstmt.executeUpdate();
+                }
+            } finally {
+                flushLock.unlock();
+                rowLock.writeLock().unlock();
+            }
+        }
+        return corrected;
+    }
+
+    /**
+     * Writes pending changes when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() throws SQLException {
+        flush();
+    }
+
+    /**
+     * Writes the changes of one shard in one transaction.
+     */
+    private static void write(Shard shard, Map<Integer, int[]> changes) throws SQLException {
+        final String sql = "update posts set hearts_count = hearts_count + ?, "
+                + "comments_count = comments_count + ? where postId = ?";
+        try (Connection conn = shard.getWriteDataSource().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Map.Entry<Integer, int[]> change : changes.entrySet()) {
+                    pstmt.setInt(1, change.getValue()[0]);
+                    pstmt.setInt(2, change.getValue()[1]);
+                    pstmt.setInt(3, change.getKey());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Adds delta to the pending change at index of the post.
+     */
+    private void addDelta(String postId, int index, int delta) {
+        synchronized (pending) {
+            pending.computeIfAbsent(Integer.valueOf(postId), k -> new int[2])[index] += delta;
+        }
+    }
+
+    /**
+     * Returns the change at index of the post that is pending or being
+     * flushed.
+     */
+    private int getPendingDelta(String postId, int index) {
+        Integer key = Integer.valueOf(postId);
+        synchronized (pending) {
+            int[] delta = pending.get(key);
+            int[] taken = flushing.get(key);
+            return (delta == null ? 0 : delta[index]) + (taken == null ? 0 : taken[index]);
+        }
+    }
+
+    /**
+     * A write of likes or comments rows. See countedWrite.
+     */
+    @FunctionalInterface
+    public interface CountedWrite<T> {
+        T run() throws SQLException;
+    }
+
+}
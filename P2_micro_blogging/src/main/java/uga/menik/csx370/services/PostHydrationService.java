@@ -0,0 +1,559 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.models.Comment;
+import uga.menik.csx370.models.CommentKey;
+import uga.menik.csx370.models.CommentPage;
+import uga.menik.csx370.models.ExpandedPost;
+import uga.menik.csx370.models.Post;
+import uga.menik.csx370.models.User;
+import uga.menik.csx370.services.PostCacheService.CachedPost;
+import uga.menik.csx370.services.PostCacheService.ViewerFlag;
+import uga.menik.csx370.services.ToggleWriteService.Kind;
+import uga.menik.csx370.utility.Utility;
+
+/**
+ * This service turns post ids into Post objects ready to be shown.
+ * A post needs its author, heart and comment counts and whether the
+ * logged in user hearted or bookmarked it. Loading those one post at a
+ * time would run several queries per post. Instead this service loads
+ * each of them for the whole page at once with IN (...) lists, so a page
+ * always costs the same fixed number of queries no matter how many posts
+ * it has. Heart and comment counts come from the counter columns of the
+ * posts table. See PostCounterService.
+ * Posts are read from the shards that hold them in parallel (see
+ * ShardRouter) and their authors from the main database.
+ *
+ * Post data and the hearted and bookmarked flags are read through
+ * PostCacheService. Only what is missing from the cache is queried, so a
+ * page of cached posts costs a single query for the counts.
+ */
+@Service
+public class PostHydrationService {
+
+    // dataSource is the read pool of the main database (see DataSourceConfig).
+    // Hydration never writes.
+    private final DataSource dataSource;
+    // shardRouter knows the database that holds each post.
+    private final ShardRouter shardRouter;
+    // postCounterService knows about counter changes not yet written.
+    private final PostCounterService postCounterService;
+    // postCacheService holds post data and viewer flags.
+    private final PostCacheService postCacheService;
+    // toggleWriteService knows about clicks not yet written.
+    private final ToggleWriteService toggleWriteService;
+    // Number of comments shown per page of comments.
+    private final int commentsPageSize;
+    // Number of comments read per query while a post page is streamed.
+    private final int commentChunkSize;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public PostHydrationService(@Qualifier("readDataSource") DataSource dataSource,
+            ShardRouter shardRouter, PostCounterService postCounterService,
+            PostCacheService postCacheService, ToggleWriteService toggleWriteService,
+            @Value("${app.comments.page-size:50}") int commentsPageSize,
+            @Value("${app.comments.chunk-size:25}") int commentChunkSize) {
+        this.dataSource = dataSource;
+        this.shardRouter = shardRouter;
+        this.postCounterService = postCounterService;
+        this.postCacheService = postCacheService;
+        this.toggleWriteService = toggleWriteService;
+        this.commentsPageSize = commentsPageSize;
+        this.commentChunkSize = commentChunkSize;
+    }
+
+    /**
+     * Loads the posts with the given ids as seen by the logged in user.
+     * The returned list keeps the order of postIds. Ids that do not
+     * exist are skipped.
+     * This runs at most four queries on one connection per shard plus one
+     * for the authors regardless of the number of posts.
+     */
+    public List<Post> hydrate(String loggedInUserId, List<String> postIds) throws SQLException {
+        List<Post> posts = new ArrayList<>();
+        if (postIds.isEmpty()) {
+            return posts;
+        }
+
+        Map<String, CachedPost> cachedPosts = new HashMap<>();
+        List<String> uncachedPostIds = new ArrayList<>();
+        for (String postId : postIds) {
+            CachedPost cached = postCacheService.getPost(postId);
+            if (cached != null) {
+                cachedPosts.put(postId, cached);
+            } else {
+                uncachedPostIds.add(postId);
+            }
+        }
+
+        // The shards are read in parallel and fill these together.
+        Map<String, int[]> counts = new ConcurrentHashMap<>();
+        Map<String, PostRow> rows = new ConcurrentHashMap<>();
+        Set<String> hearted = ConcurrentHashMap.newKeySet();
+        Set<String> bookmarked = ConcurrentHashMap.newKeySet();
+        Map<Shard, List<String>> groups = shardRouter.groupPosts(postIds);
+        shardRouter.scatter(groups.keySet(), shard -> {
+            List<String> shardPostIds = groups.get(shard);
+            List<String> shardUncachedPostIds = new ArrayList<>(shardPostIds);
+            shardUncachedPostIds.retainAll(uncachedPostIds);
+            try (Connection conn = shard.getReadDataSource().getConnection()) {
+                counts.putAll(queryCounts(conn, shardPostIds));
+                if (!shardUncachedPostIds.isEmpty()) {
+                    rows.putAll(queryPosts(conn, shardUncachedPostIds));
+                }
+                hearted.addAll(readViewerFlags(conn, ViewerFlag.HEARTED, Kind.HEART,
+                        "select post_id from likes where user_id = ? and post_id in (%s)",
+                        loggedInUserId, shardPostIds));
+                bookmarked.addAll(readViewerFlags(conn, ViewerFlag.BOOKMARKED, Kind.BOOKMARK,
+                        "select post_id from bookmarks where user_id = ? and post_id in (%s)",
+                        loggedInUserId, shardPostIds));
+            }
+            return null;
+        });
+
+        if (!rows.isEmpty()) {
+            Set<String> authorIds = new HashSet<>();
+            for (PostRow row : rows.values()) {
+                authorIds.add(row.userId);
+            }
+            Map<String, User> authors = queryUsers(authorIds);
+            for (Map.Entry<String, PostRow> entry : rows.entrySet()) {
+                PostRow row = entry.getValue();
+                User author = authors.get(row.userId);
+                if (author == null) {
+                    continue;
+                }
+                CachedPost post = new CachedPost(row.content, row.postDate, author);
+                postCacheService.putPost(entry.getKey(), post);
+                cachedPosts.put(entry.getKey(), post);
+            }
+        }
+
+        // Put the posts together in the order the caller asked for.
+        for (String postId : postIds) {
+            CachedPost post = cachedPosts.get(postId);
+            int[] count = counts.get(postId);
+            if (post == null || count == null) {
+                continue;
+            }
+            // Add changes that are not flushed yet so users see their own.
+            int heartsCount = count[0] + postCounterService.getPendingHearts(postId);
+            int commentsCount = count[1] + postCounterService.getPendingComments(postId);
+            posts.add(new Post(postId, post.getContent(), post.getPostDate(), post.getUser(),
+                    Math.max(heartsCount, 0), Math.max(commentsCount, 0),
+                    hearted.contains(postId), bookmarked.contains(postId)));
+        }
+        return posts;
+    }
+
+    /**
+     * Combines a post with the first page of its comments for the post
+     * page without loading the comments.
+     * They are read in chunks of commentChunkSize while the page iterates
+     * over them. beforeEachChunk runs before every chunk is read. The post
+     * controller uses it to send what is already rendered to the browser,
+     * so the post shows before its comments are read.
+     * The cursor of the next page is known once the comments were
+     * iterated, which is before the page renders its load more link.
+     */
+    public ExpandedPost expandStreamed(Post post, Runnable beforeEachChunk) {
+        return expandStreamed(post, null, beforeEachChunk);
+    }
+
+    /**
+     * Like expandStreamed above but starts with a first chunk already read
+     * with getFirstCommentChunk. The post controller reads it at the same
+     * time as the post. The rest of the page is still read while it
+     * renders.
+     */
+    public ExpandedPost expandStreamed(Post post, CommentPage firstChunk,
+            Runnable beforeEachChunk) {
+        CommentChunkIterable comments = new CommentChunkIterable(post.getPostId(),
+                firstChunk, beforeEachChunk);
+        return new ExpandedPost(post.getPostId(), post.getContent(), post.getPostDate(),
+                post.getUser(), post.getHeartsCount(), post.getCommentsCount(),
+                post.getHearted(), post.isBookmarked(), comments,
+                comments::getNextCursor, comments::getErrorMessage);
+    }
+
+    /**
+     * Returns the first chunk of the comments of the post as streamed by
+     * expandStreamed. Its cursor is null if the post has no more comments.
+     */
+    public CommentPage getFirstCommentChunk(String postId) throws SQLException {
+        return readCommentsPage(postId, null, Math.min(commentChunkSize, commentsPageSize));
+    }
+
+    /**
+     * Returns a page of the comments of the post, oldest first.
+     * If cursor is given only comments that come after it are returned.
+     * This is keyset pagination on (created_at, commentId) served by the
+     * comments (post_id, created_at, commentId) index.
+     * Comments are read from the shard of the post and their authors from
+     * the main database.
+     */
+    public CommentPage getCommentsPage(String postId, CommentKey cursor) throws SQLException {
+        return readCommentsPage(postId, cursor, commentsPageSize);
+    }
+
+    /**
+     * Reads up to size comments of the post that come after cursor.
+     */
+    private CommentPage readCommentsPage(String postId, CommentKey cursor, int size)
+            throws SQLException {
+        List<CommentKey> keys = new ArrayList<>();
+        // Read one more than a page to know if there is a next page.
+        List<Comment> comments = readComments(postId, cursor, size + 1, keys);
+        if (comments.size() <= size) {
+            return new CommentPage(comments, null);
+        }
+        return new CommentPage(comments.subList(0, size), keys.get(size - 1));
+    }
+
+    /**
+     * Reads up to limit comments of the post that come after cursor, oldest
+     * first, and adds the key of each to keys.
+     */
+    private List<Comment> readComments(String postId, CommentKey cursor, int limit,
+            List<CommentKey> keys) throws SQLException {
+        final String sql = "select c.commentId, c.content, c.created_at, c.user_id "
+                + "from comments c "
+                + "where c.post_id = ? "
+                + (cursor == null ? "" : "and (c.created_at > ? "
+                        + "or (c.created_at = ? and c.commentId > ?)) ")
+                + "order by c.created_at asc, c.commentId asc limit ?";
+        List<String[]> commentRows = new ArrayList<>();
+        Shard shard = shardRouter.forPost(postId);
+        if (shard == null) {
+            // Not a post id, so there is no post and no comments.
+            return new ArrayList<>();
+        }
+        try (Connection conn = shard.getReadDataSource().getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            pstmt.setString(index++, postId);
+            if (cursor != null) {
+                pstmt.setTimestamp(index++, cursor.getCreatedAtTimestamp());
+                pstmt.setTimestamp(index++, cursor.getCreatedAtTimestamp());
+                pstmt.setInt(index++, cursor.getCommentId());
+            }
+            pstmt.setInt(index, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    commentRows.add(new String[] { rs.getString("commentId"),
+                            rs.getString("content"),
+                            Utility.formatDate(rs.getTimestamp("created_at")),
+                            rs.getString("user_id") });
+                    keys.add(new CommentKey(rs.getTimestamp("created_at"),
+                            rs.getInt("commentId")));
+                }
+            }
+        }
+
+        Set<String> authorIds = new HashSet<>();
+        for (String[] row : commentRows) {
+            authorIds.add(row[3]);
+        }
+        Map<String, User> authors = queryUsers(authorIds);
+        List<Comment> comments = new ArrayList<>();
+        for (String[] row : commentRows) {
+            comments.add(new Comment(row[0], row[1], row[2], authors.get(row[3])));
+        }
+        return comments;
+    }
+
+    /**
+     * Reads the heart and comment counts of every post in one query.
+     * Index 0 is hearts, 1 is comments.
+     */
+    private static Map<String, int[]> queryCounts(Connection conn, List<String> postIds)
+            throws SQLException {
+        final String sql = "select p.postId, p.hearts_count, p.comments_count from posts p "
+                + "where p.postId in (" + Utility.placeholders(postIds.size()) + ")";
+        Map<String, int[]> counts = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            setIds(pstmt, 1, postIds);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    counts.put(rs.getString("postId"),
+                            new int[] { rs.getInt("hearts_count"), rs.getInt("comments_count") });
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Reads content, date and author id of every post in one query.
+     */
+    private static Map<String, PostRow> queryPosts(Connection conn, List<String> postIds)
+            throws SQLException {
+        final String sql = "select p.postId, p.content, p.created_at, p.userId from posts p "
+                + "where p.postId in (" + Utility.placeholders(postIds.size()) + ")";
+        Map<String, PostRow> posts = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            setIds(pstmt, 1, postIds);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    posts.put(rs.getString("postId"), new PostRow(rs.getString("content"),
+                            Utility.formatDate(rs.getTimestamp("created_at")),
+                            rs.getString("userId")));
+                }
+            }
+        }
+        return posts;
+    }
+
+    /**
+     * Reads the names of the users from the main database in one query.
+     */
+    private Map<String, User> queryUsers(Set<String> userIds) throws SQLException {
+        Map<String, User> users = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return users;
+        }
+        final String sql = "select u.userId, u.firstName, u.lastName from user u "
+                + "where u.userId in (" + Utility.placeholders(userIds.size()) + ")";
+        try (Connection conn = dataSource.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            setIds(pstmt, 1, new ArrayList<>(userIds));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    users.put(rs.getString("userId"), new User(rs.getString("userId"),
+                            rs.getString("firstName"), rs.getString("lastName")));
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Returns the post ids among postIds for which the flag of the user is
+     * set. Clicks not written yet by ToggleWriteService come first and
+     * cached flags are used as they are. The rest are read with the
+     * query, which selects the post ids the user has a row for in a table
+     * such as likes or bookmarks, and are cached afterwards.
+     */
+    private Set<String> readViewerFlags(Connection conn, ViewerFlag flag, Kind kind,
+            String sqlFormat, String userId, List<String> postIds) throws SQLException {
+        Set<String> flagged = new HashSet<>();
+        List<String> unknownPostIds = new ArrayList<>();
+        // Clicks not written yet. Taken before the query so a click written
+        // meanwhile is either seen here or by the query.
+        Map<String, Boolean> pendingFlags = new HashMap<>();
+        for (String postId : postIds) {
+            Boolean value = toggleWriteService.getPending(kind, userId, postId);
+            if (value != null) {
+                pendingFlags.put(postId, value);
+            }
+        }
+        for (String postId : postIds) {
+            Boolean value = pendingFlags.get(postId);
+            if (value == null) {
+                value = postCacheService.getViewerFlag(flag, userId, postId);
+            }
+            if (value == null) {
+                unknownPostIds.add(postId);
+            } else if (value) {
+                flagged.add(postId);
+            }
+        }
+        if (unknownPostIds.isEmpty()) {
+            return flagged;
+        }
+
+        String sql = String.format(sqlFormat, Utility.placeholders(unknownPostIds.size()));
+        Set<String> found = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, userId);
+            setIds(pstmt, 2, unknownPostIds);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getString(1));
+                }
+            }
+        }
+        for (String postId : unknownPostIds) {
+            postCacheService.putViewerFlagIfAbsent(flag, userId, postId, found.contains(postId));
+        }
+        flagged.addAll(found);
+        return flagged;
+    }
+
+    /**
+     * Binds the ids to consecutive parameters starting at index.
+     */
+    private static void setIds(PreparedStatement pstmt, int index, List<String> ids)
+            throws SQLException {
+        for (String id : ids) {
+            pstmt.setString(index++, id);
+        }
+    }
+
+    /**
+     * A post as read from its shard, before its author is known.
+     */
+    private static class PostRow {
+
+        final String content;
+        final String postDate;
+        final String userId;
+
+        PostRow(String content, String postDate, String userId) {
+            this.content = content;
+            this.postDate = postDate;
+            this.userId = userId;
+        }
+    }
+
+
+    /**
+     * The first page of the comments of a post, read chunk by chunk while
+     * it is iterated. Every chunk is a short query of its own with
+     * keyset pagination on (created_at, commentId), so no connection is
+     * held while the page is written out to a slow client.
+     * A failed read ends the comments early. The page is already partly
+     * sent at that point, so there is no way to show an error page
+     * instead. The comments end with an error message and the load more
+     * link continues after the last comment shown, or from the first
+     * comment if none was shown, so the user can try again.
+     */
+    private class CommentChunkIterable implements Iterable<Comment> {
+
+        private final String postId;
+        private final Runnable beforeEachChunk;
+        // First chunk read before rendering or null. Taken by the iterator.
+        private List<Comment> firstChunk;
+        // Key of the last comment shown. Null before the first chunk.
+        private CommentKey lastKey;
+        // Whether comments after lastKey exist.
+        private boolean hasMore = true;
+        // Whether reading a chunk failed. No more chunks are read then.
+        private boolean failed;
+
+        CommentChunkIterable(String postId, CommentPage firstChunk, Runnable beforeEachChunk) {
+            this.postId = postId;
+            this.beforeEachChunk = beforeEachChunk;
+            if (firstChunk != null) {
+                this.firstChunk = firstChunk.getComments();
+                this.lastKey = firstChunk.getNextCursor();
+                this.hasMore = firstChunk.hasNext();
+            }
+        }
+
+        /**
+         * Returns the cursor of the next page or null if all comments are
+         * shown. Only known after the comments were iterated.
+         */
+        String getNextCursor() {
+            if (!hasMore) {
+                return null;
+            }
+            if (lastKey == null) {
+                // Only when the first chunk failed. Every comment comes
+                // after this key, so the link starts from the first one.
+                return failed ? new CommentKey(0, 0).encode() : null;
+            }
+            return lastKey.encode();
+        }
+
+        /**
+         * Returns the message shown after the comments if reading them
+         * failed, or null.
+         */
+        String getErrorMessage() {
+            return failed ? "Failed to load all comments. Please try again." : null;
+        }
+
+        private List<Comment> takeFirstChunk() {
+            List<Comment> chunk = firstChunk == null ? List.of() : firstChunk;
+            firstChunk = null;
+            return chunk;
+        }
+
+        @Override
+        public Iterator<Comment> iterator() {
+            return new Iterator<Comment>() {
+
+                private List<Comment> chunk = takeFirstChunk();
+                private int index;
+                // Comments of the page not read yet.
+                private int remaining = commentsPageSize - chunk.size();
+
+                @Override
+                public boolean hasNext() {
+                    if (index < chunk.size()) {
+                        return true;
+                    }
+                    if (!hasMore || remaining == 0 || failed) {
+                        return false;
+                    }
+                    beforeEachChunk.run();
+                    readNextChunk();
+                    return index < chunk.size();
+                }
+
+                @Override
+                public Comment next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return chunk.get(index++);
+                }
+
+                private void readNextChunk() {
+                    int size = Math.min(commentChunkSize, remaining);
+                    List<CommentKey> keys = new ArrayList<>();
+                    try {
+                        // One more than the chunk tells whether more follow.
+                        List<Comment> comments = readComments(postId, lastKey, size + 1, keys);
+                        hasMore = comments.size() > size;
+                        chunk = hasMore ? comments.subList(0, size) : comments;
+                        if (!chunk.isEmpty()) {
+                            lastKey = keys.get(chunk.size() - 1);
+                        }
+                    } catch (SQLException e) {
+                        System.out.println("Failed to read comments of post " + postId + ": "
+                                + e.getMessage());
+                        failed = true;
+                        chunk = List.of();
+                    }
+                    index = 0;
+                    remaining -= chunk.size();
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.components.ReadYourWrites;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.services.PostCacheService.ViewerFlag;
+import uga.menik.csx370.utility.Utility;
+
+/**
+ * This service contains post related functions.
+ * Posts and their likes, bookmarks, comments and hashtag links are
+ * written and read on the shard of the author (see ShardRouter). The
+ * hashtags table is on the main database and is used through the
+ * dataSource the same way UserService does it.
+ */
+@Service
+public class PostService {
+
+    /**
+     * Number of posts shown on one page of any post listing.
+     */
+    public static final int PAGE_SIZE = 20;
+
+    // dataSource enables talking to the main database.
+    private final DataSource dataSource;
+    // readDataSource reads hashtags for searches. See DataSourceConfig.
+    private final DataSource readDataSource;
+    // shardRouter knows the database that holds each post.
+    private final ShardRouter shardRouter;
+    // postCounterService maintains the comments counters.
+    private final PostCounterService postCounterService;
+    // postCacheService holds the hearted and bookmarked flags of viewers.
+    private final PostCacheService postCacheService;
+    // readYourWrites sends a writer's next reads to the primary.
+    private final ReadYourWrites readYourWrites;
+    // toggleWriteService writes hearts and bookmarks in groups.
+    private final ToggleWriteService toggleWriteService;
+    // feedVersionService counts the changes of the feeds.
+    private final FeedVersionService feedVersionService;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public PostService(DataSource dataSource,
+            @Qualifier("readDataSource") DataSource readDataSource, ShardRouter shardRouter,
+            PostCounterService postCounterService, PostCacheService postCacheService,
+            ReadYourWrites readYourWrites, ToggleWriteService toggleWriteService,
+            FeedVersionService feedVersionService) {
+        this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+        this.shardRouter = shardRouter;
+        this.postCounterService = postCounterService;
+        this.postCacheService = postCacheService;
+        this.readYourWrites = readYourWrites;
+        this.toggleWriteService = toggleWriteService;
+        this.feedVersionService = feedVersionService;
+    }
+
+    /**
+     * Inserts a new post for the given user together with its hashtags.
+     * Tags are given without the leading # (see HashtagTokenizer).
+     * New tags are added to the hashtags table first. The post and its
+     * post_hashtags links are then written on the author's shard in one
+     * transaction. This takes four statements no matter how many tags the
+     * post has.
+     * Returns the key of the new post. The creation time is set here
+     * instead of by the database so the key is known without reading the
+     * row back. The id comes from the id sequence of the author's logical
+     * shard.
+     */
+    public PostKey createPost(String userId, String content, List<String> tags)
+            throws SQLException {
+        final String postSql = "insert into posts (userId, content, created_at) values (?, ?, ?)";
+        // Dates are stored with second precision.
+        Timestamp createdAt = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+        List<Integer> hashtagIds = tags.isEmpty() ? List.of() : saveHashtags(tags);
+
+        Shard shard = shardRouter.forUser(userId);
+        try (Connection conn = shard.getWriteDataSource().getConnection()) {
+            conn.setAutoCommit(false);
+            shardRouter.usePostIdsOf(conn, userId);
+            try {
+                PostKey post;
+                try (PreparedStatement pstmt = conn.prepareStatement(postSql,
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    pstmt.setString(1, userId);
+                    pstmt.setString(2, content);
+                    pstmt.setTimestamp(3, createdAt);
+                    pstmt.executeUpdate();
+
+                    try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                        if (!keys.next()) {
+                            throw new SQLException("Post insert did not return a generated id.");
+                        }
+                        post = new PostKey(createdAt, keys.getInt(1));
+                    }
+                }
+
+                if (!hashtagIds.isEmpty()) {
+                    linkHashtags(conn, post.getPostId(), hashtagIds);
+                }
+                conn.commit();
+                readYourWrites.recordWrite(userId);
+                return post;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                shardRouter.resetPostIds(conn);
+            }
+        }
+    }
+
+    /**
+     * Upserts the tags on the main database and returns their ids.
+     */
+    private List<Integer> saveHashtags(List<String> postTags) throws SQLException {
+        // The insert locks the tag rows in the order of its values. Two
+        // posts with the same tags in a different order would lock them in
+        // a different order and could deadlock, so every insert uses the
+        // same sorted order without repeats.
+        List<String> tags = new ArrayList<>(new TreeSet<>(postTags));
+        // One multi row insert for all tags. Existing tags are left as they are.
+        StringBuilder upsertSql = new StringBuilder("insert into hashtags (tag) values ");
+        for (int i = 0; i < tags.size(); i++) {
+            upsertSql.append(i == 0 ? "(?)" : ", (?)");
+        }
+        upsertSql.append(" on duplicate key update hashtagId = hashtagId");
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(upsertSql.toString())) {
+                for (int i = 0; i < tags.size(); i++) {
+                    pstmt.setString(i + 1, tags.get(i));
+                }
+                pstmt.executeUpdate();
+            }
+            return queryHashtagIds(conn, tags);
+        }
+    }
+
+    /**
+     * Links the post to the hashtags with one insert on the shard connection.
+     */
+    private static void linkHashtags(Connection conn, String postId, List<Integer> hashtagIds)
+            throws SQLException {
+        StringBuilder linkSql = new StringBuilder(
+                "insert ignore into post_hashtags (post_id, hashtag_id) values ");
+        for (int i = 0; i < hashtagIds.size(); i++) {
+            linkSql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(linkSql.toString())) {
+            int index = 1;
+            for (int hashtagId : hashtagIds) {
+                pstmt.setString(index++, postId);
+                pstmt.setInt(index++, hashtagId);
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the ids of the tags that exist in the hashtags table.
+     */
+    private static List<Integer> queryHashtagIds(Connection conn, List<String> tags)
+            throws SQLException {
+        final String sql = "select hashtagId from hashtags where tag in ("
+                + Utility.placeholders(tags.size()) + ")";
+        List<Integer> hashtagIds = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < tags.size(); i++) {
+                pstmt.setString(i + 1, tags.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    hashtagIds.add(rs.getInt(1));
+                }
+            }
+        }
+        return hashtagIds;
+    }
+
+    /**
+     * Adds or removes the heart of the user on the post.
+     * The change is written with the next flush of ToggleWriteService,
+     * together with other clicks. The hearts count changes then, and only
+     * if the heart state changed.
+     */
+    public void setHeart(String userId, String postId, boolean isAdd) throws SQLException {
+        toggleWriteService.set(ToggleWriteService.Kind.HEART, userId, postId, isAdd);
+        postCacheService.setViewerFlag(ViewerFlag.HEARTED, userId, postId, isAdd);
+        readYourWrites.recordWrite(userId);
+        feedVersionService.viewerChanged(userId);
+    }
+
+    /**
+     * Adds or removes the bookmark of the user on the post.
+     * The change is written with the next flush of ToggleWriteService.
+     */
+    public void setBookmark(String userId, String postId, boolean isAdd) throws SQLException {
+        toggleWriteService.set(ToggleWriteService.Kind.BOOKMARK, userId, postId, isAdd);
+        postCacheService.setViewerFlag(ViewerFlag.BOOKMARKED, userId, postId, isAdd);
+        readYourWrites.recordWrite(userId);
+        feedVersionService.viewerChanged(userId);
+    }
+
+    /**
+     * Adds a comment of the user on the post.
+     */
+    public void addComment(String userId, String postId, String content) throws SQLException {
+        final String sql = "insert into comments (post_id, user_id, content) values (?, ?, ?)";
+        Shard shard = shardRouter.forPost(postId);
+        if (shard == null) {
+            throw new SQLException("There is no post with id " + postId + ".");
+        }
+        postCounterService.countedWrite(() -> {
+            try (Connection conn = shard.getWriteDataSource().getConnection();
+                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, postId);
+                pstmt.setString(2, userId);
+                pstmt.setString(3, content);
+                pstmt.executeUpdate();
+            }
+            postCounterService.addComments(postId, 1);
+            return null;
+        });
+        readYourWrites.recordWrite(userId);
+        feedVersionService.postActivity(postId);
+    }
+
+    /**
+     * Returns a page of the posts made by the given user, newest first.
+     */
+    public PostPage getUserPostsPage(String userId, PostKey cursor, int limit) throws SQLException {
+        final String sql = "select p.postId, p.created_at from posts p "
+                + "where p.userId = ? and " + Utility.KEYSET_CONDITION
+                + " order by p.created_at desc, p.postId desc limit ?";
+        Shard shard = shardRouter.forUser(userId);
+        try (Connection conn = shard.getReadDataSource().getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, userId);
+            int index = Utility.setKeysetParameters(pstmt, 2, cursor);
+            pstmt.setInt(index, limit + 1);
+            return PostPage.fromKeys(readKeys(pstmt), limit);
+        }
+    }
+
+    /**
+     * Returns a page of the posts bookmarked by the given user, newest first.
+     * Bookmarks are stored with the post, so every shard is asked for its
+     * newest bookmarked posts and the answers are merged.
+     */
+    public PostPage getBookmarkedPostsPage(String userId, PostKey cursor, int limit)
+            throws SQLException {
+        final String sql = "select p.postId, p.created_at from posts p "
+                + "join bookmarks b on b.post_id = p.postId "
+                + "where b.user_id = ? and " + Utility.KEYSET_CONDITION
+                + " order by p.created_at desc, p.postId desc limit ?";
+        return PostPage.merge(shardRouter.scatter(shard -> {
+            try (Connection conn = shard.getReadDataSource().getConnection();
+                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, userId);
+                int index = Utility.setKeysetParameters(pstmt, 2, cursor);
+                pstmt.setInt(index, limit + 1);
+                return readKeys(pstmt);
+            }
+        }), limit);
+    }
+
+    /**
+     * Returns a page of the posts that contain all of the given hashtags,
+     * newest first. Tags are given without the leading #.
+     * The tags are looked up on the main database and every shard is
+     * searched for posts linked to all of them.
+     */
+    public PostPage getHashtagPostsPage(List<String> tags, PostKey cursor, int limit)
+            throws SQLException {
+        if (tags.isEmpty()) {
+            return new PostPage(new ArrayList<>(), null);
+        }
+
+        List<Integer> hashtagIds;
+        try (Connection conn = readDataSource.getConnection()) {
+            hashtagIds = queryHashtagIds(conn, tags);
+        }
+        // A tag that was never used matches no posts.
+        if (hashtagIds.size() < tags.size()) {
+            return new PostPage(new ArrayList<>(), null);
+        }
+
+        final String sql = "select p.postId, p.created_at from posts p "
+                + "where p.postId in (select ph.post_id from post_hashtags ph "
+                + "where ph.hashtag_id in (" + Utility.placeholders(hashtagIds.size()) + ") "
+                + "group by ph.post_id having count(*) = ?) "
+                + "and " + Utility.KEYSET_CONDITION
+                + " order by p.created_at desc, p.postId desc limit ?";
+        return PostPage.merge(shardRouter.scatter(shard -> {
+            try (Connection conn = shard.getReadDataSource().getConnection();
+                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (int hashtagId : hashtagIds) {
+                    pstmt.setInt(index++, hashtagId);
+                }
+                pstmt.setInt(index++, hashtagIds.size());
+                index = Utility.setKeysetParameters(pstmt, index, cursor);
+                pstmt.setInt(index, limit + 1);
+                return readKeys(pstmt);
+            }
+        }), limit);
+    }
+
+    /**
+     * Runs a listing query that selects postId and created_at for up to
+     * limit + 1 posts and returns their keys in the order of the rows.
+     */
+    private static List<PostKey> readKeys(PreparedStatement pstmt) throws SQLException {
+        List<PostKey> keys = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                keys.add(new PostKey(rs.getTimestamp("created_at"), rs.getInt("postId")));
+            }
+        }
+        return keys;
+    }
+
+}
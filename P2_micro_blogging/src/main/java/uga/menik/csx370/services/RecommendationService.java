@@ -0,0 +1,509 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.utility.Utility;
+
+/**
+ * This service recommends users to follow.
+ * Candidates are the users followed by the users someone follows
+ * (friends of friends). Each candidate is scored by how many of the
+ * user's followees follow them, weighted down the longer ago the
+ * candidate last posted. Users with no such candidates get the most
+ * recently active users instead.
+ *
+ * The candidates and top recommendations of each user are computed once
+ * and cached. A follow or unfollow updates the cached candidates of the
+ * user right away: the mutual counts of the users the changed followee
+ * follows go up or down by one and the list is ranked again, so the
+ * people page is a cache lookup instead of a scan over all users.
+ * A background job recomputes lists older than the time to live, since
+ * scores decay with time and the recently active users change.
+ * Names come from the main database and last post times from the shards
+ * that hold the posts. See ShardRouter.
+ */
+@Service
+public class RecommendationService {
+
+    // Followees looked at per user and candidates kept per user.
+    private static final int MAX_FOLLOWEES_SCANNED = 500;
+    private static final int MAX_CANDIDATES_SCORED = 200;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // dataSource is the read pool of the main database. See DataSourceConfig.
+    private final DataSource dataSource;
+    // shardRouter knows where the posts of each user are.
+    private final ShardRouter shardRouter;
+    // socialGraphService knows who follows whom.
+    private final SocialGraphService socialGraphService;
+    // Number of recommendations kept per user.
+    private final int topK;
+    // How long a computed list is used before it is recomputed.
+    private final long ttlMillis;
+    // Computed lists by user id in least recently used order.
+    private final Map<String, CachedList> cache;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public RecommendationService(@Qualifier("readDataSource") DataSource dataSource,
+            ShardRouter shardRouter, SocialGraphService socialGraphService,
+            @Value("${app.recommendations.top-k:20}") int topK,
+            @Value("${app.recommendations.ttl-ms:600000}") long ttlMillis,
+            @Value("${app.recommendations.max-cached-users:10000}") int maxCachedUsers) {
+        this.dataSource = dataSource;
+        this.shardRouter = shardRouter;
+        this.socialGraphService = socialGraphService;
+        this.topK = topK;
+        this.ttlMillis = ttlMillis;
+        this.cache = Collections.synchronizedMap(
+                new LinkedHashMap<String, CachedList>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedList> eldest) {
+                        return size() > maxCachedUsers;
+                    }
+                });
+    }
+
+    /**
+     * Returns the recommended users for the user, best first.
+     * The list is computed on the first request and cached after that.
+     */
+    public List<Recommendation> getRecommendations(String userId) throws SQLException {
+        CachedList cached = cache.get(userId);
+        if (cached != null) {
+            return cached.recommendations;
+        }
+        cached = new CachedList();
+        compute(userId, cached);
+        cache.put(userId, cached);
+        return cached.recommendations;
+    }
+
+    /**
+     * Returns the given users with their names and last post times, most
+     * recently active first.
+     */
+    public List<Recommendation> getUsers(int[] userIds) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        for (int userId : userIds) {
+            ids.add(userId);
+        }
+        List<Recommendation> users = ids.isEmpty() ? new ArrayList<>() : queryUsers(ids);
+        users.sort(Comparator.comparing(Recommendation::getLastActive,
+                Comparator.nullsLast(Comparator.reverseOrder())));
+        return users;
+    }
+
+    /**
+     * Updates the cached list of the user after they followed followeeId.
+     * The followee is no longer a candidate and everyone the followee
+     * follows gains a mutual followee.
+     */
+    public void onFollow(String userId, String followeeId) {
+        CachedList cached = cache.get(userId);
+        if (cached == null) {
+            return;
+        }
+        int self = Integer.parseInt(userId);
+        int followee = Integer.parseInt(followeeId);
+        cached.lock.lock();
+        try {
+            int[] followees = socialGraphService.getFollowees(userId);
+            cached.candidates.remove(followee);
+            List<Integer> newIds = new ArrayList<>();
+            for (int candidate : socialGraphService.getFollowees(followeeId)) {
+                if (candidate == self || Arrays.binarySearch(followees, candidate) >= 0) {
+                    continue;
+                }
+                Recommendation known = cached.candidates.get(candidate);
+                if (known != null) {
+                    known.mutual++;
+                } else if (newIds.size() < MAX_CANDIDATES_SCORED) {
+                    newIds.add(candidate);
+                }
+            }
+            if (!newIds.isEmpty()) {
+                for (Recommendation candidate : queryUsers(newIds)) {
+                    candidate.mutual = 1;
+                    cached.candidates.put(Integer.parseInt(candidate.userId), candidate);
+                }
+            }
+            rank(cached, self, followees);
+        } catch (SQLException e) {
+            forget(userId, e);
+        } finally {
+            cached.lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the cached list of the user after they unfollowed
+     * followeeId. Everyone the former followee follows loses a mutual
+     * followee, and the former followee is a candidate again if other
+     * followees of the user follow them.
+     */
+    public void onUnfollow(String userId, String followeeId) {
+        CachedList cached = cache.get(userId);
+        if (cached == null) {
+            return;
+        }
+        int self = Integer.parseInt(userId);
+        cached.lock.lock();
+        try {
+            int[] followees = socialGraphService.getFollowees(userId);
+            for (int candidate : socialGraphService.getFollowees(followeeId)) {
+                Recommendation known = cached.candidates.get(candidate);
+                if (known != null && --known.mutual <= 0) {
+                    cached.candidates.remove(candidate);
+                }
+            }
+            int mutual = countCommon(followees, socialGraphService.getFollowers(followeeId));
+            if (mutual > 0) {
+                for (Recommendation former
+                        : queryUsers(List.of(Integer.parseInt(followeeId)))) {
+                    former.mutual = mutual;
+                    cached.candidates.put(Integer.parseInt(former.userId), former);
+                }
+            }
+            rank(cached, self, followees);
+        } catch (SQLException e) {
+            forget(userId, e);
+        } finally {
+            cached.lock.unlock();
+        }
+    }
+
+    /**
+     * Recomputes lists older than the time to live.
+     */
+    @Scheduled(fixedDelayString = "${app.recommendations.refresh-interval-ms:5000}")
+    public void refreshInBackground() {
+        long now = System.currentTimeMillis();
+        Map<String, CachedList> expired = new HashMap<>();
+        synchronized (cache) {
+            for (Map.Entry<String, CachedList> entry : cache.entrySet()) {
+                if (now - entry.getValue().computedAt > ttlMillis) {
+                    expired.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        for (Map.Entry<String, CachedList> entry : expired.entrySet()) {
+            try {
+                compute(entry.getKey(), entry.getValue());
+            } catch (SQLException e) {
+                forget(entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Drops the cached list of the user after a failed update, so the
+     * next request computes it again.
+     */
+    private void forget(String userId, SQLException e) {
+        System.out.println("Failed to update recommendations of user " + userId
+                + ": " + e.getMessage());
+        cache.remove(userId);
+    }
+
+    /**
+     * Computes the candidates of the user into cached and ranks them.
+     * cached is updated in place so follow changes made meanwhile wait
+     * for the computation and are applied to its result.
+     */
+    private void compute(String userId, CachedList cached) throws SQLException {
+        int self = Integer.parseInt(userId);
+        cached.lock.lock();
+        try {
+            int[] followees = socialGraphService.getFollowees(userId);
+
+            // Count how many of the user's followees follow each candidate.
+            Map<Integer, Integer> mutualCounts = new HashMap<>();
+            for (int i = 0; i < followees.length && i < MAX_FOLLOWEES_SCANNED; i++) {
+                for (int candidate
+                        : socialGraphService.getFollowees(String.valueOf(followees[i]))) {
+                    if (candidate != self && Arrays.binarySearch(followees, candidate) < 0) {
+                        mutualCounts.merge(candidate, 1, Integer::sum);
+                    }
+                }
+            }
+
+            List<Integer> candidateIds = new ArrayList<>(mutualCounts.keySet());
+            candidateIds.sort((a, b) -> Integer.compare(mutualCounts.get(b), mutualCounts.get(a)));
+            if (candidateIds.size() > MAX_CANDIDATES_SCORED) {
+                candidateIds = candidateIds.subList(0, MAX_CANDIDATES_SCORED);
+            }
+
+            cached.candidates.clear();
+            if (!candidateIds.isEmpty()) {
+                for (Recommendation candidate : queryUsers(candidateIds)) {
+                    candidate.mutual = mutualCounts.get(Integer.parseInt(candidate.userId));
+                    cached.candidates.put(Integer.parseInt(candidate.userId), candidate);
+                }
+            }
+            cached.recentlyActive = queryRecentlyActiveUsers();
+            cached.computedAt = System.currentTimeMillis();
+            rank(cached, self, followees);
+        } finally {
+            cached.lock.unlock();
+        }
+    }
+
+    /**
+     * Scores the candidates in cached and publishes the top ones.
+     * followees are the sorted ids of the users the user follows.
+     */
+    private void rank(CachedList cached, int self, int[] followees) {
+        // Keep the candidates with the most mutual followees.
+        if (cached.candidates.size() > MAX_CANDIDATES_SCORED) {
+            List<Recommendation> byMutual = new ArrayList<>(cached.candidates.values());
+            byMutual.sort((a, b) -> Integer.compare(b.mutual, a.mutual));
+            for (Recommendation dropped
+                    : byMutual.subList(MAX_CANDIDATES_SCORED, byMutual.size())) {
+                cached.candidates.remove(Integer.parseInt(dropped.userId));
+            }
+        }
+
+        List<Recommendation> scored = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Recommendation candidate : cached.candidates.values()) {
+            // Halve the weight of a candidate for every week without posts.
+            double weeksInactive = candidate.lastActive == null ? 52
+                    : Math.max(0, now - candidate.lastActive.getTime()) / (7.0 * DAY_MILLIS);
+            candidate.score = candidate.mutual * Math.pow(0.5, weeksInactive);
+            scored.add(candidate);
+        }
+        scored.sort((a, b) -> Double.compare(b.score, a.score));
+
+        // Fill up with recently active users the user does not follow.
+        for (Recommendation active : cached.recentlyActive) {
+            if (scored.size() >= topK) {
+                break;
+            }
+            int id = Integer.parseInt(active.userId);
+            if (id != self && Arrays.binarySearch(followees, id) < 0
+                    && !cached.candidates.containsKey(id)) {
+                scored.add(active);
+            }
+        }
+
+        cached.recommendations = List.copyOf(scored.subList(0, Math.min(topK, scored.size())));
+    }
+
+    /**
+     * Returns the number of ids that are in both sorted arrays.
+     */
+    private static int countCommon(int[] a, int[] b) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Loads names and last post times of the given users.
+     * This is one query on the main database and one per shard.
+     */
+    private List<Recommendation> queryUsers(List<Integer> userIds) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        for (int userId : userIds) {
+            ids.add(String.valueOf(userId));
+        }
+        Map<Shard, List<String>> groups = shardRouter.groupUsers(ids);
+        Map<String, Timestamp> lastActive = new HashMap<>();
+        for (Map<String, Timestamp> shardLastActive : shardRouter.scatter(groups.keySet(),
+                shard -> queryLastActive(shard, groups.get(shard)))) {
+            lastActive.putAll(shardLastActive);
+        }
+        return queryNames(ids, lastActive);
+    }
+
+    /**
+     * Reads the last post time of each of the users on their shard.
+     */
+    private static Map<String, Timestamp> queryLastActive(Shard shard, List<String> userIds)
+            throws SQLException {
+        final String sql = "select p.userId, max(p.created_at) as lastActive from posts p "
+                + "where p.userId in (" + Utility.placeholders(userIds.size()) + ") "
+                + "group by p.userId";
+        Map<String, Timestamp> lastActive = new HashMap<>();
+        try (Connection conn = shard.getReadDataSource().getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < userIds.size(); i++) {
+                pstmt.setString(i + 1, userIds.get(i));
+            }
+            readLastActive(pstmt, lastActive);
+        }
+        return lastActive;
+    }
+
+    /**
+     * Loads the authors of the most recent posts, most recent first.
+     */
+    private List<Recommendation> queryRecentlyActiveUsers() throws SQLException {
+        // Only the newest posts of each shard are looked at so this stays cheap.
+        final String sql = "select recent.userId, max(recent.created_at) as lastActive from "
+                + "(select userId, created_at from posts order by created_at desc limit 500) recent "
+                + "group by recent.userId";
+        Map<String, Timestamp> lastActive = new HashMap<>();
+        for (Map<String, Timestamp> shardLastActive : shardRouter.scatter(shard -> {
+            Map<String, Timestamp> found = new HashMap<>();
+            try (Connection conn = shard.getReadDataSource().getConnection();
+                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                readLastActive(pstmt, found);
+            }
+            return found;
+        })) {
+            lastActive.putAll(shardLastActive);
+        }
+
+        // A few extra in case some are already followed.
+        List<String> userIds = new ArrayList<>(lastActive.keySet());
+        userIds.sort((a, b) -> lastActive.get(b).compareTo(lastActive.get(a)));
+        userIds = userIds.subList(0, Math.min(topK * 2, userIds.size()));
+
+        List<Recommendation> users = queryNames(userIds, lastActive);
+        users.sort((a, b) -> b.lastActive.compareTo(a.lastActive));
+        return users;
+    }
+
+    /**
+     * Runs the query and reads userId and lastActive of each row.
+     */
+    private static void readLastActive(PreparedStatement pstmt, Map<String, Timestamp> lastActive)
+            throws SQLException {
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                lastActive.put(rs.getString("userId"), rs.getTimestamp("lastActive"));
+            }
+        }
+    }
+
+    /**
+     * Loads the names of the given users from the main database in one
+     * query and pairs them with their last post times.
+     */
+    private List<Recommendation> queryNames(List<String> userIds, Map<String, Timestamp> lastActive)
+            throws SQLException {
+        List<Recommendation> users = new ArrayList<>();
+        if (userIds.isEmpty()) {
+            return users;
+        }
+        final String sql = "select u.userId, u.firstName, u.lastName from user u "
+                + "where u.userId in (" + Utility.placeholders(userIds.size()) + ")";
+        try (Connection conn = dataSource.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < userIds.size(); i++) {
+                pstmt.setString(i + 1, userIds.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String userId = rs.getString("userId");
+                    users.add(new Recommendation(userId, rs.getString("firstName"),
+                            rs.getString("lastName"), lastActive.get(userId)));
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * A recommended user.
+     */
+    public static class Recommendation {
+
+        private final String userId;
+        private final String firstName;
+        private final String lastName;
+        private final Timestamp lastActive;
+        // Followees of the user that follow this user. Zero for
+        // recently active users that fill up the list.
+        private int mutual;
+        private double score;
+
+        Recommendation(String userId, String firstName, String lastName, Timestamp lastActive) {
+            this.userId = userId;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.lastActive = lastActive;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getFirstName() {
+            return firstName;
+        }
+
+        public String getLastName() {
+            return lastName;
+        }
+
+        /**
+         * Returns the time of the user's last post or null if they never posted.
+         */
+        public Timestamp getLastActive() {
+            return lastActive;
+        }
+    }
+
+    /**
+     * The candidates and recommendations of a user and when they were
+     * computed. Updates hold lock, which is a lock instead of a monitor
+     * because it is held during queries. See ThreadMode.
+     */
+    private static class CachedList {
+        final ReentrantLock lock = new ReentrantLock();
+        // Friends of friends by user id.
+        final Map<Integer, Recommendation> candidates = new HashMap<>();
+        // Recently active users, most recent first.
+        List<Recommendation> recentlyActive = List.of();
+        volatile List<Recommendation> recommendations = List.of();
+        volatile long computedAt;
+    }
+
+}
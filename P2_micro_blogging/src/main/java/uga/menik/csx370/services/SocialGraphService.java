@@ -0,0 +1,283 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.components.ReadYourWrites;
+
+/**
+ * This service caches the follows table as adjacency lists.
+ * For every cached user it keeps a sorted int[] of the users they follow
+ * and a sorted int[] of their followers. An int[] costs 4 bytes per edge
+ * where a List of boxed ids costs a pointer plus an object per edge, and
+ * sorted arrays give O(log n) isFollowing checks by binary search.
+ *
+ * Lists are loaded from the database the first time they are needed.
+ * Follow and unfollow hand the change to ToggleWriteService, which writes
+ * it with the next group of clicks, and update the cached lists right
+ * away. Lists loaded before the change is written include it. Arrays are
+ * never changed in place; a change installs a new array, so readers need
+ * no locking.
+ * The cache holds at most maxCachedEdges ids in total. When it is over
+ * that the least recently used lists are evicted.
+ */
+@Service
+public class SocialGraphService {
+
+    // dataSource enables talking to the database.
+    private final DataSource dataSource;
+    // readYourWrites sends the follower's next reads to the primary.
+    private final ReadYourWrites readYourWrites;
+    // toggleWriteService writes follows in groups.
+    private final ToggleWriteService toggleWriteService;
+    // Upper bound of ids held by both caches together.
+    private final long maxCachedEdges;
+    // Followee ids by follower id in least recently used order.
+    private final Map<Integer, int[]> followees = new LinkedHashMap<>(16, 0.75f, true);
+    // Follower ids by followee id in least recently used order.
+    private final Map<Integer, int[]> followers = new LinkedHashMap<>(16, 0.75f, true);
+    // Number of ids currently held by both caches. Guarded by this.
+    private long cachedEdges = 0;
+    // Number of follow changes so far. A list loaded while a change
+    // happened may be stale and is not cached. Guarded by this.
+    private long changeCount = 0;
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public SocialGraphService(DataSource dataSource, ReadYourWrites readYourWrites,
+            ToggleWriteService toggleWriteService,
+            @Value("${app.graph.max-cached-edges:5000000}") long maxCachedEdges) {
+        this.dataSource = dataSource;
+        this.readYourWrites = readYourWrites;
+        this.toggleWriteService = toggleWriteService;
+        this.maxCachedEdges = maxCachedEdges;
+    }
+
+    /**
+     * Returns true if follower follows followee.
+     */
+    public boolean isFollowing(String followerId, String followeeId) throws SQLException {
+        return Arrays.binarySearch(getFollowees(followerId), Integer.parseInt(followeeId)) >= 0;
+    }
+
+    /**
+     * Returns the sorted ids of the users the user follows.
+     * The returned array must not be changed.
+     */
+    public int[] getFollowees(String userId) throws SQLException {
+        return getOrLoad(followees, Integer.parseInt(userId),
+                "select followee_id from follows where follower_id = ? order by followee_id");
+    }
+
+    /**
+     * Returns the sorted ids of the followers of the user.
+     * The returned array must not be changed.
+     */
+    public int[] getFollowers(String userId) throws SQLException {
+        return getOrLoad(followers, Integer.parseInt(userId),
+                "select follower_id from follows where followee_id = ? order by follower_id");
+    }
+
+    /**
+     * Returns the number of followers of the user without loading the
+     * whole list if it is not cached.
+     */
+    public int getFollowerCount(String userId) throws SQLException {
+        int id = Integer.parseInt(userId);
+        synchronized (this) {
+            int[] cached = followers.get(id);
+            if (cached != null) {
+                return cached.length;
+            }
+        }
+        final String sql = "select count(*) from follows where followee_id = ?";
+        try (Connection conn = dataSource.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Makes follower follow followee. Following twice has no effect.
+     */
+    public void follow(String followerId, String followeeId) throws SQLException {
+        setEdge(followerId, followeeId, true);
+    }
+
+    /**
+     * Makes follower stop following followee.
+     */
+    public void unfollow(String followerId, String followeeId) throws SQLException {
+        setEdge(followerId, followeeId, false);
+    }
+
+    /**
+     * Hands the edge change to ToggleWriteService and applies it to the
+     * cached lists right away.
+     */
+    private void setEdge(String followerId, String followeeId, boolean isAdd)
+            throws SQLException {
+        toggleWriteService.set(ToggleWriteService.Kind.FOLLOW, followerId, followeeId, isAdd);
+        readYourWrites.recordWrite(followerId);
+        updateCached(Integer.parseInt(followerId), Integer.parseInt(followeeId), isAdd);
+    }
+
+    /**
+     * Applies an edge change to the cached lists.
+     */
+    private void updateCached(int followerId, int followeeId, boolean isAdd) {
+        synchronized (this) {
+            changeCount++;
+            updateCached(followees, followerId, followeeId, isAdd);
+            updateCached(followers, followeeId, followerId, isAdd);
+        }
+    }
+
+    /**
+     * Replaces the cached list of key with a copy that has id added or
+     * removed. Lists that are not cached are left alone.
+     */
+    private void updateCached(Map<Integer, int[]> cache, int key, int id, boolean isAdd) {
+        int[] ids = cache.get(key);
+        if (ids == null) {
+            return;
+        }
+        int index = Arrays.binarySearch(ids, id);
+        int[] updated;
+        if (isAdd && index < 0) {
+            int insertAt = -index - 1;
+            updated = new int[ids.length + 1];
+            System.arraycopy(ids, 0, updated, 0, insertAt);
+            updated[insertAt] = id;
+            System.arraycopy(ids, insertAt, updated, insertAt + 1, ids.length - insertAt);
+        } else if (!isAdd && index >= 0) {
+            updated = new int[ids.length - 1];
+            System.arraycopy(ids, 0, updated, 0, index);
+            System.arraycopy(ids, index + 1, updated, index, ids.length - index - 1);
+        } else {
+            return;
+        }
+        cache.put(key, updated);
+        cachedEdges += updated.length - ids.length;
+    }
+
+    /**
+     * Returns the cached list of key or loads it with the query.
+     */
+    private int[] getOrLoad(Map<Integer, int[]> cache, int key, String sql) throws SQLException {
+        long changeCountAtLoad;
+        synchronized (this) {
+            int[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            changeCountAtLoad = changeCount;
+        }
+        // Changes not written yet. Taken before the query so a change
+        // written meanwhile is either seen here or by the query.
+        Map<Integer, Boolean> pendingEdges = cache == followees
+                ? toggleWriteService.getPendingOfUser(ToggleWriteService.Kind.FOLLOW, key)
+                : toggleWriteService.getPendingOfTarget(ToggleWriteService.Kind.FOLLOW, key);
+
+        int[] ids = new int[16];
+        int size = 0;
+        try (Connection conn = dataSource.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, size * 2);
+                    }
+                    ids[size++] = rs.getInt(1);
+                }
+            }
+        }
+        ids = applyPending(Arrays.copyOf(ids, size), pendingEdges);
+
+        synchronized (this) {
+            // Another thread may have loaded or changed it meanwhile.
+            int[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            if (changeCount != changeCountAtLoad) {
+                return ids;
+            }
+            cache.put(key, ids);
+            cachedEdges += ids.length;
+            evictIfNeeded();
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the sorted ids with the pending changes applied.
+     */
+    private static int[] applyPending(int[] ids, Map<Integer, Boolean> pendingEdges) {
+        if (pendingEdges.isEmpty()) {
+            return ids;
+        }
+        Set<Integer> merged = new TreeSet<>();
+        for (int id : ids) {
+            merged.add(id);
+        }
+        for (Map.Entry<Integer, Boolean> edge : pendingEdges.entrySet()) {
+            if (edge.getValue()) {
+                merged.add(edge.getKey());
+            } else {
+                merged.remove(edge.getKey());
+            }
+        }
+        int[] result = new int[merged.size()];
+        int i = 0;
+        for (int id : merged) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Drops least recently used lists until the cache is within budget.
+     * Must be called while holding the lock.
+     */
+    private void evictIfNeeded() {
+        while (cachedEdges > maxCachedEdges && (!followees.isEmpty() || !followers.isEmpty())) {
+            // Evict from the larger cache first.
+            Map<Integer, int[]> cache = followers.size() >= followees.size() ? followers : followees;
+            if (cache.isEmpty()) {
+                cache = cache == followers ? followees : followers;
+            }
+            Iterator<int[]> eldest = cache.values().iterator();
+            cachedEdges -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.utility.Utility;
+
+/**
+ * This service keeps a materialized home timeline for each user.
+ * A timeline is a capped list of post keys sorted from newest to oldest.
+ * When a post is created its id is pushed into the timelines of the
+ * author's followers (fan-out-on-write) so that the home page does not
+ * have to join posts with follows on every load.
+ *
+ * Users with more than celebrityFollowerThreshold followers are not fanned
+ * out. Their posts are merged into the timeline at read time instead
+ * (fan-out-on-read) so one post does not turn into millions of writes.
+ *
+ * Only timelines of recently active users are kept in memory. A timeline
+ * that is not in memory is rebuilt from the database on the next read, so
+ * fan-out only has to touch the timelines that are resident.
+ * Rebuilding asks the shards of the followed users for their newest
+ * posts in parallel and merges the answers. See ShardRouter.
+ */
+@Service
+public class TimelineService {
+
+    // shardRouter knows where the posts of each user are. Timelines only read.
+    private final ShardRouter shardRouter;
+    // socialGraphService knows who follows whom.
+    private final SocialGraphService socialGraphService;
+    // Maximum number of post keys kept per timeline.
+    private final int capacity;
+    // Authors with more followers than this are merged at read time.
+    private final int celebrityFollowerThreshold;
+    // Resident timelines in least recently used order.
+    private final Map<String, Timeline> timelines;
+    // Authors whose posts are not fanned out.
+    private final Set<String> celebrityUserIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public TimelineService(ShardRouter shardRouter, SocialGraphService socialGraphService,
+            @Value("${app.timeline.capacity:800}") int capacity,
+            @Value("${app.timeline.celebrity-follower-threshold:10000}") int celebrityFollowerThreshold,
+            @Value("${app.timeline.max-resident:10000}") int maxResident) {
+        this.shardRouter = shardRouter;
+        this.socialGraphService = socialGraphService;
+        this.capacity = capacity;
+        this.celebrityFollowerThreshold = celebrityFollowerThreshold;
+        this.timelines = Collections.synchronizedMap(
+                new LinkedHashMap<String, Timeline>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Timeline> eldest) {
+                        return size() > maxResident;
+                    }
+                });
+    }
+
+    /**
+     * Pushes a newly created post into the author's own timeline and into
+     * the resident timelines of the author's followers.
+     * Celebrity authors only get the post in their own timeline.
+     */
+    public void fanOutPost(String authorId, PostKey post) throws SQLException {
+        long key = post.toLong();
+        pushIfResident(authorId, key);
+
+        // Check the count first so a celebrity's followers are never loaded.
+        if (socialGraphService.getFollowerCount(authorId) > celebrityFollowerThreshold) {
+            // Once an author is a celebrity their posts are always read
+            // at query time. Older fanned out posts are deduplicated on read.
+            celebrityUserIds.add(authorId);
+            return;
+        }
+        for (int followerId : socialGraphService.getFollowers(authorId)) {
+            pushIfResident(String.valueOf(followerId), key);
+        }
+    }
+
+    /**
+     * Returns a page of the home timeline of the user, newest first.
+     * If cursor is given only posts that come after it are returned.
+     * This is keyset pagination on (created_at, postId): the next page is
+     * requested with the cursor of the current page.
+     */
+    public PostPage getTimelinePage(String userId, PostKey cursor, int limit)
+            throws SQLException {
+        long before = cursor == null ? Long.MAX_VALUE : cursor.toLong();
+        Timeline timeline = getOrBuildTimeline(userId);
+
+        // Read one more than the limit to know if there is a next page.
+        List<Long> keys = timeline.page(before, limit + 1);
+        if (keys.size() <= limit && !timeline.isComplete()) {
+            // The capped list ran out. Continue from the database below the
+            // oldest key we have seen.
+            long from = keys.isEmpty() ? Math.min(before, timeline.oldest()) : keys.get(keys.size() - 1);
+            keys.addAll(queryFeedKeys(userId, from, limit + 1 - keys.size()));
+        }
+
+        if (!celebrityUserIds.isEmpty()) {
+            keys = mergeNewestFirst(keys, queryCelebrityKeys(userId, before, limit + 1), limit + 1);
+        }
+
+        List<PostKey> postKeys = new ArrayList<>();
+        for (long key : keys) {
+            postKeys.add(PostKey.fromLong(key));
+        }
+        return PostPage.fromKeys(postKeys, limit);
+    }
+
+    /**
+     * Drops the resident timeline of the user. The next read rebuilds it.
+     * This should be called when the set of users the user follows changes.
+     */
+    public void invalidate(String userId) {
+        timelines.remove(userId);
+    }
+
+    /**
+     * Adds the post key to the timeline of the user if it is in memory.
+     */
+    private void pushIfResident(String userId, long key) {
+        Timeline timeline = timelines.get(userId);
+        if (timeline != null) {
+            timeline.push(key);
+        }
+    }
+
+    /**
+     * Returns the resident timeline of the user or builds it from the
+     * database.
+     */
+    private Timeline getOrBuildTimeline(String userId) throws SQLException {
+        Timeline timeline = timelines.get(userId);
+        if (timeline != null) {
+            return timeline;
+        }
+
+        List<Long> keys = queryFeedKeys(userId, Long.MAX_VALUE, capacity);
+        timeline = new Timeline(capacity, keys, keys.size() < capacity);
+        Timeline existing = timelines.putIfAbsent(userId, timeline);
+        return existing != null ? existing : timeline;
+    }
+
+    /**
+     * Reads post keys of the user and the users they follow directly from
+     * the databases. Used to build timelines and to page past their cap.
+     */
+    private List<Long> queryFeedKeys(String userId, long before, int limit)
+            throws SQLException {
+        List<String> authorIds = new ArrayList<>();
+        authorIds.add(userId);
+        for (int followeeId : socialGraphService.getFollowees(userId)) {
+            authorIds.add(String.valueOf(followeeId));
+        }
+        return queryAuthorKeys(authorIds, before, limit);
+    }
+
+    /**
+     * Reads recent posts of the celebrities the user follows.
+     * This is the fan-out-on-read half of the timeline.
+     */
+    private List<Long> queryCelebrityKeys(String userId, long before, int limit)
+            throws SQLException {
+        List<String> followedCelebrities = new ArrayList<>();
+        for (String celebrityId : celebrityUserIds) {
+            if (socialGraphService.isFollowing(userId, celebrityId)) {
+                followedCelebrities.add(celebrityId);
+            }
+        }
+        return queryAuthorKeys(followedCelebrities, before, limit);
+    }
+
+    /**
+     * Reads the newest post keys below before written by any of the
+     * authors. Each shard is asked for the authors it holds and the
+     * answers are merged newest first.
+     */
+    private List<Long> queryAuthorKeys(List<String> authorIds, long before, int limit)
+            throws SQLException {
+        if (authorIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Shard, List<String>> groups = shardRouter.groupUsers(authorIds);
+        List<Long> merged = new ArrayList<>();
+        for (List<Long> keys : shardRouter.scatter(groups.keySet(), shard -> {
+            List<String> shardAuthorIds = groups.get(shard);
+            final String sql = "select p.postId, p.created_at from posts p "
+                    + "where p.userId in (" + Utility.placeholders(shardAuthorIds.size()) + ") "
+                    + "and " + Utility.KEYSET_CONDITION
+                    + " order by p.created_at desc, p.postId desc limit ?";
+            try (Connection conn = shard.getReadDataSource().getConnection();
+                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (String authorId : shardAuthorIds) {
+                    pstmt.setString(index++, authorId);
+                }
+                index = Utility.setKeysetParameters(pstmt, index, toCursor(before));
+                pstmt.setInt(index, limit);
+                return readKeys(pstmt);
+            }
+        })) {
+            merged = mergeNewestFirst(merged, keys, limit);
+        }
+        return merged;
+    }
+
+    /**
+     * Runs the query and packs the postId and created_at of each row.
+     */
+    private static List<Long> readKeys(PreparedStatement pstmt) throws SQLException {
+        List<Long> keys = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                keys.add(new PostKey(rs.getTimestamp("created_at"), rs.getInt("postId")).toLong());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Turns a packed key back into a cursor. Long.MAX_VALUE means no cursor.
+     */
+    private static PostKey toCursor(long before) {
+        return before == Long.MAX_VALUE ? null : PostKey.fromLong(before);
+    }
+
+    /**
+     * Merges two lists that are sorted newest first into one list of at
+     * most limit keys without duplicates.
+     */
+    private static List<Long> mergeNewestFirst(List<Long> a, List<Long> b, int limit) {
+        List<Long> merged = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (merged.size() < limit && (i < a.size() || j < b.size())) {
+            long next;
+            if (j >= b.size() || (i < a.size() && a.get(i) >= b.get(j))) {
+                next = a.get(i++);
+            } else {
+                next = b.get(j++);
+            }
+            if (merged.isEmpty() || merged.get(merged.size() - 1) != next) {
+                merged.add(next);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * A capped array of packed post keys sorted in descending order.
+     * See PostKey.toLong for how a key sorts by (created_at, postId).
+     */
+    private static class Timeline {
+
+        private final long[] keys;
+        private int size;
+        // True if the timeline holds every post of the feed.
+        private boolean complete;
+
+        Timeline(int capacity, List<Long> newestFirst, boolean complete) {
+            this.keys = new long[capacity];
+            for (long key : newestFirst) {
+                keys[size++] = key;
+            }
+            this.complete = complete;
+        }
+
+        synchronized void push(long key) {
+            int index = indexOfFirstBelow(key + 1);
+            if (index < size && keys[index] == key) {
+                return;
+            }
+            if (size == keys.length) {
+                if (index == size) {
+                    return;
+                }
+                // Drop the oldest key to make room.
+                size--;
+                complete = false;
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            keys[index] = key;
+            size++;
+        }
+
+        synchronized List<Long> page(long before, int limit) {
+            List<Long> page = new ArrayList<>();
+            for (int i = indexOfFirstBelow(before); i < size && page.size() < limit; i++) {
+                page.add(keys[i]);
+            }
+            return page;
+        }
+
+        synchronized long oldest() {
+            return size == 0 ? Long.MAX_VALUE : keys[size - 1];
+        }
+
+        synchronized boolean isComplete() {
+            return complete;
+        }
+
+        // Binary search for the first index holding a key smaller than key.
+        private int indexOfFirstBelow(long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+}
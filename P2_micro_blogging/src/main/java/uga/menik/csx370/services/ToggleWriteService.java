@@ -0,0 +1,407 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+
+/**
+ * This service writes hearts, bookmarks and follows in groups.
+ * The heart, bookmark and follow links are toggles that users click many
+ * times in a row. Writing every click in its own transaction costs a
+ * commit, and so a log flush, per click. Instead a click only records
+ * the state the user wants for the (user, target) pair in memory, so
+ * repeated clicks on the same pair collapse to the last one. Every flush
+ * interval the recorded states are written with one transaction per
+ * database: multi row inserts for the links that should exist and multi
+ * row deletes for the ones that should not.
+ *
+ * Until a state is written, readers ask getPending so users see their
+ * own clicks right away. A state leaves the pending map only after its
+ * transaction committed, so it is either pending or in the database. A
+ * failed transaction is retried with the next flush.
+ *
+ * Hearts change the hearts_count of the post. Which clicks really
+ * changed a link is only known when they are written, so the flush reads
+ * the existing likes of the batch with select for update first and gives
+ * the exact changes to PostCounterService.
+ */
+@Service
+public class ToggleWriteService {
+
+    /**
+     * The kinds of links written by this service.
+     */
+    public enum Kind {
+        HEART("likes", "user_id", "post_id"),
+        BOOKMARK("bookmarks", "user_id", "post_id"),
+        FOLLOW("follows", "follower_id", "followee_id");
+
+        private final String table;
+        private final String userColumn;
+        private final String targetColumn;
+
+        Kind(String table, String userColumn, String targetColumn) {
+            this.table = table;
+            this.userColumn = userColumn;
+            this.targetColumn = targetColumn;
+        }
+    }
+
+    // dataSource enables talking to the main database, which has follows.
+    private final DataSource dataSource;
+    // shardRouter knows the database that holds the likes of each post.
+    private final ShardRouter shardRouter;
+    // postCounterService maintains the hearts counters.
+    private final PostCounterService postCounterService;
+    // feedVersionService counts the changes of the feeds.
+    private final FeedVersionService feedVersionService;
+    // A click writes right away when more states than this are pending.
+    private final int maxPending;
+    // Largest number of rows in one insert or delete statement.
+    private final int maxStatementRows;
+    // Wanted state by user id and target id (see key) for each kind.
+    private final Map<Kind, Map<Long, Boolean>> pending = new EnumMap<>(Kind.class);
+    // Only one flush writes at a time. A lock since it is held during
+    // queries. See ThreadMode.
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // Numbers for getStats.
+    private final LongAdder clicks = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder transactions = new LongAdder();
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public ToggleWriteService(DataSource dataSource, ShardRouter shardRouter,
+            PostCounterService postCounterService, FeedVersionService feedVersionService,
+            @Value("${app.toggles.max-pending:100000}") int maxPending,
+            @Value("${app.toggles.max-statement-rows:500}") int maxStatementRows) {
+        this.dataSource = dataSource;
+        this.shardRouter = shardRouter;
+        this.postCounterService = postCounterService;
+        this.feedVersionService = feedVersionService;
+        this.maxPending = maxPending;
+        this.maxStatementRows = maxStatementRows;
+        for (Kind kind : Kind.values()) {
+            pending.put(kind, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Records that the link of the given kind from userId to targetId
+     * should exist (value true) or not. It is written with the next
+     * flush. If too many states are pending the caller writes them first.
+     * Ids that are not numbers, like the abc of /post/abc/heart/true, are
+     * refused with an SQLException since no row can have them.
+     */
+    public void set(Kind kind, String userId, String targetId, boolean value)
+            throws SQLException {
+        pending.get(kind).put(key(parseId(userId), parseId(targetId)), value);
+        clicks.increment();
+        if (countPending() > maxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the state of the link that is not written yet or null if
+     * there is none.
+     */
+    public Boolean getPending(Kind kind, String userId, String targetId) {
+        return pending.get(kind).get(key(Integer.parseInt(userId), Integer.parseInt(targetId)));
+    }
+
+    /**
+     * Returns the states not written yet of the links from userId by
+     * target id.
+     */
+    public Map<Integer, Boolean> getPendingOfUser(Kind kind, int userId) {
+        Map<Integer, Boolean> states = new HashMap<>();
+        for (Map.Entry<Long, Boolean> entry : pending.get(kind).entrySet()) {
+            if (userOf(entry.getKey()) == userId) {
+                states.put(targetOf(entry.getKey()), entry.getValue());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Returns the states not written yet of the links to targetId by
+     * user id.
+     */
+    public Map<Integer, Boolean> getPendingOfTarget(Kind kind, int targetId) {
+        Map<Integer, Boolean> states = new HashMap<>();
+        for (Map.Entry<Long, Boolean> entry : pending.get(kind).entrySet()) {
+            if (targetOf(entry.getKey()) == targetId) {
+                states.put(userOf(entry.getKey()), entry.getValue());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Writes all pending states. Hearts and bookmarks are written with one
+     * transaction per shard and follows with one on the main database.
+     * The first failure is thrown after all databases were tried.
+     */
+    @Scheduled(fixedDelayString = "${app.toggles.flush-interval-ms:5}")
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            Map<Kind, Map<Long, Boolean>> batch = new EnumMap<>(Kind.class);
+            for (Kind kind : Kind.values()) {
+                batch.put(kind, new HashMap<>(pending.get(kind)));
+            }
+
+            // Hearts and bookmarks by the shard of the post.
+            Map<Shard, Map<Kind, Map<Long, Boolean>>> shardBatches = new HashMap<>();
+            for (Kind kind : List.of(Kind.HEART, Kind.BOOKMARK)) {
+                for (Map.Entry<Long, Boolean> entry : batch.get(kind).entrySet()) {
+                    Shard shard = shardRouter.forPost(String.valueOf(targetOf(entry.getKey())));
+                    shardBatches.computeIfAbsent(shard, s -> new EnumMap<>(Kind.class))
+                            .computeIfAbsent(kind, k -> new HashMap<>())
+                            .put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            SQLException failure = null;
+            for (Map.Entry<Shard, Map<Kind, Map<Long, Boolean>>> shardBatch
+                    : shardBatches.entrySet()) {
+                try {
+                    // Likes change hearts counts. See PostCounterService.countedWrite.
+                    postCounterService.countedWrite(() -> {
+                        write(shardBatch.getKey().getWriteDataSource(), shardBatch.getValue());
+                        return null;
+                    });
+                } catch (SQLException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (!batch.get(Kind.FOLLOW).isEmpty()) {
+                try {
+                    write(dataSource, Map.of(Kind.FOLLOW, batch.get(Kind.FOLLOW)));
+                } catch (SQLException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many clicks were recorded and how many rows and
+     * transactions it took to write them.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clicks", clicks.sum());
+        stats.put("pending", countPending());
+        stats.put("rowsWritten", rowsWritten.sum());
+        stats.put("transactions", transactions.sum());
+        return stats;
+    }
+
+    /**
+     * Writes pending states when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() throws SQLException {
+        flush();
+    }
+
+    /**
+     * Writes the states of one database in one transaction. Afterwards
+     * the heart changes go to PostCounterService and the written states
+     * leave the pending map unless they were changed meanwhile.
+     */
+    private void write(DataSource target, Map<Kind, Map<Long, Boolean>> states)
+            throws SQLException {
+        Map<Integer, Integer> heartDeltas = new HashMap<>();
+        try (Connection conn = target.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<Kind, Map<Long, Boolean>> kindStates : states.entrySet()) {
+                    Kind kind = kindStates.getKey();
+                    List<Long> adds = new ArrayList<>();
+                    List<Long> removes = new ArrayList<>();
+                    for (Map.Entry<Long, Boolean> state : kindStates.getValue().entrySet()) {
+                        (state.getValue() ? adds : removes).add(state.getKey());
+                    }
+                    if (kind == Kind.HEART) {
+                        countHeartChanges(conn, adds, removes, heartDeltas);
+                    }
+                    for (List<Long> chunk : chunks(adds)) {
+                        execute(conn, "insert ignore into " + kind.table + " (" + kind.userColumn
+                                + ", " + kind.targetColumn + ") values " + pairs(chunk.size()),
+                                chunk);
+                    }
+                    for (List<Long> chunk : chunks(removes)) {
+                        execute(conn, "delete from " + kind.table + " where (" + kind.userColumn
+                                + ", " + kind.targetColumn + ") in (" + pairs(chunk.size()) + ")",
+                                chunk);
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        transactions.increment();
+
+        // The counts change before the states leave the pending map, so a
+        // reader that no longer sees a click as pending sees its count.
+        for (Map.Entry<Integer, Integer> delta : heartDeltas.entrySet()) {
+            postCounterService.addHearts(String.valueOf(delta.getKey()), delta.getValue());
+            feedVersionService.postActivity(String.valueOf(delta.getKey()));
+        }
+        for (Map.Entry<Kind, Map<Long, Boolean>> kindStates : states.entrySet()) {
+            Map<Long, Boolean> kindPending = pending.get(kindStates.getKey());
+            for (Map.Entry<Long, Boolean> state : kindStates.getValue().entrySet()) {
+                // A newer click with another state stays pending.
+                kindPending.remove(state.getKey(), state.getValue());
+            }
+            rowsWritten.add(kindStates.getValue().size());
+        }
+    }
+
+    /**
+     * Adds to deltas the hearts count change of each post: added likes that
+     * do not exist yet count one up and removed likes that exist one down.
+     * The existing likes are locked so other writers cannot change them
+     * before the commit.
+     */
+    private void countHeartChanges(Connection conn, List<Long> adds, List<Long> removes,
+            Map<Integer, Integer> deltas) throws SQLException {
+        List<Long> keys = new ArrayList<>(adds);
+        keys.addAll(removes);
+        Set<Long> existing = new HashSet<>();
+        for (List<Long> chunk : chunks(keys)) {
+            String sql = "select user_id, post_id from likes where (user_id, post_id) in ("
+                    + pairs(chunk.size()) + ") for update";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                setPairs(pstmt, chunk);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        existing.add(key(rs.getInt(1), rs.getInt(2)));
+                    }
+                }
+            }
+        }
+        for (long add : adds) {
+            if (!existing.contains(add)) {
+                deltas.merge(targetOf(add), 1, Integer::sum);
+            }
+        }
+        for (long remove : removes) {
+            if (existing.contains(remove)) {
+                deltas.merge(targetOf(remove), -1, Integer::sum);
+            }
+        }
+    }
+
+    private static void execute(Connection conn, String sql, List<Long> keys)
+            throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            setPairs(pstmt, keys);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void setPairs(PreparedStatement pstmt, List<Long> keys) throws SQLException {
+        int index = 1;
+        for (long key : keys) {
+            pstmt.setInt(index++, userOf(key));
+            pstmt.setInt(index++, targetOf(key));
+        }
+    }
+
+    /**
+     * Splits keys into lists of at most maxStatementRows.
+     */
+    private List<List<Long>> chunks(List<Long> keys) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += maxStatementRows) {
+            chunks.add(keys.subList(from, Math.min(keys.size(), from + maxStatementRows)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns "(?, ?), (?, ?), ..." with count pairs.
+     */
+    private static String pairs(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+        }
+        return sb.toString();
+    }
+
+    private long countPending() {
+        long count = 0;
+        for (Map<Long, Boolean> states : pending.values()) {
+            count += states.size();
+        }
+        return count;
+    }
+
+    private static int parseId(String id) throws SQLException {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            throw new SQLException("Not a valid id: " + id, e);
+        }
+    }
+
+    // Both ids of a link in one long.
+    private static long key(int userId, int targetId) {
+        return ((long) userId << 32) | (targetId & 0xFFFFFFFFL);
+    }
+
+    private static int userOf(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int targetOf(long key) {
+        return (int) key;
+    }
+
+}
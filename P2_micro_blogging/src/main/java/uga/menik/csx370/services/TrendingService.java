@@ -0,0 +1,234 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import uga.menik.csx370.models.TrendingHashtag;
+
+/**
+ * This service finds the most used hashtags of the last hour, day and
+ * week without querying the database.
+ * Tags of new posts are counted in count-min sketches, which estimate how
+ * often any tag was seen using a fixed amount of memory no matter how many
+ * distinct tags there are. Each window is split into time buckets with
+ * their own sketch. The window also keeps the sum of its buckets, and when
+ * a bucket gets too old it is subtracted from the sum and reused.
+ *
+ * Every window tracks a bounded set of candidate tags with the highest
+ * estimates and keeps its current top list ready, so reading the trending
+ * tags is just returning that list.
+ */
+@Service
+public class TrendingService {
+
+    /**
+     * The time windows trending tags are reported for.
+     */
+    public enum Window {
+        HOUR, DAY, WEEK
+    }
+
+    // Sketch size. Estimates are off by at most about 2 / SKETCH_WIDTH of
+    // all tag uses in the window with high probability.
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 2048;
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    // Number of tags in each top list.
+    private final int topN;
+    // Sliding windows by Window.
+    private final Map<Window, SlidingWindow> windows = new HashMap<>();
+
+    /**
+     * See AuthInterceptor notes regarding dependency injection and
+     * inversion of control.
+     */
+    @Autowired
+    public TrendingService(@Value("${app.trending.top-n:10}") int topN) {
+        this.topN = topN;
+        long now = System.currentTimeMillis();
+        // Several candidates per reported tag so that tags can climb.
+        int candidates = topN * 4;
+        windows.put(Window.HOUR, new SlidingWindow(12, 5 * MINUTE, candidates, now));
+        windows.put(Window.DAY, new SlidingWindow(24, HOUR, candidates, now));
+        windows.put(Window.WEEK, new SlidingWindow(28, 6 * HOUR, candidates, now));
+    }
+
+    /**
+     * Counts one use of each of the tags in every window.
+     * Tags are given without the leading #.
+     */
+    public void recordTags(Collection<String> tags) {
+        long now = System.currentTimeMillis();
+        for (SlidingWindow window : windows.values()) {
+            window.record(tags, now);
+        }
+    }
+
+    /**
+     * Returns the most used tags of the window, most used first.
+     */
+    public List<TrendingHashtag> getTrending(Window window) {
+        return windows.get(window).getTop();
+    }
+
+    /**
+     * Moves the windows forward so that old buckets expire even when no
+     * posts are made.
+     */
+    @Scheduled(fixedDelay = MINUTE)
+    public void advanceWindows() {
+        long now = System.currentTimeMillis();
+        for (SlidingWindow window : windows.values()) {
+            window.advance(now);
+        }
+    }
+
+    /**
+     * A count-min sketch. Each row hashes a tag to one counter and the
+     * estimate is the smallest of the row counters.
+     */
+    private static class CountMinSketch {
+
+        private final int[][] counters = new int[SKETCH_DEPTH][SKETCH_WIDTH];
+
+        void add(String tag, int delta) {
+            int hash = tag.hashCode();
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                counters[row][index(hash, row)] += delta;
+            }
+        }
+
+        int estimate(String tag) {
+            int hash = tag.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                min = Math.min(min, counters[row][index(hash, row)]);
+            }
+            return min;
+        }
+
+        void subtract(CountMinSketch other) {
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                for (int col = 0; col < SKETCH_WIDTH; col++) {
+                    counters[row][col] -= other.counters[row][col];
+                }
+            }
+        }
+
+        void clear() {
+            for (int[] row : counters) {
+                Arrays.fill(row, 0);
+            }
+        }
+
+        // Mixes the hash with a different seed per row.
+        private static int index(int hash, int row) {
+            int h = hash * 0x9E3779B9 + row * 0x85EBCA6B;
+            h ^= h >>> 16;
+            h *= 0x7FEB352D;
+            h ^= h >>> 15;
+            return (h & Integer.MAX_VALUE) % SKETCH_WIDTH;
+        }
+    }
+
+    /**
+     * A window made of a ring of time buckets.
+     */
+    private class SlidingWindow {
+
+        private final CountMinSketch[] buckets;
+        private final long bucketMillis;
+        private final int maxCandidates;
+        // Sum of all bucket sketches.
+        private final CountMinSketch total = new CountMinSketch();
+        // Estimated counts of the tags that may be in the top list.
+        private final Map<String, Integer> candidates = new HashMap<>();
+        // Start time of the current bucket.
+        private long currentStart;
+        private int current;
+        // The current top list. Replaced, never changed.
+        private volatile List<TrendingHashtag> top = List.of();
+
+        SlidingWindow(int bucketCount, long bucketMillis, int maxCandidates, long now) {
+            this.buckets = new CountMinSketch[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new CountMinSketch();
+            }
+            this.bucketMillis = bucketMillis;
+            this.maxCandidates = maxCandidates;
+            this.currentStart = now - now % bucketMillis;
+        }
+
+        synchronized void record(Collection<String> tags, long now) {
+            advance(now);
+            for (String tag : tags) {
+                buckets[current].add(tag, 1);
+                total.add(tag, 1);
+                candidates.put(tag, total.estimate(tag));
+            }
+            // Drop the weakest candidates beyond the limit.
+            while (candidates.size() > maxCandidates) {
+                String weakest = null;
+                for (Map.Entry<String, Integer> entry : candidates.entrySet()) {
+                    if (weakest == null || entry.getValue() < candidates.get(weakest)) {
+                        weakest = entry.getKey();
+                    }
+                }
+                candidates.remove(weakest);
+            }
+            updateTop();
+        }
+
+        synchronized void advance(long now) {
+            int expired = 0;
+            while (now - currentStart >= bucketMillis && expired < buckets.length) {
+                // The next bucket is the oldest. Take it out of the total.
+                current = (current + 1) % buckets.length;
+                total.subtract(buckets[current]);
+                buckets[current].clear();
+                currentStart += bucketMillis;
+                expired++;
+            }
+            if (now - currentStart >= bucketMillis) {
+                // Every bucket expired. Start over from now.
+                currentStart = now - now % bucketMillis;
+            }
+            if (expired > 0) {
+                // Counts went down. Refresh the candidate estimates.
+                candidates.replaceAll((tag, count) -> total.estimate(tag));
+                candidates.values().removeIf(count -> count <= 0);
+                updateTop();
+            }
+        }
+
+        List<TrendingHashtag> getTop() {
+            return top;
+        }
+
+        private void updateTop() {
+            List<TrendingHashtag> sorted = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : candidates.entrySet()) {
+                sorted.add(new TrendingHashtag(entry.getKey(), entry.getValue()));
+            }
+            sorted.sort((a, b) -> Integer.compare(b.getCount(), a.getCount()));
+            top = List.copyOf(sorted.subList(0, Math.min(topN, sorted.size())));
+        }
+    }
+
+}
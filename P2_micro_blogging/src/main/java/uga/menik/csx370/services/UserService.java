@@ -9,52 +9,78 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.context.annotation.SessionScope;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import uga.menik.csx370.components.AuthTokenCodec;
 import uga.menik.csx370.models.User;
 
 /**
  * This is a service class that enables user related functions.
  * The class interacts with the database through a dataSource instance.
  * See authenticate and registerUser functions for examples.
- * This service object is spcial. It's lifetime is limited to a user session.
- * Usual services generally have application lifetime.
+ * The logged in user is kept for the current request's user in one of two
+ * ways, chosen with the app.auth.mode property:
+ * session - the user is stored in the servlet session on the server.
+ * token - the user is stored in a signed cookie (see AuthTokenCodec). No
+ * server state is kept, so any application node can serve any request.
  */
 @Service
-@SessionScope
 public class UserService {
 
+    // Session attribute holding the logged in user in session mode.
+    private static final String SESSION_USER_ATTRIBUTE = "loggedInUser";
+    // Request attribute caching the logged in user for one request.
+    private static final String REQUEST_USER_ATTRIBUTE = UserService.class.getName() + ".user";
+
     // dataSource enables talking to the database.
     private final DataSource dataSource;
-    // passwordEncoder is used for password security.
-    private final BCryptPasswordEncoder passwordEncoder;
-    // This holds 
-    private User loggedInUser = null;
+    // passwordHashingService is used for password security.
+    private final PasswordHashingService passwordHashingService;
+    // authTokenCodec signs and verifies login cookies in token mode.
+    private final AuthTokenCodec authTokenCodec;
+    // True if logins are kept in signed cookies instead of sessions.
+    private final boolean isTokenMode;
 
     /**
      * See AuthInterceptor notes regarding dependency injection and
      * inversion of control.
      */
     @Autowired
-    public UserService(DataSource dataSource) {
+    public UserService(DataSource dataSource, PasswordHashingService passwordHashingService,
+            AuthTokenCodec authTokenCodec, @Value("${app.auth.mode:session}") String authMode) {
         this.dataSource = dataSource;
-        this.passwordEncoder = new BCryptPasswordEncoder();
+        this.passwordHashingService = passwordHashingService;
+        this.authTokenCodec = authTokenCodec;
+        this.isTokenMode = "token".equalsIgnoreCase(authMode);
     }
 
     /**
      * Authenticate user given the username and the password and
-     * stores user object for the logged in user in session scope.
+     * stores user object for the logged in user in the session or in
+     * the login cookie.
      * Returns true if authentication is succesful. False otherwise.
+     * Throws RejectedExecutionException if too many passwords are being
+     * checked right now. The caller should ask the user to try again.
      */
     public boolean authenticate(String username, String password) throws SQLException {
         // Note the ? mark in the query. It is a place holder that we will later replace.
         final String sql = "select * from user where username = ?";
+        // The row is read first and the connection returned to the pool
+        // before the password is checked. The check may wait for the
+        // hashing pool and must not hold a connection meanwhile.
+        User user = null;
+        String storedPasswordHash = null;
         try (Connection conn = dataSource.getConnection();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
@@ -67,43 +93,83 @@ public class UserService {
                 // since username is unique.
                 while (rs.next()) {
                     // Note: rs.get.. functions access attributes of the current row.
-                    String storedPasswordHash = rs.getString("password");
-                    boolean isPassMatch = passwordEncoder.matches(password, storedPasswordHash);
-                    // Note: 
-                    if (isPassMatch) {
-                        String userId = rs.getString("userId");
-                        String firstName = rs.getString("firstName");
-                        String lastName = rs.getString("lastName");
-
-                        // Initialize and retain the logged in user.
-                        loggedInUser = new User(userId, firstName, lastName);
-                    }
-                    return isPassMatch;
+                    storedPasswordHash = rs.getString("password");
+                    user = new User(rs.getString("userId"), rs.getString("firstName"),
+                            rs.getString("lastName"));
                 }
             }
         }
-        return false;
+        if (user == null) {
+            // Spend the same time as a wrong password for unknown usernames.
+            return passwordHashingService.matchesDummy(password);
+        }
+
+        boolean isPassMatch = passwordHashingService.matches(password, storedPasswordHash);
+        if (isPassMatch) {
+            // Initialize and retain the logged in user.
+            signIn(user);
+
+            // Bring the stored hash to the current cost while
+            // we have the plain password.
+            if (passwordHashingService.needsRehash(storedPasswordHash)) {
+                rehashPassword(user.getUserId(), password);
+            }
+        }
+        return isPassMatch;
     }
 
     /**
      * Logs out the user.
      */
     public void unAuthenticate() {
-        loggedInUser = null;
+        HttpServletRequest request = currentRequest();
+        if (request == null) {
+            return;
+        }
+        request.removeAttribute(REQUEST_USER_ATTRIBUTE);
+        if (isTokenMode) {
+            authTokenCodec.clearCookie(currentResponse());
+        } else {
+            HttpSession session = request.getSession(false);
+            if (session != null) {
+                session.removeAttribute(SESSION_USER_ATTRIBUTE);
+            }
+        }
     }
 
     /**
      * Checks if a user is currently authenticated.
      */
     public boolean isAuthenticated() {
-        return loggedInUser != null;
+        return getLoggedInUser() != null;
     }
 
     /**
      * Retrieves the currently logged-in user.
+     * Returns null if there is no logged in user or no current request.
      */
     public User getLoggedInUser() {
-        return loggedInUser;
+        HttpServletRequest request = currentRequest();
+        if (request == null) {
+            return null;
+        }
+
+        // The cookie or session is only read once per request.
+        User user = (User) request.getAttribute(REQUEST_USER_ATTRIBUTE);
+        if (user != null) {
+            return user;
+        }
+
+        if (isTokenMode) {
+            user = authTokenCodec.readUser(request, currentResponse());
+        } else {
+            HttpSession session = request.getSession(false);
+            user = session == null ? null : (User) session.getAttribute(SESSION_USER_ATTRIBUTE);
+        }
+        if (user != null) {
+            request.setAttribute(REQUEST_USER_ATTRIBUTE, user);
+        }
+        return user;
     }
 
     /**
@@ -111,17 +177,21 @@ public class UserService {
      * Returns true if registration is successful. If the username already exists,
      * a SQLException is thrown due to the unique constraint violation, which should
      * be handled by the caller.
+     * Throws RejectedExecutionException if too many passwords are being
+     * hashed right now.
      */
     public boolean registerUser(String username, String password, String firstName, String lastName)
             throws SQLException {
         // Note the ? marks in the SQL statement. They are placeholders like mentioned above.
         final String registerSql = "insert into user (username, password, firstName, lastName) values (?, ?, ?, ?)";
+        // Hash before taking a connection. See authenticate.
+        String passwordHash = passwordHashingService.encode(password);
 
         try (Connection conn = dataSource.getConnection();
                 PreparedStatement registerStmt = conn.prepareStatement(registerSql)) {
             // Following lines replace the placeholders 1-4 with values.
             registerStmt.setString(1, username);
-            registerStmt.setString(2, passwordEncoder.encode(password));
+            registerStmt.setString(2, passwordHash);
             registerStmt.setString(3, firstName);
             registerStmt.setString(4, lastName);
 
@@ -131,4 +201,64 @@ public class UserService {
         }
     }
 
+    /**
+     * Stores a new hash of the password in the background.
+     * If the hashing pool is busy this is skipped and tried again at the
+     * next login.
+     */
+    private void rehashPassword(String userId, String password) {
+        final String sql = "update user set password = ? where userId = ?";
+        try {
+            passwordHashingService.encodeAsync(password).thenAccept(hash -> {
+                try (Connection conn = dataSource.getConnection();
+                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, hash);
+                    pstmt.setString(2, userId);
+                    pstmt.executeUpdate();
+                } catch (SQLException e) {
+                    System.out.println("Failed to rehash password of user " + userId + ": "
+                            + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The pool is full. The next login will try again.
+        }
+    }
+
+    /**
+     * Retains the user as the logged in user.
+     */
+    private void signIn(User user) {
+        HttpServletRequest request = currentRequest();
+        if (request == null) {
+            return;
+        }
+        if (isTokenMode) {
+            authTokenCodec.writeCookie(currentResponse(), user);
+        } else {
+            request.getSession(true).setAttribute(SESSION_USER_ATTRIBUTE, user);
+        }
+        request.setAttribute(REQUEST_USER_ATTRIBUTE, user);
+    }
+
+    /**
+     * Returns the request being handled by the current thread or null.
+     */
+    private static HttpServletRequest currentRequest() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return attributes.getRequest();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the response being written by the current thread or null.
+     */
+    private static HttpServletResponse currentResponse() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return attributes.getResponse();
+        }
+        return null;
+    }
+
 }
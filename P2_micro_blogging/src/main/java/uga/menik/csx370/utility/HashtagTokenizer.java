@@ -0,0 +1,58 @@
+package uga.menik.csx370.utility;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the hashtags in a post.
+ * A hashtag is a # followed by letters, digits or underscores, and the #
+ * must be at the start of the text or follow a character that is not part
+ * of a word. So "#fireworks!" has the tag fireworks and "a#b" has none.
+ * Tags are returned lower case without the #, in order of first
+ * appearance and without duplicates.
+ *
+ * The text is scanned once, character by character, so the cost is linear
+ * in the length of the post and cannot blow up the way a backtracking
+ * regular expression can on hostile input.
+ */
+public class HashtagTokenizer {
+
+    /**
+     * Longest tag that fits the hashtags.tag column. Longer tags are skipped.
+     */
+    public static final int MAX_TAG_LENGTH = 100;
+
+    public static List<String> extract(String text) {
+        Set<String> tags = new LinkedHashSet<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            boolean atWordStart = i == 0 || !isTagChar(text.charAt(i - 1));
+            if (c != '#' || !atWordStart) {
+                i++;
+                continue;
+            }
+
+            int start = i + 1;
+            int end = start;
+            while (end < length && isTagChar(text.charAt(end))) {
+                end++;
+            }
+            int tagLength = end - start;
+            if (tagLength > 0 && tagLength <= MAX_TAG_LENGTH) {
+                tags.add(text.substring(start, end).toLowerCase());
+            }
+            // Continue after the tag. A # right after it is not a new tag.
+            i = Math.max(end, i + 1);
+        }
+        return new ArrayList<>(tags);
+    }
+
+    private static boolean isTagChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+}
@@ -1,5 +1,9 @@
 package uga.menik.csx370.utility;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -7,10 +11,68 @@ import uga.menik.csx370.models.Comment;
 import uga.menik.csx370.models.ExpandedPost;
 import uga.menik.csx370.models.FollowableUser;
 import uga.menik.csx370.models.Post;
+import uga.menik.csx370.models.PostKey;
 import uga.menik.csx370.models.User;
 
 public class Utility {
 
+    // Dates are shown like Mar 07, 2024, 10:54 PM across the site.
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("MMM dd, yyyy, hh:mm a");
+
+    /**
+     * Formats a database timestamp the way dates are shown on the pages.
+     */
+    public static String formatDate(Timestamp timestamp) {
+        if (timestamp == null) {
+            return "";
+        }
+        return timestamp.toLocalDateTime().format(DATE_FORMAT);
+    }
+
+    /**
+     * Keyset pagination condition on posts aliased as p. It selects the
+     * posts that come after a cursor in (created_at, postId) descending
+     * order. Bind its parameters with setKeysetParameters.
+     * This is written out instead of a row comparison so that MySQL can
+     * use a range scan on an index over (created_at, postId).
+     */
+    public static final String KEYSET_CONDITION =
+            "(p.created_at < ? or (p.created_at = ? and p.postId < ?))";
+
+    // Used in place of a cursor on the first page.
+    private static final PostKey FIRST_PAGE = new PostKey(Timestamp.valueOf("9999-12-31 23:59:59"),
+            Integer.MAX_VALUE);
+
+    /**
+     * Binds the three parameters of KEYSET_CONDITION starting at index.
+     * A null cursor selects from the newest post.
+     * Returns the index of the next parameter.
+     */
+    public static int setKeysetParameters(PreparedStatement pstmt, int index, PostKey cursor)
+            throws SQLException {
+        PostKey key = cursor == null ? FIRST_PAGE : cursor;
+        pstmt.setTimestamp(index, key.getCreatedAtTimestamp());
+        pstmt.setTimestamp(index + 1, key.getCreatedAtTimestamp());
+        pstmt.setString(index + 2, key.getPostId());
+        return index + 3;
+    }
+
+    /**
+     * Returns a comma separated list of count ? place holders for
+     * building IN (...) lists in prepared statements.
+     */
+    public static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
     public static List<FollowableUser> createSampleFollowableUserList() {
         List<FollowableUser> followableUsers = new ArrayList<>();
         followableUsers.add(new FollowableUser("1", "John", "Doe",
@@ -0,0 +1,33 @@
+-- Secondary indexes for the queries the services run.
+-- Each index is named after the table and columns it covers.
+-- Indexes are built online so posts and likes stay writable meanwhile.
+
+-- Profile pages list the posts of one user newest first. Also serves the
+-- last active time of a user (max(created_at) per userId), the home feed
+-- lookups of followed users and the userId foreign key.
+CREATE INDEX idx_posts_user_created ON posts (userId, created_at, postId)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Listings of posts by time across users, such as hashtag search pages
+-- and the recently active users used by recommendations.
+CREATE INDEX idx_posts_created ON posts (created_at, postId)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Followers of a user and follower counts. The primary key only serves
+-- lookups by follower. Also serves the followee_id foreign key.
+CREATE INDEX idx_follows_followee ON follows (followee_id, follower_id)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Hearts of a post, used by counter reconciliation. The primary key
+-- only serves lookups by user. Also serves the post_id foreign key.
+CREATE INDEX idx_likes_post ON likes (post_id, user_id)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Bookmarks of a post. Also serves the post_id foreign key.
+CREATE INDEX idx_bookmarks_post ON bookmarks (post_id, user_id)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Posts of a hashtag for hashtag search. The primary key only serves
+-- lookups by post. Also serves the hashtag_id foreign key.
+CREATE INDEX idx_post_hashtags_tag ON post_hashtags (hashtag_id, post_id)
+    ALGORITHM=INPLACE LOCK=NONE;
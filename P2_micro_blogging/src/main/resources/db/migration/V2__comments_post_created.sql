@@ -0,0 +1,10 @@
+-- Index for the comments of a post, oldest first.
+-- Built online so comments stay writable meanwhile.
+
+-- The post page and its load more comments link read one page of the
+-- comments of a post after a cursor. This index serves the seek and the
+-- order without a sort and holds user_id for the author lookup, so only
+-- the content of the comments on the page is read from the table rows.
+-- New databases get it from database_setup.sql already.
+CREATE INDEX idx_comments_post_created ON comments (post_id, created_at, commentId, user_id)
+    ALGORITHM=INPLACE LOCK=NONE;
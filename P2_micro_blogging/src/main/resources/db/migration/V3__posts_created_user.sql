@@ -0,0 +1,11 @@
+-- Adds userId to the index of posts by time.
+-- Rebuilt online so posts stay writable meanwhile.
+
+-- Recommendations read the authors of the newest posts across users.
+-- Without userId in the index every one of those posts is looked up in
+-- the table, and on a small table the optimizer scans and sorts all posts
+-- instead. With userId the read is a backward range scan of the index.
+-- New shard databases get it from database_shard_setup.sql already.
+ALTER TABLE posts DROP INDEX idx_posts_created,
+    ADD INDEX idx_posts_created (created_at, postId, userId),
+    ALGORITHM=INPLACE, LOCK=NONE;
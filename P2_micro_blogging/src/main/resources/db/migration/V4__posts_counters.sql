@@ -0,0 +1,19 @@
+-- Adds the heart and comment counter columns to posts and fills them.
+-- Databases created before the counters keep their old posts table, since
+-- database_setup.sql only creates tables that do not exist. New databases
+-- get the columns from database_setup.sql and database_shard_setup.sql
+-- already, so the ALTER is skipped there and the backfill only recounts.
+
+-- Added in place without copying or locking posts.
+ALTER TABLE posts
+    ADD COLUMN hearts_count INT NOT NULL DEFAULT 0,
+    ADD COLUMN comments_count INT NOT NULL DEFAULT 0,
+    ALGORITHM=INSTANT;
+
+-- Counts the likes and comments rows of each post. Running it again gives
+-- the same counts, and PostCounterService reconciles any drift later.
+-- @backfill posts postId
+UPDATE posts p SET
+    p.hearts_count = (SELECT count(*) FROM likes l WHERE l.post_id = p.postId),
+    p.comments_count = (SELECT count(*) FROM comments c WHERE c.post_id = p.postId)
+    WHERE p.postId > ? AND p.postId <= ?;
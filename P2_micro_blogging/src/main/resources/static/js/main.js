@@ -20,4 +20,69 @@ document.addEventListener('DOMContentLoaded', function () {
             }
         });
     }
+
+    // Load more links fetch the next page and append its posts in place.
+    // Without javascript the link just opens the next page.
+    document.addEventListener('click', function (e) {
+        var link = e.target.closest('.load-more-link');
+        if (!link) {
+            return;
+        }
+        e.preventDefault();
+        var wrapper = link.parentElement;
+        var posts = wrapper.parentElement.querySelector('.posts');
+        fetch(link.href)
+            .then(function (response) { return response.text(); })
+            .then(function (html) {
+                var page = new DOMParser().parseFromString(html, 'text/html');
+                var container = page.querySelector('.posts');
+                if (container) {
+                    while (container.firstElementChild) {
+                        posts.appendChild(container.firstElementChild);
+                    }
+                }
+                // Replace this link with the one of the fetched page if any.
+                var next = page.querySelector('.load-more');
+                if (next) {
+                    wrapper.replaceWith(next);
+                } else {
+                    wrapper.remove();
+                }
+            })
+            .catch(function () {
+                // Fall back to a full page load.
+                window.location = link.href;
+            });
+    });
+
+    // Load more comments links fetch the next page of comments as a
+    // fragment and insert its comments above the link.
+    document.addEventListener('click', function (e) {
+        var link = e.target.closest('.load-more-comments-link');
+        if (!link) {
+            return;
+        }
+        e.preventDefault();
+        var wrapper = link.parentElement;
+        fetch(link.href)
+            .then(function (response) { return response.text(); })
+            .then(function (html) {
+                var template = document.createElement('template');
+                template.innerHTML = html;
+                var next = template.content.querySelector('.load-more-comments');
+                if (next) {
+                    next.remove();
+                }
+                wrapper.parentElement.insertBefore(template.content, wrapper);
+                // Replace this link with the one of the fetched page if any.
+                if (next) {
+                    wrapper.replaceWith(next);
+                } else {
+                    wrapper.remove();
+                }
+            })
+            .catch(function () {
+                window.location = link.href;
+            });
+    });
 });
@@ -0,0 +1,208 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+
+/**
+ * Gives tests their own databases on a MariaDB server that runs inside
+ * the test JVM. The server is started by the first test that asks for a
+ * database and stops when the JVM exits, so a test run needs no MySQL
+ * installation. Every database is created from the same scripts as the
+ * real ones: database_setup.sql for a main database and
+ * database_shard_setup.sql for a shard.
+ */
+public final class TestDatabase {
+
+    private static final String USERNAME = "root";
+    private static final String PASSWORD = "";
+
+    private static DB server;
+    private static int port;
+
+    private TestDatabase() {
+    }
+
+    /**
+     * Creates an empty main database with the given name, replacing one
+     * left over from an earlier run, and returns a pool connected to it.
+     */
+    public static HikariDataSource createMain(String name) throws SQLException {
+        return create(name, "database_setup.sql");
+    }
+
+    /**
+     * Creates an empty shard database with the given name. See
+     * createMain.
+     */
+    public static HikariDataSource createShard(String name) throws SQLException {
+        return create(name, "database_shard_setup.sql");
+    }
+
+    /**
+     * Returns the JDBC URL of the database with the given name.
+     */
+    public static synchronized String url(String name) {
+        start();
+        return "jdbc:mysql://localhost:" + port + "/" + name;
+    }
+
+    /**
+     * Returns a new pool connected to the database with the given name.
+     */
+    public static HikariDataSource connect(String name, int maxPoolSize) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setJdbcUrl(url(name));
+        pool.setUsername(USERNAME);
+        pool.setPassword(PASSWORD);
+        pool.setMaximumPoolSize(maxPoolSize);
+        pool.setMinimumIdle(0);
+        return pool;
+    }
+
+    /**
+     * Runs the statements on the database behind dataSource.
+     */
+    public static void execute(DataSource dataSource, String... statements)
+            throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+                Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Returns dataSource with every statement prepared or created on its
+     * connections counted in counter.
+     */
+    public static DataSource counting(DataSource dataSource, AtomicInteger counter) {
+        return (DataSource) Proxy.newProxyInstance(TestDatabase.class.getClassLoader(),
+                new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                    Object result = invoke(dataSource, method, args);
+                    if (result instanceof Connection conn) {
+                        return countingConnection(conn, counter);
+                    }
+                    return result;
+                });
+    }
+
+    private static Connection countingConnection(Connection conn, AtomicInteger counter) {
+        return (Connection) Proxy.newProxyInstance(TestDatabase.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("prepareStatement") || name.equals("createStatement")
+                            || name.equals("prepareCall")) {
+                        counter.incrementAndGet();
+                    }
+                    return invoke(conn, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static HikariDataSource create(String name, String script) throws SQLException {
+        String url = url("");
+        try (HikariDataSource admin = new HikariDataSource()) {
+            admin.setJdbcUrl(url);
+            admin.setUsername(USERNAME);
+            admin.setPassword(PASSWORD);
+            admin.setMaximumPoolSize(1);
+            execute(admin, "drop database if exists " + name, "create database " + name);
+        }
+        HikariDataSource pool = connect(name, 10);
+        List<String> statements = new ArrayList<>();
+        for (String sql : readStatements(script)) {
+            // The main script creates and selects its own database.
+            if (!sql.toLowerCase().startsWith("create database")
+                    && !sql.toLowerCase().startsWith("use ")) {
+                statements.add(sql);
+            }
+        }
+        execute(pool, statements.toArray(new String[0]));
+        return pool;
+    }
+
+    /**
+     * Splits a script at semicolons that end a line, like MigrationService.
+     */
+    private static List<String> readStatements(String script) {
+        String text;
+        try {
+            text = Files.readString(Path.of(script), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + script, e);
+        }
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : text.split("\\R")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("--") || trimmed.isEmpty()) {
+                continue;
+            }
+            current.append(trimmed).append('\n');
+            if (trimmed.endsWith(";")) {
+                String statement = current.toString().trim();
+                statements.add(statement.substring(0, statement.length() - 1));
+                current.setLength(0);
+            }
+        }
+        if (!current.toString().isBlank()) {
+            statements.add(current.toString().trim());
+        }
+        return statements;
+    }
+
+    private static void start() {
+        if (server != null) {
+            return;
+        }
+        try {
+            DBConfigurationBuilder config = DBConfigurationBuilder.newBuilder();
+            // Any free port, so runs do not clash with a local MySQL.
+            config.setPort(0);
+            // MariaDB refuses to run as root unless told to.
+            if ("root".equals(System.getProperty("user.name"))) {
+                config.addArg("--user=root");
+            }
+            DB db = DB.newEmbeddedDB(config.build());
+            db.start();
+            port = db.getConfiguration().getPort();
+            server = db;
+        } catch (ManagedProcessException e) {
+            throw new IllegalStateException("The test database server did not start.", e);
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.models.BasicPost;
+import uga.menik.csx370.models.Post;
+import uga.menik.csx370.models.User;
+
+/**
+ * Compares the time and allocation of rendering a posts_page with 50
+ * posts three ways: without a fragment cache, with post bodies cached as
+ * Strings and written through a plain OutputStreamWriter, and with
+ * FragmentCache splicing bodies cached as bytes into an
+ * EncodedResponseWriter. Every render goes into a reused byte buffer,
+ * like a response buffer. Allocation is the bytes the rendering thread
+ * allocated.
+ *
+ * Not part of the normal test run. Run it with
+ *   mvn test -Dtest=FragmentCacheBenchmark [-Drenders=20000]
+ */
+public class FragmentCacheBenchmark extends TestCase {
+
+    private static final int RENDERS = Integer.getInteger("renders", 20000);
+    private static final int POSTS = 50;
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    private Template page;
+    private List<Post> posts;
+
+    @Override
+    protected void setUp() throws Exception {
+        page = new PrecompiledTemplates(Mustache.compiler(), "classpath:/templates/",
+                ".mustache", CHARSET).get("posts_page");
+        posts = new ArrayList<>();
+        for (int i = 1; i <= POSTS; i++) {
+            User user = new User(String.valueOf(i % 7 + 1), "First" + i, "Last" + i);
+            posts.add(new Post(String.valueOf(i), "Post number " + i + " about #tag" + i
+                    + " with some more words, <escaped> & ünicode.", "Mar 1, 2024, 10:0"
+                    + (i % 10) + " AM", user, i % 5, i % 3, i % 2 == 0, i % 7 == 0));
+        }
+    }
+
+    public void testRenderPostsPage() throws Exception {
+        Result none = measure("No fragment cache", new FragmentCache(0, CHARSET)
+                .cachedPostBody(), true);
+        Result strings = measure("String fragments", stringCache(), false);
+        Result bytes = measure("byte[] fragments", new FragmentCache(20000, CHARSET)
+                .cachedPostBody(), true);
+
+        assertEquals(none.page, strings.page);
+        assertEquals(none.page, bytes.page);
+        assertTrue("Splicing cached bytes should allocate less than encoding Strings.",
+                bytes.allocatedPerRender < strings.allocatedPerRender);
+    }
+
+    /**
+     * Renders the page RENDERS times after as many warm up renders and
+     * prints the time and allocation per render.
+     */
+    private Result measure(String name, Mustache.Lambda cachedPostBody, boolean encodedWriter)
+            throws Exception {
+        Map<String, Object> model = new HashMap<>();
+        model.put("posts", posts);
+        model.put("cachedPostBody", cachedPostBody);
+        model.put("asset", (Mustache.Lambda) (frag, out) -> frag.execute(out));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256 * 1024);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (int i = 0; i < RENDERS; i++) {
+            render(model, buffer, encodedWriter);
+        }
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < RENDERS; i++) {
+            render(model, buffer, encodedWriter);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        Result result = new Result(buffer.toString(CHARSET), allocated / RENDERS);
+        System.out.printf("%-18s %6.1f us/render %8d bytes allocated/render %7d bytes%n", name,
+                nanos / 1e3 / RENDERS, result.allocatedPerRender, buffer.size());
+        return result;
+    }
+
+    private void render(Map<String, Object> model, ByteArrayOutputStream buffer,
+            boolean encodedWriter) throws Exception {
+        buffer.reset();
+        Writer out = encodedWriter ? new EncodedResponseWriter(buffer, CHARSET)
+                : new OutputStreamWriter(buffer, CHARSET);
+        page.execute(model, out);
+        out.flush();
+    }
+
+    /**
+     * The cachedPostBody lambda as it was with Strings in the cache.
+     */
+    private static Mustache.Lambda stringCache() {
+        Map<String, String> fragments = Collections.synchronizedMap(new HashMap<>());
+        return (frag, out) -> {
+            String key = ((BasicPost) frag.context()).getRenderKey();
+            String rendered = fragments.get(key);
+            if (rendered == null) {
+                rendered = frag.execute();
+                fragments.put(key, rendered);
+            }
+            out.write(rendered);
+        };
+    }
+
+    private static class Result {
+        final String page;
+        final long allocatedPerRender;
+
+        Result(String page, long allocatedPerRender) {
+            this.page = page;
+            this.allocatedPerRender = allocatedPerRender;
+        }
+    }
+
+}
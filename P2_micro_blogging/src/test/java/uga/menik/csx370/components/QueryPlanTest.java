@@ -0,0 +1,218 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.models.CommentPage;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.services.FeedVersionService;
+import uga.menik.csx370.services.MigrationService;
+import uga.menik.csx370.services.PostCacheService;
+import uga.menik.csx370.services.PostCounterService;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
+import uga.menik.csx370.services.RecommendationService;
+import uga.menik.csx370.services.SocialGraphService;
+import uga.menik.csx370.services.TimelineService;
+import uga.menik.csx370.services.ToggleWriteService;
+
+/**
+ * Runs the hot queries of the services through a QueryPlanChecker that
+ * fails on a violation, so a query that loses its index fails the build.
+ * The database gets the migrations the app applies at startup and enough
+ * rows that a full scan or a sort of a whole table is over the row
+ * threshold: 50 users with 100 posts each, 20 follows per user, 4 hearts
+ * per post, 300 comments on one post and one or two hashtags per post.
+ */
+public class QueryPlanTest extends TestCase {
+
+    private static final int USERS = 50;
+    private static final int POSTS_PER_USER = 100;
+    private static final int FOLLOWS_PER_USER = 20;
+    private static final int COMMENTS = 300;
+    private static final int TAGS = 20;
+    private static final int ROW_THRESHOLD = 1000;
+    private static final int PAGE_SIZE = 20;
+
+    private HikariDataSource database;
+    private QueryPlanChecker checker;
+    private DataSource checked;
+    private ShardRouter shardRouter;
+    private ToggleWriteService toggleWriteService;
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("query_plan_test");
+        new MigrationService(database, database, true, 1000, 100000, 5).migrate();
+
+        List<String> inserts = new ArrayList<>();
+        StringBuilder rows = new StringBuilder();
+        for (int userId = 1; userId <= USERS; userId++) {
+            append(rows, "(" + userId + ", 'user" + userId + "', 'x', 'First', 'Last')");
+        }
+        inserts.add("insert into user (userId, username, password, firstName, lastName) values "
+                + rows);
+
+        rows.setLength(0);
+        StringBuilder tags = new StringBuilder();
+        StringBuilder hearts = new StringBuilder();
+        int postCount = USERS * POSTS_PER_USER;
+        for (int postId = 1; postId <= postCount; postId++) {
+            // Posts alternate between users and are a minute apart.
+            append(rows, "(" + postId + ", " + (postId % USERS + 1) + ", 'post " + postId
+                    + "', timestamp '2024-01-01 00:00:00' + interval " + postId + " minute)");
+            append(tags, "(" + postId + ", " + (postId % TAGS + 1) + ")");
+            if (postId % 3 == 0) {
+                append(tags, "(" + postId + ", " + ((postId + 7) % TAGS + 1) + ")");
+            }
+            for (int i = 0; i < 4; i++) {
+                append(hearts, "(" + ((postId + i * 13) % USERS + 1) + ", " + postId + ")");
+            }
+        }
+        inserts.add("insert into posts (postId, userId, content, created_at) values " + rows);
+
+        rows.setLength(0);
+        for (int tagId = 1; tagId <= TAGS; tagId++) {
+            append(rows, "(" + tagId + ", 'tag" + tagId + "')");
+        }
+        inserts.add("insert into hashtags (hashtagId, tag) values " + rows);
+        inserts.add("insert into post_hashtags (post_id, hashtag_id) values " + tags);
+        inserts.add("insert into likes (user_id, post_id) values " + hearts);
+
+        rows.setLength(0);
+        StringBuilder bookmarks = new StringBuilder();
+        for (int followerId = 1; followerId <= USERS; followerId++) {
+            for (int i = 1; i <= FOLLOWS_PER_USER; i++) {
+                append(rows, "(" + followerId + ", " + ((followerId + i - 1) % USERS + 1) + ")");
+            }
+            append(bookmarks, "(" + followerId + ", " + followerId * 3 + ")");
+        }
+        inserts.add("insert into follows (follower_id, followee_id) values " + rows);
+        for (int postId = 1; postId <= 200; postId++) {
+            append(bookmarks, "(1, " + postId * 11 + ")");
+        }
+        inserts.add("insert ignore into bookmarks (user_id, post_id) values " + bookmarks);
+
+        rows.setLength(0);
+        for (int i = 1; i <= COMMENTS; i++) {
+            append(rows, "(" + postCount + ", " + (i % USERS + 1) + ", 'comment " + i
+                    + "', timestamp '2024-02-01 00:00:00' + interval " + i + " minute)");
+        }
+        inserts.add("insert into comments (post_id, user_id, content, created_at) values "
+                + rows);
+        inserts.add("update posts set hearts_count = 4");
+        inserts.add("update posts set comments_count = " + COMMENTS + " where postId = "
+                + postCount);
+        inserts.add("analyze table user, posts, follows, likes, bookmarks, comments, hashtags, "
+                + "post_hashtags");
+        TestDatabase.execute(database, inserts.toArray(new String[0]));
+
+        checker = new QueryPlanChecker(true, ROW_THRESHOLD, true);
+        checked = checker.wrap(database);
+        shardRouter = new ShardRouter(1, List.of(new Shard(0, checked, checked)),
+                Executors.newCachedThreadPool());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (toggleWriteService != null) {
+            toggleWriteService.flush();
+        }
+        shardRouter.shutdown();
+        database.close();
+    }
+
+    public void testHotQueriesUseIndexes() throws Exception {
+        PostCacheService postCacheService = new PostCacheService(1000, 1000);
+        FeedVersionService feedVersionService = new FeedVersionService(postCacheService);
+        PostCounterService postCounterService = new PostCounterService(shardRouter,
+                feedVersionService, 1000);
+        toggleWriteService = new ToggleWriteService(checked, shardRouter, postCounterService,
+                feedVersionService, 1000, 500);
+        ReadYourWrites readYourWrites = new ReadYourWrites(5000);
+        SocialGraphService socialGraphService = new SocialGraphService(checked, readYourWrites,
+                toggleWriteService, 100000);
+        TimelineService timelineService = new TimelineService(shardRouter, socialGraphService,
+                100, 10000, 100);
+        PostService postService = new PostService(checked, checked, shardRouter,
+                postCounterService, postCacheService, readYourWrites, toggleWriteService,
+                feedVersionService);
+        PostHydrationService postHydrationService = new PostHydrationService(checked,
+                shardRouter, postCounterService, postCacheService, toggleWriteService,
+                PAGE_SIZE, 25);
+        RecommendationService recommendationService = new RecommendationService(checked,
+                shardRouter, socialGraphService, 20, 600000, 100);
+
+        // A timeline of 100 keys runs out after five pages, so the later
+        // pages are read from the database.
+        PostPage timeline = timelineService.getTimelinePage("1", null, PAGE_SIZE);
+        for (int i = 0; i < 8 && timeline.getNextCursor() != null; i++) {
+            hydrate(postHydrationService, timeline);
+            timeline = timelineService.getTimelinePage("1", timeline.getNextCursor(), PAGE_SIZE);
+        }
+
+        PostPage profile = postService.getUserPostsPage("2", null, PAGE_SIZE);
+        postService.getUserPostsPage("2", profile.getNextCursor(), PAGE_SIZE);
+        PostPage bookmarked = postService.getBookmarkedPostsPage("1", null, PAGE_SIZE);
+        postService.getBookmarkedPostsPage("1", bookmarked.getNextCursor(), PAGE_SIZE);
+        PostPage tagged = postService.getHashtagPostsPage(List.of("tag1"), null, PAGE_SIZE);
+        postService.getHashtagPostsPage(List.of("tag1"), tagged.getNextCursor(), PAGE_SIZE);
+        postService.getHashtagPostsPage(List.of("tag1", "tag8"), null, PAGE_SIZE);
+        hydrate(postHydrationService, tagged);
+
+        String commentedPostId = String.valueOf(USERS * POSTS_PER_USER);
+        CommentPage comments = postHydrationService.getCommentsPage(commentedPostId, null);
+        postHydrationService.getCommentsPage(commentedPostId, comments.getNextCursor());
+
+        socialGraphService.getFollowees("1");
+        socialGraphService.getFollowers("1");
+        socialGraphService.getFollowerCount("1");
+        recommendationService.getRecommendations("1");
+
+        Map<String, Object> results = checker.getResults();
+        assertEquals(Map.of(), results.get("violations"));
+        assertTrue("The queries should have been checked.",
+                (Integer) results.get("checkedStatements") >= 10);
+    }
+
+    public void testBadPlanFailsEveryTime() throws Exception {
+        final String sql = "select postId from posts where content = ?";
+        for (int run = 1; run <= 2; run++) {
+            try (Connection conn = checked.getConnection();
+                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, "post 1");
+                pstmt.executeQuery().close();
+                fail("A full scan of posts should fail run " + run + ".");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Query plan violation"));
+            }
+        }
+    }
+
+    private static void hydrate(PostHydrationService service, PostPage page)
+            throws SQLException {
+        service.hydrate("1", page.getPostIds());
+    }
+
+    private static void append(StringBuilder values, String row) {
+        values.append(values.length() == 0 ? "" : ", ").append(row);
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.models.User;
+import uga.menik.csx370.services.UserService;
+
+/**
+ * Checks that reads go to the replicas, that a user who wrote reads from
+ * the primary and that the pin ends with the request.
+ * The primary and the two replicas are separate databases, so the
+ * database name of a connection tells where it came from.
+ */
+public class ReadRoutingDataSourceTest extends TestCase {
+
+    private HikariDataSource primary;
+    private HikariDataSource replica1;
+    private HikariDataSource replica2;
+    private ReadYourWrites readYourWrites;
+    private ReadRoutingDataSource dataSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        primary = TestDatabase.createMain("routing_primary");
+        replica1 = TestDatabase.createMain("routing_replica1");
+        replica2 = TestDatabase.createMain("routing_replica2");
+        readYourWrites = new ReadYourWrites(60000);
+        // The pin is kept per thread, so a write in an earlier test may have set it.
+        readYourWrites.setCurrentThreadPinned(false);
+        dataSource = new ReadRoutingDataSource(primary, List.of(replica1, replica2),
+                readYourWrites);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        readYourWrites.setCurrentThreadPinned(false);
+        primary.close();
+        replica1.close();
+        replica2.close();
+    }
+
+    public void testReadsGoToTheReplicasInTurn() throws Exception {
+        List<String> databases = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            databases.add(readDatabase());
+        }
+        assertEquals(List.of("routing_replica1", "routing_replica2", "routing_replica1",
+                "routing_replica2"), databases);
+    }
+
+    public void testReadsAfterAWriteGoToThePrimary() throws Exception {
+        assertFalse(readDatabase().equals("routing_primary"));
+        readYourWrites.recordWrite("1");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("routing_primary", readDatabase());
+        }
+    }
+
+    public void testInterceptorPinsOnlyUsersWhoWrote() throws Exception {
+        readYourWrites.recordWrite("1");
+        // The write happened in an earlier request.
+        readYourWrites.setCurrentThreadPinned(false);
+
+        ReadYourWritesInterceptor writer = new ReadYourWritesInterceptor(loggedIn("1"),
+                readYourWrites);
+        writer.preHandle(null, null, null);
+        assertEquals("routing_primary", readDatabase());
+        writer.afterCompletion(null, null, null, null);
+
+        ReadYourWritesInterceptor reader = new ReadYourWritesInterceptor(loggedIn("2"),
+                readYourWrites);
+        reader.preHandle(null, null, null);
+        assertTrue(readDatabase().startsWith("routing_replica"));
+        reader.afterCompletion(null, null, null, null);
+    }
+
+    public void testPinEndsWithTheRequest() throws Exception {
+        ReadYourWritesInterceptor interceptor = new ReadYourWritesInterceptor(loggedIn("2"),
+                readYourWrites);
+        interceptor.preHandle(null, null, null);
+        readYourWrites.recordWrite("2");
+        assertEquals("routing_primary", readDatabase());
+        interceptor.afterCompletion(null, null, null, null);
+
+        // The thread serves a request of another user next.
+        assertFalse(readYourWrites.isCurrentThreadPinned());
+        assertTrue(readDatabase().startsWith("routing_replica"));
+    }
+
+    private String readDatabase() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            return conn.getCatalog();
+        }
+    }
+
+    /**
+     * Returns a UserService that sees the user as logged in.
+     */
+    private static UserService loggedIn(String userId) {
+        User user = new User(userId, "First", "Last");
+        return new UserService(null, null, null, "session") {
+            @Override
+            public boolean isAuthenticated() {
+                return true;
+            }
+
+            @Override
+            public User getLoggedInUser() {
+                return user;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.models.Post;
+import uga.menik.csx370.models.PostKey;
+import uga.menik.csx370.models.PostPage;
+import uga.menik.csx370.services.FeedVersionService;
+import uga.menik.csx370.services.PostCacheService;
+import uga.menik.csx370.services.PostCounterService;
+import uga.menik.csx370.services.PostHydrationService;
+import uga.menik.csx370.services.PostService;
+import uga.menik.csx370.services.ToggleWriteService;
+
+/**
+ * Checks posts spread over three local shard databases with eight
+ * logical shards: each post is stored on the shard of its author, its id
+ * leads back to that shard, and reads across shards see every post.
+ * Also checks that a changed layout is refused.
+ */
+public class ShardRouterTest extends TestCase {
+
+    private static final int USERS = 30;
+    private static final int LOGICAL_SHARDS = 8;
+
+    private HikariDataSource database;
+    private List<HikariDataSource> shardDatabases;
+    private ShardRouter shardRouter;
+    private ReadYourWrites readYourWrites;
+    private ToggleWriteService toggleWriteService;
+    private PostService postService;
+    private PostHydrationService postHydrationService;
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("sharding_main");
+        StringBuilder users = new StringBuilder();
+        for (int userId = 1; userId <= USERS; userId++) {
+            users.append(userId == 1 ? "" : ", ").append("(" + userId + ", 'user" + userId
+                    + "', 'x', 'First', 'Last" + userId + "')");
+        }
+        TestDatabase.execute(database,
+                "insert into user (userId, username, password, firstName, lastName) values "
+                        + users);
+
+        shardDatabases = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            shardDatabases.add(TestDatabase.createShard("sharding_shard" + i));
+        }
+        shardRouter = newRouter(LOGICAL_SHARDS, shardDatabases);
+        shardRouter.checkLayout();
+
+        readYourWrites = new ReadYourWrites(5000);
+        PostCacheService postCacheService = new PostCacheService(1000, 1000);
+        FeedVersionService feedVersionService = new FeedVersionService(postCacheService);
+        PostCounterService postCounterService = new PostCounterService(shardRouter,
+                feedVersionService, 1000);
+        toggleWriteService = new ToggleWriteService(database, shardRouter, postCounterService,
+                feedVersionService, 1000, 500);
+        postService = new PostService(database, database, shardRouter, postCounterService,
+                postCacheService, readYourWrites, toggleWriteService, feedVersionService);
+        postHydrationService = new PostHydrationService(database, shardRouter,
+                postCounterService, postCacheService, toggleWriteService, 20, 25);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        toggleWriteService.flush();
+        // Creating posts pinned the test thread to the primary.
+        readYourWrites.setCurrentThreadPinned(false);
+        shardRouter.shutdown();
+        for (HikariDataSource shardDatabase : shardDatabases) {
+            shardDatabase.close();
+        }
+        database.close();
+    }
+
+    public void testPostsAreStoredOnTheShardOfTheirAuthor() throws Exception {
+        Map<String, String> authorByPostId = new HashMap<>();
+        for (int userId = 1; userId <= USERS; userId++) {
+            PostKey post = postService.createPost(String.valueOf(userId), "post of " + userId,
+                    List.of("sharded"));
+            authorByPostId.put(post.getPostId(), String.valueOf(userId));
+        }
+
+        Set<Integer> usedShards = new HashSet<>();
+        for (Map.Entry<String, String> entry : authorByPostId.entrySet()) {
+            Shard shard = shardRouter.forUser(entry.getValue());
+            assertSame(shard, shardRouter.forPost(entry.getKey()));
+            usedShards.add(shard.getIndex());
+        }
+        assertEquals("Thirty users should use all three shards.", 3, usedShards.size());
+
+        // Each shard holds exactly the posts of its users.
+        int stored = 0;
+        for (Shard shard : shardRouter.getShards()) {
+            try (Connection conn = shard.getReadDataSource().getConnection();
+                    Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("select postId, userId from posts")) {
+                while (rs.next()) {
+                    String postId = rs.getString("postId");
+                    assertEquals(authorByPostId.get(postId), rs.getString("userId"));
+                    assertSame(shard, shardRouter.forPost(postId));
+                    stored++;
+                }
+            }
+        }
+        assertEquals(USERS, stored);
+
+        // The hashtag search pages through the posts of all shards.
+        List<String> postIds = new ArrayList<>();
+        PostKey cursor = null;
+        do {
+            PostPage page = postService.getHashtagPostsPage(List.of("sharded"), cursor, 7);
+            postIds.addAll(page.getPostIds());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(authorByPostId.keySet(), new HashSet<>(postIds));
+        assertEquals(USERS, postIds.size());
+
+        List<Post> posts = postHydrationService.hydrate("1", postIds);
+        assertEquals(USERS, posts.size());
+        for (Post post : posts) {
+            String author = authorByPostId.get(post.getPostId());
+            assertEquals(author, post.getUser().getUserId());
+            assertEquals("post of " + author, post.getContent());
+        }
+    }
+
+    public void testMalformedPostIdsHaveNoPost() throws Exception {
+        for (String postId : List.of("abc", "99999999999", "")) {
+            assertNull(shardRouter.forPost(postId));
+            assertEquals(List.of(), postHydrationService.hydrate("1", List.of(postId)));
+            assertEquals(List.of(), postHydrationService.getCommentsPage(postId, null)
+                    .getComments());
+            try {
+                postService.addComment("1", postId, "hello");
+                fail("A comment on " + postId + " should fail.");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("no post"));
+            }
+        }
+    }
+
+    public void testChangedLogicalShardCountIsRefused() throws Exception {
+        ShardRouter changed = newRouter(LOGICAL_SHARDS * 2, shardDatabases);
+        try {
+            changed.checkLayout();
+            fail("A different logical shard count should be refused.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("logical-count"));
+        } finally {
+            changed.shutdown();
+        }
+    }
+
+    public void testReorderedShardsAreRefused() throws Exception {
+        ShardRouter reordered = newRouter(LOGICAL_SHARDS, List.of(shardDatabases.get(1),
+                shardDatabases.get(0), shardDatabases.get(2)));
+        try {
+            reordered.checkLayout();
+            fail("Shards in a different order should be refused.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("original order"));
+        } finally {
+            reordered.shutdown();
+        }
+    }
+
+    private static ShardRouter newRouter(int logicalShardCount,
+            List<HikariDataSource> databases) {
+        List<Shard> shards = new ArrayList<>();
+        for (HikariDataSource shardDatabase : databases) {
+            shards.add(new Shard(shards.size(), shardDatabase, shardDatabase));
+        }
+        return new ShardRouter(logicalShardCount, shards, Executors.newCachedThreadPool());
+    }
+
+}
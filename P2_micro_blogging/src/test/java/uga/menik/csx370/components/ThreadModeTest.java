@@ -0,0 +1,40 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.components;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that virtual mode is only used where the runtime has virtual
+ * threads and stops the start everywhere else.
+ */
+public class ThreadModeTest extends TestCase {
+
+    public void testVirtualModeNeedsVirtualThreads() {
+        boolean supported = Runtime.version().feature() >= 21;
+        try {
+            ThreadMode threadMode = newThreadMode("virtual");
+            assertTrue("Virtual mode should have stopped the start.", supported);
+            assertTrue(threadMode.isVirtual());
+        } catch (IllegalStateException e) {
+            assertFalse(e.getMessage(), supported);
+            assertTrue(e.getMessage(), e.getMessage().contains("Java 21"));
+        }
+    }
+
+    public void testPlatformModeRunsEverywhere() {
+        ThreadMode threadMode = newThreadMode("platform");
+        assertFalse(threadMode.isVirtual());
+        assertEquals((10 + 20) * 4, threadMode.getMaxConcurrentRequests());
+    }
+
+    private static ThreadMode newThreadMode(String mode) {
+        return new ThreadMode(mode, 4, 10, 20, List.of(), List.of());
+    }
+
+}
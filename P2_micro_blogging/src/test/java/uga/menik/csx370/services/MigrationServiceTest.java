@@ -0,0 +1,212 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ReadRoutingDataSource;
+import uga.menik.csx370.components.ReadYourWrites;
+
+/**
+ * Runs the migrations on a database made before the post counters: its
+ * posts table has no hearts_count and comments_count columns. Checks that
+ * V4 adds them and backfills them in ranges of the batch size at the
+ * configured rate, that running the migrations again changes nothing and
+ * that a script changed after it was applied stops the start.
+ */
+public class MigrationServiceTest extends TestCase {
+
+    private static final int BATCH_SIZE = 7;
+    // Post ids 1 to 100 without 41 to 60, plus 1000, so some ranges are
+    // empty and the last range starts far after the others.
+    private static final int LAST_POST_ID = 1000;
+
+    private HikariDataSource database;
+    private ReadYourWrites readYourWrites;
+    private DataSource readDataSource;
+    // Backfill statements run, one per range.
+    private final AtomicInteger backfillRanges = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("migration_test");
+        List<String> inserts = new ArrayList<>();
+        inserts.add("alter table posts drop column hearts_count, drop column comments_count");
+        for (int userId = 1; userId <= 4; userId++) {
+            inserts.add("insert into user (userId, username, password, firstName, lastName) "
+                    + "values (" + userId + ", 'user" + userId + "', 'x', 'First', 'Last')");
+        }
+        for (int postId : postIds()) {
+            inserts.add("insert into posts (postId, userId, content) values (" + postId
+                    + ", 1, 'post " + postId + "')");
+            // Post n has n % 5 hearts and n % 3 comments.
+            for (int userId = 1; userId <= postId % 5; userId++) {
+                inserts.add("insert into likes (user_id, post_id) values (" + userId + ", "
+                        + postId + ")");
+            }
+            for (int i = 0; i < postId % 3; i++) {
+                inserts.add("insert into comments (post_id, user_id, content) values ("
+                        + postId + ", 2, 'comment')");
+            }
+        }
+        TestDatabase.execute(database, inserts.toArray(new String[0]));
+        readYourWrites = new ReadYourWrites(5000);
+        // The primary stands in for a replica. It is not replicating, so
+        // it reports no lag.
+        readDataSource = new ReadRoutingDataSource(database, List.of(database), readYourWrites);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        database.close();
+    }
+
+    public void testCountersAreBackfilledInRangesAtTheConfiguredRate() throws Exception {
+        // 5 ms a row, so the 81 posts take at least 405 ms.
+        long start = System.currentTimeMillis();
+        newService(200).migrate();
+        long elapsedMs = System.currentTimeMillis() - start;
+
+        assertCountersMatchTheRows();
+        assertEquals("One statement per range of " + BATCH_SIZE + " ids up to "
+                + LAST_POST_ID + ".", (LAST_POST_ID + BATCH_SIZE - 1) / BATCH_SIZE,
+                backfillRanges.get());
+        assertTrue("The backfill took " + elapsedMs + " ms.", elapsedMs >= 405);
+        assertEquals(Set.of("1", "2", "3", "4"), rows("select version from schema_migrations"));
+    }
+
+    public void testRunningAgainChangesNothing() throws Exception {
+        newService(100000).migrate();
+        Set<String> applied = rows("select concat(version, ' ', checksum, ' ', applied_at) "
+                + "from schema_migrations");
+        backfillRanges.set(0);
+        newService(100000).migrate();
+        assertEquals(applied, rows("select concat(version, ' ', checksum, ' ', applied_at) "
+                + "from schema_migrations"));
+        assertEquals(0, backfillRanges.get());
+
+        // A script that stopped halfway is not recorded and runs again from
+        // the start. The columns exist by then and the counts stay right.
+        TestDatabase.execute(database, "delete from schema_migrations where version = 4",
+                "update posts set hearts_count = 0 where postId <= 50");
+        newService(100000).migrate();
+        assertCountersMatchTheRows();
+        assertTrue(backfillRanges.get() > 0);
+    }
+
+    public void testChangedScriptIsRefused() throws Exception {
+        newService(100000).migrate();
+        TestDatabase.execute(database,
+                "update schema_migrations set checksum = repeat('0', 64) where version = 4");
+        try {
+            newService(100000).migrate();
+            fail("A changed migration should stop the start.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("V4 was changed"));
+        }
+    }
+
+    private MigrationService newService(int rowsPerSecond) {
+        return new MigrationService(countingBackfills(database), readDataSource, true,
+                BATCH_SIZE, rowsPerSecond, 5);
+    }
+
+    private void assertCountersMatchTheRows() throws Exception {
+        Set<String> counts = rows("select concat(postId, ':', hearts_count, ':', "
+                + "comments_count) from posts");
+        Set<String> expected = new HashSet<>();
+        for (int postId : postIds()) {
+            expected.add(postId + ":" + postId % 5 + ":" + postId % 3);
+        }
+        assertEquals(expected, counts);
+    }
+
+    private static List<Integer> postIds() {
+        List<Integer> postIds = new ArrayList<>();
+        for (int postId = 1; postId <= 100; postId++) {
+            if (postId <= 40 || postId > 60) {
+                postIds.add(postId);
+            }
+        }
+        postIds.add(LAST_POST_ID);
+        return postIds;
+    }
+
+    private Set<String> rows(String sql) throws Exception {
+        Set<String> rows = new HashSet<>();
+        try (Connection conn = database.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                rows.add(rs.getString(1));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns dataSource with every run of an UPDATE posts statement
+     * prepared on its connections counted in backfillRanges.
+     */
+    private DataSource countingBackfills(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                    Object result = invoke(dataSource, method, args);
+                    if (result instanceof Connection conn) {
+                        return countingConnection(conn);
+                    }
+                    return result;
+                });
+    }
+
+    private Connection countingConnection(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    Object result = invoke(conn, method, args);
+                    if (result instanceof PreparedStatement pstmt
+                            && ((String) args[0]).startsWith("UPDATE posts")) {
+                        return countingStatement(pstmt);
+                    }
+                    return result;
+                });
+    }
+
+    private PreparedStatement countingStatement(PreparedStatement pstmt) {
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("executeUpdate")) {
+                        backfillRanges.incrementAndGet();
+                    }
+                    return invoke(pstmt, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that callers stop waiting for a hash after the wait timeout and
+ * that only hashes of a lower cost are rehashed.
+ */
+public class PasswordHashingServiceTest extends TestCase {
+
+    public void testSlowHashesAreRefusedAfterTheWaitTimeout() {
+        // A target of 0 ms keeps the cost at the minimum of 12, which
+        // takes far longer than the 20 ms wait.
+        PasswordHashingService service = new PasswordHashingService(1, 4, 0, 12, 20);
+        try {
+            long start = System.currentTimeMillis();
+            try {
+                service.encode("password");
+                fail("The hash should not have finished within 20 ms.");
+            } catch (RejectedExecutionException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("20 ms"));
+            }
+            long elapsedMs = System.currentTimeMillis() - start;
+            assertTrue("The caller waited " + elapsedMs + " ms.", elapsedMs < 200);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    public void testOnlyLowerCostsAreRehashed() {
+        PasswordHashingService service = new PasswordHashingService(1, 4, 0, 5, 60000);
+        try {
+            assertTrue(service.needsRehash(new BCryptPasswordEncoder(4).encode("password")));
+            assertFalse(service.needsRehash(new BCryptPasswordEncoder(5).encode("password")));
+            // Made by a node on faster hardware. Kept as it is.
+            assertFalse(service.needsRehash(new BCryptPasswordEncoder(6).encode("password")));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+
+/**
+ * Checks that pending counter changes survive failed flushes and that
+ * reconciliation leaves the counts right and changes the feed versions
+ * only when it corrects a count.
+ */
+public class PostCounterServiceTest extends TestCase {
+
+    private HikariDataSource database;
+    private ShardRouter shardRouter;
+    private FeedVersionService feedVersionService;
+    private PostCounterService service;
+    // While set every new connection of the shard fails.
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("counter_test");
+        TestDatabase.execute(database,
+                "insert into user (userId, username, password, firstName, lastName) "
+                        + "values (1, 'user1', 'x', 'First', 'Last')",
+                "insert into posts (postId, userId, content) values (1, 1, 'post 1')");
+        DataSource flaky = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("getConnection") && failing.get()) {
+                        throw new SQLException("Shard is down.");
+                    }
+                    try {
+                        return method.invoke(database, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        shardRouter = new ShardRouter(1, List.of(new Shard(0, flaky, flaky)),
+                Executors.newCachedThreadPool());
+        feedVersionService = new FeedVersionService(new PostCacheService(10, 10));
+        service = new PostCounterService(shardRouter, feedVersionService, 1000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        shardRouter.shutdown();
+        database.close();
+    }
+
+    public void testFailedFlushKeepsChanges() throws Exception {
+        service.addHearts("1", 3);
+        service.addComments("1", 2);
+        failing.set(true);
+        try {
+            service.flush();
+            fail("The flush should have failed.");
+        } catch (SQLException e) {
+            // Expected.
+        }
+        assertEquals(3, service.getPendingHearts("1"));
+        assertEquals(2, service.getPendingComments("1"));
+
+        // Changes made while the shard was down are kept as well.
+        service.addHearts("1", 1);
+        failing.set(false);
+        service.flush();
+        assertEquals(0, service.getPendingHearts("1"));
+        assertEquals(0, service.getPendingComments("1"));
+        assertCounts(4, 2);
+    }
+
+    public void testReconcileDoesNotCountPendingChangesTwice() throws Exception {
+        TestDatabase.execute(database,
+                "insert into likes (user_id, post_id) values (1, 1)",
+                "insert into comments (post_id, user_id, content) values (1, 1, 'hi')");
+        service.addHearts("1", 1);
+        service.addComments("1", 1);
+        service.reconcile();
+        assertEquals(0, service.getPendingHearts("1"));
+        assertCounts(1, 1);
+    }
+
+    public void testReconcileChangesFeedVersionsOnlyOnCorrections() throws Exception {
+        String eTag = feedVersionService.getProfileETag("1", "1");
+        service.reconcile();
+        assertEquals("Right counts leave the feeds as they are.", eTag,
+                feedVersionService.getProfileETag("1", "1"));
+
+        // A like written without its count change, as after a crash.
+        TestDatabase.execute(database, "insert into likes (user_id, post_id) values (1, 1)");
+        service.reconcile();
+        assertCounts(1, 0);
+        assertFalse("A corrected count changes the feeds.",
+                eTag.equals(feedVersionService.getProfileETag("1", "1")));
+    }
+
+    private void assertCounts(int hearts, int comments) throws SQLException {
+        try (Connection conn = database.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(
+                        "select hearts_count, comments_count from posts where postId = 1");
+                ResultSet rs = pstmt.executeQuery()) {
+            assertTrue(rs.next());
+            assertEquals(hearts, rs.getInt(1));
+            assertEquals(comments, rs.getInt(2));
+        }
+    }
+
+}
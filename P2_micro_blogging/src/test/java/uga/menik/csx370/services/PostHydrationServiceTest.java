@@ -0,0 +1,296 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.models.Comment;
+import uga.menik.csx370.models.CommentKey;
+import uga.menik.csx370.models.CommentPage;
+import uga.menik.csx370.models.ExpandedPost;
+import uga.menik.csx370.models.Post;
+
+/**
+ * Checks that hydrating a page of posts runs a fixed number of statements
+ * however many posts the page has.
+ */
+public class PostHydrationServiceTest extends TestCase {
+
+    private static final int POSTS = 60;
+
+    private HikariDataSource database;
+    private ShardRouter shardRouter;
+    // Statements run through the data sources given to the services.
+    private final AtomicInteger statements = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("hydration_test");
+        List<String> inserts = new ArrayList<>();
+        for (int userId = 1; userId <= 3; userId++) {
+            inserts.add("insert into user (userId, username, password, firstName, lastName) "
+                    + "values (" + userId + ", 'user" + userId + "', 'x', 'First', 'Last')");
+        }
+        for (int postId = 1; postId <= POSTS; postId++) {
+            // Post n has n % 5 hearts and n % 3 comments.
+            inserts.add("insert into posts (postId, userId, content, hearts_count, "
+                    + "comments_count) values (" + postId + ", " + (postId % 3 + 1)
+                    + ", 'post " + postId + "', " + (postId % 5) + ", " + (postId % 3) + ")");
+            if (postId % 2 == 0) {
+                inserts.add("insert into likes (user_id, post_id) values (1, " + postId + ")");
+            }
+            if (postId % 7 == 0) {
+                inserts.add("insert into bookmarks (user_id, post_id) values (1, " + postId + ")");
+            }
+        }
+        TestDatabase.execute(database, inserts.toArray(new String[0]));
+
+        DataSource counted = TestDatabase.counting(database, statements);
+        shardRouter = new ShardRouter(1, List.of(new Shard(0, counted, counted)),
+                Executors.newCachedThreadPool());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        shardRouter.shutdown();
+        database.close();
+    }
+
+    public void testStatementCountDoesNotDependOnPageSize() throws Exception {
+        int small = countHydrationStatements(5);
+        int large = countHydrationStatements(50);
+        assertEquals(large, small);
+        // Counts, post rows, hearts, bookmarks and authors.
+        assertEquals(5, large);
+    }
+
+    public void testCachedPageOnlyReadsCounts() throws Exception {
+        PostHydrationService service = newService();
+        List<String> postIds = postIds(50);
+        service.hydrate("1", postIds);
+        statements.set(0);
+        service.hydrate("1", postIds);
+        assertEquals(1, statements.get());
+    }
+
+    public void testHydratedFieldsMatchTheRows() throws Exception {
+        List<Post> posts = newService().hydrate("1", postIds(POSTS));
+        assertEquals(POSTS, posts.size());
+        for (int i = 0; i < POSTS; i++) {
+            Post post = posts.get(i);
+            int postId = POSTS - i;
+            assertEquals(String.valueOf(postId), post.getPostId());
+            assertEquals("post " + postId, post.getContent());
+            assertEquals(String.valueOf(postId % 3 + 1), post.getUser().getUserId());
+            assertEquals(postId % 5, post.getHeartsCount());
+            assertEquals(postId % 3, post.getCommentsCount());
+            assertEquals(postId % 2 == 0, post.getHearted());
+            assertEquals(postId % 7 == 0, post.isBookmarked());
+        }
+    }
+
+    public void testCommentPagesFollowTheCursor() throws Exception {
+        insertComments(120);
+        PostHydrationService service = newService();
+        List<String> contents = new ArrayList<>();
+        CommentKey cursor = null;
+        List<Integer> pageSizes = new ArrayList<>();
+        do {
+            CommentPage page = service.getCommentsPage("1", cursor);
+            pageSizes.add(page.getComments().size());
+            for (Comment comment : page.getComments()) {
+                contents.add(comment.getContent());
+            }
+            cursor = page.hasNext() ? CommentKey.decode(page.getNextCursor().encode()) : null;
+        } while (cursor != null);
+
+        assertEquals(List.of(50, 50, 20), pageSizes);
+        for (int i = 0; i < 120; i++) {
+            assertEquals("comment " + (i + 1), contents.get(i));
+        }
+    }
+
+    public void testStreamedCommentsMatchTheFirstPage() throws Exception {
+        insertComments(120);
+        PostHydrationService service = newService();
+        Post post = service.hydrate("1", List.of("1")).get(0);
+        AtomicInteger chunks = new AtomicInteger();
+        ExpandedPost expanded = service.expandStreamed(post, chunks::incrementAndGet);
+        assertEquals("Nothing is read before the comments are iterated.", 0, chunks.get());
+
+        List<String> contents = new ArrayList<>();
+        for (Comment comment : expanded.getComments()) {
+            contents.add(comment.getContent());
+        }
+        CommentPage firstPage = service.getCommentsPage("1", null);
+        List<String> expected = new ArrayList<>();
+        for (Comment comment : firstPage.getComments()) {
+            expected.add(comment.getContent());
+        }
+        assertEquals(expected, contents);
+        assertEquals(firstPage.getNextCursor().encode(), expanded.getNextCommentsCursor());
+        // 50 comments in chunks of 7.
+        assertEquals(8, chunks.get());
+    }
+
+    public void testStreamedCommentsContinueAfterAFirstChunkReadBefore() throws Exception {
+        insertComments(120);
+        PostHydrationService service = newService();
+        Post post = service.hydrate("1", List.of("1")).get(0);
+        CommentPage firstChunk = service.getFirstCommentChunk("1");
+        assertEquals(7, firstChunk.getComments().size());
+        AtomicInteger chunks = new AtomicInteger();
+        ExpandedPost expanded = service.expandStreamed(post, firstChunk, chunks::incrementAndGet);
+
+        List<String> contents = new ArrayList<>();
+        for (Comment comment : expanded.getComments()) {
+            contents.add(comment.getContent());
+        }
+        CommentPage firstPage = service.getCommentsPage("1", null);
+        List<String> expected = new ArrayList<>();
+        for (Comment comment : firstPage.getComments()) {
+            expected.add(comment.getContent());
+        }
+        assertEquals(expected, contents);
+        assertEquals(firstPage.getNextCursor().encode(), expanded.getNextCommentsCursor());
+        // The 43 comments after the first chunk in chunks of 7.
+        assertEquals(7, chunks.get());
+    }
+
+    public void testStreamedCommentsOfAShortPostHaveNoNextPage() throws Exception {
+        insertComments(14);
+        PostHydrationService service = newService();
+        Post post = service.hydrate("1", List.of("1")).get(0);
+        ExpandedPost expanded = service.expandStreamed(post, () -> { });
+        int count = 0;
+        for (Comment ignored : expanded.getComments()) {
+            count++;
+        }
+        assertEquals(14, count);
+        assertNull(expanded.getNextCommentsCursor());
+    }
+
+    public void testFailedCommentChunksEndWithAnErrorAndARetryLink() throws Exception {
+        insertComments(120);
+        Post post = newService().hydrate("1", List.of("1")).get(0);
+        // Reads of the shard fail once failing is set.
+        AtomicBoolean failing = new AtomicBoolean();
+        DataSource shard = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                    if (failing.get()) {
+                        throw new SQLException("The shard is down.");
+                    }
+                    return method.invoke(database, args);
+                });
+        ShardRouter failingRouter = new ShardRouter(1, List.of(new Shard(0, shard, shard)),
+                Executors.newCachedThreadPool());
+        try {
+            PostHydrationService service = newService(failingRouter);
+
+            // The second chunk fails.
+            AtomicInteger chunks = new AtomicInteger();
+            ExpandedPost expanded = service.expandStreamed(post, () -> {
+                failing.set(chunks.incrementAndGet() == 2);
+            });
+            int count = 0;
+            for (Comment ignored : expanded.getComments()) {
+                count++;
+            }
+            assertEquals(7, count);
+            assertEquals(2, chunks.get());
+            assertNotNull(expanded.getCommentsErrorMessage());
+            failing.set(false);
+            CommentPage firstPage = service.getCommentsPage("1", null);
+            // The link continues after the seventh comment.
+            assertTrue(expanded.getNextCommentsCursor().endsWith("_7"));
+            assertEquals("comment 8", service.getCommentsPage("1",
+                    CommentKey.decode(expanded.getNextCommentsCursor())).getComments().get(0)
+                    .getContent());
+
+            // The first chunk fails. The link starts from the first comment.
+            failing.set(true);
+            expanded = service.expandStreamed(post, () -> { });
+            assertFalse(expanded.getComments().iterator().hasNext());
+            assertNotNull(expanded.getCommentsErrorMessage());
+            failing.set(false);
+            CommentPage retried = service.getCommentsPage("1",
+                    CommentKey.decode(expanded.getNextCommentsCursor()));
+            assertEquals(firstPage.getComments().size(), retried.getComments().size());
+            assertEquals("comment 1", retried.getComments().get(0).getContent());
+            assertEquals(firstPage.getNextCursor(), retried.getNextCursor());
+        } finally {
+            failingRouter.shutdown();
+        }
+    }
+
+    /**
+     * Adds count comments to post 1. They all have the same creation time,
+     * so their order comes from their ids.
+     */
+    private void insertComments(int count) throws Exception {
+        List<String> inserts = new ArrayList<>();
+        for (int commentId = 1; commentId <= count; commentId++) {
+            inserts.add("insert into comments (commentId, post_id, user_id, content, created_at) "
+                    + "values (" + commentId + ", 1, 2, 'comment " + commentId + "', "
+                    + "'2024-03-01 10:00:00')");
+        }
+        TestDatabase.execute(database, inserts.toArray(new String[0]));
+    }
+
+    /**
+     * Returns the number of statements a new service with empty caches
+     * runs to hydrate a page of the given size.
+     */
+    private int countHydrationStatements(int pageSize) throws Exception {
+        PostHydrationService service = newService();
+        statements.set(0);
+        List<Post> posts = service.hydrate("1", postIds(pageSize));
+        assertEquals(pageSize, posts.size());
+        return statements.get();
+    }
+
+    private PostHydrationService newService() {
+        return newService(shardRouter);
+    }
+
+    private PostHydrationService newService(ShardRouter shardRouter) {
+        DataSource counted = TestDatabase.counting(database, statements);
+        PostCacheService postCacheService = new PostCacheService(1000, 1000);
+        FeedVersionService feedVersionService = new FeedVersionService(postCacheService);
+        PostCounterService postCounterService = new PostCounterService(shardRouter,
+                feedVersionService, 1000);
+        ToggleWriteService toggleWriteService = new ToggleWriteService(database, shardRouter,
+                postCounterService, feedVersionService, 1000, 500);
+        return new PostHydrationService(counted, shardRouter, postCounterService,
+                postCacheService, toggleWriteService, 50, 7);
+    }
+
+    /**
+     * Returns the ids of the newest posts, newest first.
+     */
+    private static List<String> postIds(int count) {
+        List<String> postIds = new ArrayList<>();
+        for (int postId = POSTS; postId > POSTS - count; postId--) {
+            postIds.add(String.valueOf(postId));
+        }
+        return postIds;
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ReadYourWrites;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.models.FollowableUser;
+import uga.menik.csx370.services.RecommendationService.Recommendation;
+
+/**
+ * Checks that follows and unfollows update the cached recommendations
+ * right away and that followed users stay on the people page.
+ * User 1 follows 2, user 2 follows 3 and 4, and user 3 follows 2 and 4.
+ */
+public class RecommendationServiceTest extends TestCase {
+
+    private HikariDataSource database;
+    private ShardRouter shardRouter;
+    private ToggleWriteService toggleWriteService;
+    private SocialGraphService socialGraphService;
+    private RecommendationService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("recommendation_test");
+        for (int userId = 1; userId <= 5; userId++) {
+            TestDatabase.execute(database,
+                    "insert into user (userId, username, password, firstName, lastName) "
+                            + "values (" + userId + ", 'user" + userId + "', 'x', 'First', "
+                            + "'Last" + userId + "')");
+        }
+        TestDatabase.execute(database,
+                "insert into follows (follower_id, followee_id) "
+                        + "values (1, 2), (2, 3), (2, 4), (3, 2), (3, 4)");
+        shardRouter = new ShardRouter(1, List.of(new Shard(0, database, database)),
+                Executors.newCachedThreadPool());
+        FeedVersionService feedVersionService =
+                new FeedVersionService(new PostCacheService(10, 10));
+        PostCounterService postCounterService = new PostCounterService(shardRouter,
+                feedVersionService, 1000);
+        toggleWriteService = new ToggleWriteService(database, shardRouter, postCounterService,
+                feedVersionService, 1000, 500);
+        socialGraphService = new SocialGraphService(database, new ReadYourWrites(5000),
+                toggleWriteService, 10000);
+        service = new RecommendationService(database, shardRouter, socialGraphService, 20,
+                600000, 100);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        toggleWriteService.flush();
+        shardRouter.shutdown();
+        database.close();
+    }
+
+    public void testFollowUpdatesRecommendations() throws Exception {
+        assertEquals(Set.of("3", "4"), ids(service.getRecommendations("1")));
+
+        socialGraphService.follow("1", "3");
+        service.onFollow("1", "3");
+        List<Recommendation> recommendations = service.getRecommendations("1");
+        // 4 is now followed by both followees and 3 is followed.
+        assertEquals(List.of("4"), idList(recommendations));
+    }
+
+    public void testUnfollowUpdatesRecommendations() throws Exception {
+        socialGraphService.follow("1", "3");
+        service.onFollow("1", "3");
+
+        socialGraphService.unfollow("1", "2");
+        service.onUnfollow("1", "2");
+        // 3 still follows 2 and 4, so both are candidates.
+        assertEquals(Set.of("2", "4"), ids(service.getRecommendations("1")));
+    }
+
+    public void testPeoplePageKeepsFollowedUsers() throws Exception {
+        socialGraphService.follow("1", "3");
+        service.onFollow("1", "3");
+        List<FollowableUser> people = new PeopleService(service).getPeople(
+                service.getRecommendations("1"), socialGraphService.getFollowees("1"));
+
+        Set<String> followed = new TreeSet<>();
+        List<String> notFollowed = new ArrayList<>();
+        for (FollowableUser user : people) {
+            if (user.isFollowed()) {
+                assertTrue("Followed users come first.", notFollowed.isEmpty());
+                followed.add(user.getUserId());
+            } else {
+                notFollowed.add(user.getUserId());
+            }
+        }
+        assertEquals(Set.of("2", "3"), followed);
+        assertEquals(List.of("4"), notFollowed);
+    }
+
+    private static Set<String> ids(List<Recommendation> recommendations) {
+        return new TreeSet<>(idList(recommendations));
+    }
+
+    private static List<String> idList(List<Recommendation> recommendations) {
+        List<String> ids = new ArrayList<>();
+        for (Recommendation recommendation : recommendations) {
+            ids.add(recommendation.getUserId());
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.sql.SQLException;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.AuthTokenCodec;
+
+/**
+ * Measures the heap a login keeps on the server in each app.auth.mode.
+ * An embedded Tomcat serves a login servlet that calls
+ * UserService.authenticate, and the benchmark logs in logins times
+ * (10000 by default) without sending cookies back, so every login is a
+ * new concurrent user. The heap in use after a full GC before and after
+ * the logins is the cost of keeping them logged in.
+ *
+ * Not part of the normal test run. Run it with
+ *   mvn test -Dtest=SessionHeapBenchmark [-Dlogins=10000]
+ */
+public class SessionHeapBenchmark extends TestCase {
+
+    private static final int LOGINS = Integer.getInteger("logins", 10000);
+
+    private HikariDataSource database;
+    private PasswordHashingService passwordHashingService;
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("session_heap_benchmark");
+        // The lowest BCrypt cost keeps the run short. The cost of a hash
+        // does not change what a login keeps on the heap.
+        String hash = new BCryptPasswordEncoder(4).encode("password");
+        TestDatabase.execute(database,
+                "insert into user (username, password, firstName, lastName) "
+                        + "values ('benchmark', '" + hash + "', 'Bench', 'Mark')");
+        passwordHashingService = new PasswordHashingService(2, LOGINS, 0, 4, 60000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        passwordHashingService.shutdown();
+        database.close();
+    }
+
+    public void testHeapPerLogin() throws Exception {
+        long sessionBytes = measure("session");
+        long tokenBytes = measure("token");
+        System.out.printf("Heap kept for %d logins: session mode %.1f MB (%d bytes each), "
+                + "token mode %.1f MB (%d bytes each)%n", LOGINS, sessionBytes / 1e6,
+                sessionBytes / LOGINS, tokenBytes / 1e6, tokenBytes / LOGINS);
+        assertTrue("Token mode should keep far less than session mode.",
+                tokenBytes < sessionBytes / 4);
+    }
+
+    /**
+     * Returns the heap kept by LOGINS logins in the given mode.
+     */
+    private long measure(String mode) throws Exception {
+        UserService userService = new UserService(database, passwordHashingService,
+                new AuthTokenCodec("benchmark secret", 1800), mode);
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("tomcat").toString());
+        tomcat.setPort(0);
+        Context context = tomcat.addContext("", null);
+        Tomcat.addServlet(context, "login", new LoginServlet(userService));
+        context.addServletMappingDecoded("/login", "login");
+        tomcat.start();
+        try {
+            String url = "http://localhost:" + tomcat.getConnector().getLocalPort() + "/login";
+            HttpClient client = HttpClient.newHttpClient();
+            // Warm up so classes and pools loaded by the first logins do not count.
+            login(client, url, 200);
+            long before = usedHeap();
+            login(client, url, LOGINS);
+            long after = usedHeap();
+            System.out.println(mode + " mode: " + context.getManager().getActiveSessions()
+                    + " active sessions");
+            return Math.max(after - before, 0);
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    private static void login(HttpClient client, String url, int count)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        for (int i = 0; i < count; i++) {
+            HttpResponse<Void> response = client.send(request,
+                    HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, response.statusCode());
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Logs in the benchmark user with the real UserService code.
+     */
+    private static class LoginServlet extends HttpServlet {
+
+        private final UserService userService;
+
+        LoginServlet(UserService userService) {
+            this.userService = userService;
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest request, HttpServletResponse response)
+                throws IOException {
+            RequestContextHolder.setRequestAttributes(
+                    new ServletRequestAttributes(request, response));
+            try {
+                if (!userService.authenticate("benchmark", "password")) {
+                    response.sendError(401);
+                }
+            } catch (SQLException e) {
+                response.sendError(500);
+            } finally {
+                RequestContextHolder.resetRequestAttributes();
+            }
+        }
+    }
+
+}
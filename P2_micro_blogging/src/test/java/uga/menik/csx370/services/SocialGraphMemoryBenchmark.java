@@ -0,0 +1,148 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ReadYourWrites;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+
+/**
+ * Measures the heap SocialGraphService needs per million follow edges
+ * against a boxed collection baseline.
+ * The follows table gets users * follows random edges (10000 users
+ * following 100 users each by default, one million edges). The service
+ * then loads the followee and follower lists of every user, which holds
+ * each edge twice. The baseline holds the same lists as
+ * Map<Integer, List<Integer>>. Each side is measured as the heap in use
+ * after a full GC before and after it is built.
+ *
+ * Not part of the normal test run. Run it with
+ *   mvn test -Dtest=SocialGraphMemoryBenchmark [-Dusers=10000] [-Dfollows=100]
+ */
+public class SocialGraphMemoryBenchmark extends TestCase {
+
+    private static final int USERS = Integer.getInteger("users", 10000);
+    private static final int FOLLOWS = Integer.getInteger("follows", 100);
+
+    private HikariDataSource database;
+    private ShardRouter shardRouter;
+    // Followee ids by follower id as inserted. Index is the user id.
+    private int[][] edges;
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("graph_memory_benchmark");
+        shardRouter = new ShardRouter(1, List.of(new Shard(0, database, database)),
+                Executors.newCachedThreadPool());
+
+        List<String> inserts = new ArrayList<>();
+        StringBuilder users = new StringBuilder();
+        for (int userId = 1; userId <= USERS; userId++) {
+            users.append(users.length() == 0 ? "" : ", ").append("(" + userId + ", 'user"
+                    + userId + "', 'x', 'First', 'Last')");
+            if (userId % 5000 == 0 || userId == USERS) {
+                inserts.add("insert into user (userId, username, password, firstName, lastName) "
+                        + "values " + users);
+                users.setLength(0);
+            }
+        }
+
+        Random random = new Random(42);
+        edges = new int[USERS + 1][];
+        StringBuilder follows = new StringBuilder();
+        int rows = 0;
+        for (int followerId = 1; followerId <= USERS; followerId++) {
+            int user = followerId;
+            // Distinct followees other than the user.
+            edges[followerId] = random.ints(1, USERS + 1).filter(id -> id != user).distinct()
+                    .limit(FOLLOWS).toArray();
+            for (int followeeId : edges[followerId]) {
+                follows.append(follows.length() == 0 ? "" : ", ")
+                        .append("(" + followerId + ", " + followeeId + ")");
+                if (++rows % 5000 == 0) {
+                    inserts.add("insert into follows (follower_id, followee_id) values " + follows);
+                    follows.setLength(0);
+                }
+            }
+        }
+        if (follows.length() > 0) {
+            inserts.add("insert into follows (follower_id, followee_id) values " + follows);
+        }
+        TestDatabase.execute(database, inserts.toArray(new String[0]));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        shardRouter.shutdown();
+        database.close();
+    }
+
+    public void testMemoryPerMillionEdges() throws Exception {
+        long edgeCount = (long) USERS * FOLLOWS;
+
+        FeedVersionService feedVersionService =
+                new FeedVersionService(new PostCacheService(10, 10));
+        PostCounterService postCounterService = new PostCounterService(shardRouter,
+                feedVersionService, 1000);
+        ToggleWriteService toggleWriteService = new ToggleWriteService(database, shardRouter,
+                postCounterService, feedVersionService, 1000, 500);
+        // Room for every list in both directions.
+        SocialGraphService service = new SocialGraphService(database, new ReadYourWrites(5000),
+                toggleWriteService, edgeCount * 2);
+
+        long before = usedHeap();
+        for (int userId = 1; userId <= USERS; userId++) {
+            service.getFollowees(String.valueOf(userId));
+            service.getFollowers(String.valueOf(userId));
+        }
+        long arrayBytes = usedHeap() - before;
+
+        before = usedHeap();
+        Map<Integer, List<Integer>> boxedFollowees = new HashMap<>();
+        Map<Integer, List<Integer>> boxedFollowers = new HashMap<>();
+        for (int followerId = 1; followerId <= USERS; followerId++) {
+            for (int followeeId : edges[followerId]) {
+                // Ids above 127 are a new Integer each, as when read with getInt.
+                boxedFollowees.computeIfAbsent(followerId, k -> new ArrayList<>())
+                        .add(followeeId);
+                boxedFollowers.computeIfAbsent(followeeId, k -> new ArrayList<>())
+                        .add(followerId);
+            }
+        }
+        long boxedBytes = usedHeap() - before;
+
+        double millions = edgeCount / 1e6;
+        System.out.printf("Heap per million edges, both directions: int[] cache %.1f MB, "
+                + "Map<Integer, List<Integer>> %.1f MB (%d edges)%n",
+                arrayBytes / 1e6 / millions, boxedBytes / 1e6 / millions, edgeCount);
+        // Keep the structures reachable until both are measured.
+        assertTrue(service.isFollowing("1", String.valueOf(edges[1][0])));
+        assertEquals(edges[1].length, boxedFollowees.get(1).size());
+        assertTrue("The int[] cache should need less than half of the boxed lists.",
+                arrayBytes < boxedBytes / 2);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+Copyright (c) 2024 Sami Menik, PhD. All rights reserved.
+
+This is a project developed by Dr. Menik to give the students an opportunity to apply database concepts learned in the class in a real world project. Permission is granted to host a running version of this software and to use images or videos of this work solely for the purpose of demonstrating the work to potential employers. Any form of reproduction, distribution, or transmission of the software's source code, in part or whole, without the prior written consent of the copyright owner, is strictly prohibited.
+*/
+package uga.menik.csx370.services;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import junit.framework.TestCase;
+import uga.menik.csx370.TestDatabase;
+import uga.menik.csx370.components.ShardRouter;
+import uga.menik.csx370.components.ShardRouter.Shard;
+import uga.menik.csx370.services.ToggleWriteService.Kind;
+
+/**
+ * Checks that hearts and bookmarks clicked by many users at once, while
+ * flushes run, end in the rows of the last clicks and in hearts counts
+ * that match the likes rows.
+ */
+public class ToggleWriteServiceTest extends TestCase {
+
+    private static final int USERS = 20;
+    private static final int POSTS = 5;
+    private static final int CLICKS_PER_USER = 500;
+
+    private HikariDataSource database;
+    private ShardRouter shardRouter;
+    private PostCounterService postCounterService;
+    private ToggleWriteService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        database = TestDatabase.createMain("toggle_test");
+        List<String> inserts = new ArrayList<>();
+        for (int userId = 1; userId <= USERS; userId++) {
+            inserts.add("insert into user (userId, username, password, firstName, lastName) "
+                    + "values (" + userId + ", 'user" + userId + "', 'x', 'First', 'Last')");
+        }
+        for (int postId = 1; postId <= POSTS; postId++) {
+            inserts.add("insert into posts (postId, userId, content) values (" + postId
+                    + ", 1, 'post " + postId + "')");
+        }
+        TestDatabase.execute(database, inserts.toArray(new String[0]));
+        shardRouter = new ShardRouter(1, List.of(new Shard(0, database, database)),
+                Executors.newCachedThreadPool());
+        FeedVersionService feedVersionService =
+                new FeedVersionService(new PostCacheService(10, 10));
+        postCounterService = new PostCounterService(shardRouter, feedVersionService, 1000);
+        service = new ToggleWriteService(database, shardRouter, postCounterService,
+                feedVersionService, 1000, 7);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        shardRouter.shutdown();
+        database.close();
+    }
+
+    public void testConcurrentTogglesEndInTheLastState() throws Exception {
+        // The last state each user clicked by kind and post.
+        List<Map<Kind, boolean[]>> lastStates = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> users = new ArrayList<>();
+        for (int userId = 1; userId <= USERS; userId++) {
+            Map<Kind, boolean[]> last = new HashMap<>();
+            last.put(Kind.HEART, new boolean[POSTS + 1]);
+            last.put(Kind.BOOKMARK, new boolean[POSTS + 1]);
+            lastStates.add(last);
+            String user = String.valueOf(userId);
+            Random random = new Random(userId);
+            users.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < CLICKS_PER_USER; i++) {
+                        Kind kind = random.nextBoolean() ? Kind.HEART : Kind.BOOKMARK;
+                        int postId = random.nextInt(POSTS) + 1;
+                        boolean value = random.nextBoolean();
+                        service.set(kind, user, String.valueOf(postId), value);
+                        last.get(kind)[postId] = value;
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+
+        // Flushes of both services run during the clicks, like the scheduler.
+        AtomicBoolean clicking = new AtomicBoolean(true);
+        Thread flusher = new Thread(() -> {
+            try {
+                while (clicking.get()) {
+                    service.flush();
+                    postCounterService.flush();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+
+        for (Thread user : users) {
+            user.start();
+        }
+        flusher.start();
+        start.countDown();
+        for (Thread user : users) {
+            user.join();
+        }
+        clicking.set(false);
+        flusher.join();
+        if (failure.get() != null) {
+            throw new AssertionError("A click or flush failed.", failure.get());
+        }
+        service.flush();
+        postCounterService.flush();
+
+        assertEquals(0L, service.getStats().get("pending"));
+        for (Kind kind : List.of(Kind.HEART, Kind.BOOKMARK)) {
+            Set<String> expected = new HashSet<>();
+            for (int userId = 1; userId <= USERS; userId++) {
+                boolean[] last = lastStates.get(userId - 1).get(kind);
+                for (int postId = 1; postId <= POSTS; postId++) {
+                    if (last[postId]) {
+                        expected.add(userId + ":" + postId);
+                    }
+                }
+            }
+            String table = kind == Kind.HEART ? "likes" : "bookmarks";
+            assertEquals(table, expected, rows("select concat(user_id, ':', post_id) from "
+                    + table));
+        }
+
+        Set<String> counts = rows("select concat(p.postId, ':', p.hearts_count) from posts p");
+        Set<String> likes = rows("select concat(p.postId, ':', count(l.user_id)) from posts p "
+                + "left join likes l on l.post_id = p.postId group by p.postId");
+        assertEquals(likes, counts);
+        for (int postId = 1; postId <= POSTS; postId++) {
+            assertEquals(0, postCounterService.getPendingHearts(String.valueOf(postId)));
+        }
+    }
+
+    public void testMalformedIdsAreRefused() throws Exception {
+        for (String postId : List.of("abc", "99999999999")) {
+            try {
+                service.set(Kind.HEART, "1", postId, true);
+                fail("A heart on " + postId + " should be refused.");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(postId));
+            }
+        }
+        assertEquals(0L, service.getStats().get("pending"));
+    }
+
+    private Set<String> rows(String sql) throws Exception {
+        Set<String> rows = new HashSet<>();
+        try (Connection conn = database.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                rows.add(rs.getString(1));
+            }
+        }
+        return rows;
+    }
+
+}